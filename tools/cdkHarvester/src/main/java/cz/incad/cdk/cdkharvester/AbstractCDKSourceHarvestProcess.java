@@ -1,50 +1,96 @@
 package cz.incad.cdk.cdkharvester;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.ws.rs.core.MediaType;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.kramerius.Import;
-import org.kramerius.replications.BasicAuthenticationClientFilter;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
-import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 
+import cz.incad.cdk.cdkharvester.cache.MetadataCache;
 import cz.incad.cdk.cdkharvester.changeindex.AddField;
 import cz.incad.cdk.cdkharvester.changeindex.ChangeField;
+import cz.incad.cdk.cdkharvester.changeindex.IndexBatch;
 import cz.incad.cdk.cdkharvester.changeindex.PrivateConnectUtils;
 import cz.incad.cdk.cdkharvester.changeindex.ResultsUtils;
-import cz.incad.cdk.cdkharvester.foxmlprocess.ImageReplaceProcess;
+import cz.incad.cdk.cdkharvester.changeindex.StreamingUpdateWriter;
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.cdk.cdkharvester.client.RateLimiter;
+import cz.incad.cdk.cdkharvester.commit.CommitPolicies;
+import cz.incad.cdk.cdkharvester.commit.CommitPolicy;
+import cz.incad.cdk.cdkharvester.commit.CommitStatistics;
+import cz.incad.cdk.cdkharvester.fingerprint.Fingerprint;
+import cz.incad.cdk.cdkharvester.fingerprint.FingerprintStore;
+import cz.incad.cdk.cdkharvester.foxmlprocess.FOXMLStreams;
 import cz.incad.cdk.cdkharvester.foxmlprocess.ProcessFOXML;
+import cz.incad.cdk.cdkharvester.foxmlprocess.StreamingImageReplaceProcess;
 import cz.incad.cdk.cdkharvester.guice.CDKModule;
 import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
 import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
 import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
 import cz.incad.cdk.cdkharvester.manageprocess.CheckLiveProcess;
+import cz.incad.cdk.cdkharvester.metrics.HarvestMetrics;
+import cz.incad.cdk.cdkharvester.metrics.TimedEventReader;
+import cz.incad.cdk.cdkharvester.postponed.BufferedPostponedItemsListImpl;
+import cz.incad.cdk.cdkharvester.queue.WorkItem;
+import cz.incad.cdk.cdkharvester.queue.WorkQueue;
+import cz.incad.cdk.cdkharvester.queue.WorkQueueIteration;
+import cz.incad.cdk.cdkharvester.replication.ReplicationTracker;
+import cz.incad.cdk.cdkharvester.replication.ReplicationWorkers;
+import cz.incad.cdk.cdkharvester.retry.RetryExecutor;
+import cz.incad.cdk.cdkharvester.state.HttpStateSender;
+import cz.incad.cdk.cdkharvester.state.StateReporter;
 import cz.incad.cdk.cdkharvester.timestamp.ProcessingTimestamps;
+import cz.incad.cdk.cdkharvester.timestamp.WriteBehindProcessingTimestamps;
+import cz.incad.cdk.cdkharvester.transform.CachingURIResolver;
+import cz.incad.cdk.cdkharvester.transform.SolrXMLTransformation;
 import cz.incad.kramerius.processes.impl.ProcessStarter;
 import cz.incad.kramerius.utils.IOUtils;
 import cz.incad.kramerius.utils.StringUtils;
@@ -76,21 +122,88 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 	
 	protected List<ProcessFOXML> processingChain = new ArrayList<ProcessFOXML>();
 	protected Transformer transformer;
+	protected SolrXMLTransformation transformation;
+
+	protected CommitPolicy commitPolicy;
+	protected CommitStatistics commitStatistics = new CommitStatistics();
+
+	protected HarvestClient harvestClient;
+
+	protected IndexBatch indexBatch;
+	protected StreamingUpdateWriter updateWriter;
+	protected StateReporter stateReporter;
+
+	protected WorkQueueIteration workQueueIteration;
+	// pids failed in this harvest when the work queue is disabled; replayed by the next harvest
+	protected BufferedPostponedItemsListImpl postponedItems;
+	private volatile boolean postponedReplayed;
+
+	protected RetryExecutor retryExecutor;
+	protected RateLimiter writeLimiter;
+	protected HarvestMetrics metrics;
+
+	// fingerprints of the replicated objects; stored when their items are completed (documents are in the index)
+	protected FingerprintStore fingerprintStore;
+	private final Map<String, Fingerprint> pendingFingerprints = new HashMap<>();
+	private final AtomicInteger unchangedObjects = new AtomicInteger();
+
+	// sources and sources selected by pid; resolved once per harvest
+	private MetadataCache<String, List<CDKSource>> sourcesCache;
+	private MetadataCache<String, CDKSource> sourceByPidCache;
+	// items of the running harvest; the timestamp moves only over the resolved ones
+	protected ReplicationTracker tracker;
+	// failure which stops the harvest (failures are not postponed)
+	private final AtomicReference<CDKReplicationException> replicationFailure = new AtomicReference<>();
 
 	public AbstractCDKSourceHarvestProcess() {
 		super();
-		this.processingChain.add(new ImageReplaceProcess());
+		this.processingChain.add(new StreamingImageReplaceProcess());
 	}
 
 
 
 	protected WebResource client(String url) {
-		Client c = Client.create();
-		c.setConnectTimeout(2000);
-		c.setReadTimeout(60000);
-		WebResource r = c.resource(url);
-		r.addFilter(new BasicAuthenticationClientFilter(userName, pswd));
-		return r;
+		return getHarvestClient().resource(url, userName, pswd);
+	}
+
+	public HarvestClient getHarvestClient() {
+		if (this.harvestClient == null) {
+			this.harvestClient = HarvestClient.getInstance();
+		}
+		return harvestClient;
+	}
+
+	public void setHarvestClient(HarvestClient harvestClient) {
+		this.harvestClient = harvestClient;
+	}
+
+	public synchronized RetryExecutor getRetryExecutor() {
+		if (this.retryExecutor == null) {
+			this.retryExecutor = RetryExecutor.forSource(this.k4Url);
+		}
+		return retryExecutor;
+	}
+
+	public void setRetryExecutor(RetryExecutor retryExecutor) {
+		this.retryExecutor = retryExecutor;
+	}
+
+	public synchronized HarvestMetrics getMetrics() {
+		if (this.metrics == null) {
+			this.metrics = HarvestMetrics.getInstance();
+		}
+		return metrics;
+	}
+
+	public void setMetrics(HarvestMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets limiter of the replicated documents (Fedora and Solr writes); shared by harvests running in the same JVM
+	 */
+	public void setWriteLimiter(RateLimiter writeLimiter) {
+		this.writeLimiter = writeLimiter;
 	}
 
 
@@ -99,15 +212,18 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 	}
 
 	public void postToIndex(String xmlcont) throws CDKReplicationException {
-		String solrUrlString = getSolrUpdateEndpoint();
-		Client c = Client.create();
-		WebResource r = c.resource(solrUrlString);
+		String solrUrlString = withUpdateParameters(getSolrUpdateEndpoint());
+		WebResource r = getHarvestClient().resource(solrUrlString);
 		ClientResponse resp = r.accept(MediaType.TEXT_XML).type(MediaType.TEXT_XML)
 				.entity(xmlcont, "text/xml; charset=UTF-8").post(ClientResponse.class);
-		int status = resp.getStatus();
-		if (status != 200) {
-			String entity = resp.getEntity(String.class);
-			throw new CDKReplicationException("couldn't index data because of " + entity);
+		try {
+			int status = resp.getStatus();
+			if (status != 200) {
+				String entity = resp.getEntity(String.class);
+				throw new CDKReplicationException("couldn't index data because of " + entity);
+			}
+		} finally {
+			resp.close();
 		}
 	}
 
@@ -116,6 +232,17 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 		return solrUrlString;
 	}
 
+	/**
+	 * Appends parameters required by commit policy (commitWithin) to the given update endpoint
+	 */
+	protected String withUpdateParameters(String updateEndpoint) {
+		String params = getCommitPolicy().getUpdateParameters();
+		if (StringUtils.isAnyString(params)) {
+			return updateEndpoint + (updateEndpoint.contains("?") ? "&" : "?") + params;
+		}
+		return updateEndpoint;
+	}
+
 	protected String getSolrSelectEndpoint() {
 		String solrUrlString = KConfiguration.getInstance().getConfiguration().getString("solrHost") + "/select";
 		return solrUrlString;
@@ -129,6 +256,348 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 		return KConfiguration.getInstance().getConfiguration().getLong("cdk.ingest.wait.millis", 2000);
 	}
 
+	/** Number of parallel replication workers; 1 means sequential processing */
+	protected int getReplicationWorkers() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.replication.workers", 1);
+	}
+
+	/** Number of items waiting for a free replication worker */
+	protected int getReplicationQueueSize() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.replication.queue", 2 * getReplicationWorkers());
+	}
+
+	/** Directory of the persistent work queues; empty means the harvest does not use the work queue */
+	protected String getWorkQueueDirectory() {
+		return KConfiguration.getInstance().getConfiguration().getString("cdk.queue.dir", "");
+	}
+
+	protected int getWorkQueueSegmentSize() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.queue.segment.size", 4 * 1024 * 1024);
+	}
+
+	/** Number of replicated items between two writes of the harvesting timestamp */
+	protected int getTimestampFlushItems() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.timestamp.flush.items", 100);
+	}
+
+	/** Maximal interval between two writes of the harvesting timestamp in milliseconds */
+	protected long getTimestampFlushMillis() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.timestamp.flush.millis", 10000);
+	}
+
+	/** Directory of the postponed pids; empty means the failed pids are not kept for the next harvest */
+	protected String getPostponedDirectory() {
+		return KConfiguration.getInstance().getConfiguration().getString("cdk.retry.postponed.dir", "");
+	}
+
+	/** Directory of the fingerprint stores; empty means every object is ingested and indexed again */
+	protected String getFingerprintDirectory() {
+		return KConfiguration.getInstance().getConfiguration().getString("cdk.fingerprint.dir", "");
+	}
+
+	/**
+	 * Returns fingerprints of the harvested collection or null if the fingerprints are disabled
+	 */
+	protected synchronized FingerprintStore getFingerprintStore() throws IOException {
+		if (this.fingerprintStore == null) {
+			String dir = getFingerprintDirectory();
+			if (StringUtils.isAnyString(dir)) {
+				String name = String.valueOf(this.collectionPid).replaceAll("[^A-Za-z0-9_.-]", "_");
+				this.fingerprintStore = new FingerprintStore(new File(dir, name + ".fingerprints"));
+			}
+		}
+		return this.fingerprintStore;
+	}
+
+	/**
+	 * Stores fingerprint of the completed item; its documents are in the index
+	 */
+	private void storeFingerprint(String pid) {
+		Fingerprint fingerprint;
+		synchronized (this.pendingFingerprints) {
+			fingerprint = this.pendingFingerprints.remove(pid);
+		}
+		if (fingerprint != null) {
+			try {
+				FingerprintStore store = getFingerprintStore();
+				if (store != null) {
+					store.put(fingerprint);
+				}
+			} catch (IOException e) {
+				// the object is replicated again next time
+				LOGGER.log(Level.WARNING, "cannot store fingerprint of " + pid, e);
+			}
+		}
+	}
+
+	/**
+	 * Drops fingerprint of the failed item, so that the object is not skipped next time
+	 */
+	private void dropFingerprint(String pid) {
+		synchronized (this.pendingFingerprints) {
+			this.pendingFingerprints.remove(pid);
+		}
+	}
+
+	protected void flushFingerprintStore() throws IOException {
+		FingerprintStore store = getFingerprintStore();
+		if (store != null) {
+			store.flush();
+		}
+	}
+
+	protected void closeFingerprintStore() throws IOException {
+		FingerprintStore store;
+		synchronized (this) {
+			store = this.fingerprintStore;
+			this.fingerprintStore = null;
+		}
+		synchronized (this.pendingFingerprints) {
+			this.pendingFingerprints.clear();
+		}
+		if (store != null) {
+			LOGGER.log(Level.INFO, "{0} unchanged objects skipped; {1}", new Object[] { this.unchangedObjects.getAndSet(0), store });
+			store.close();
+		}
+	}
+
+	/** Name of the work queue; one queue per harvested source */
+	protected String workQueueName(String sourcePid) {
+		return sourcePid;
+	}
+
+	/**
+	 * Opens (or restores) the work queue of the harvest
+	 * @return the queue or null if the work queue is disabled
+	 */
+	protected WorkQueue openWorkQueue(String sourcePid) throws IOException {
+		String dir = getWorkQueueDirectory();
+		if (StringUtils.isAnyString(dir)) {
+			String name = workQueueName(sourcePid).replaceAll("[^A-Za-z0-9_.-]", "_");
+			return new WorkQueue(new File(dir, name), getWorkQueueSegmentSize());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns file of the pids postponed by the last harvest of the source or null if it is disabled
+	 */
+	protected File getPostponedFile(String sourcePid) {
+		String dir = getPostponedDirectory();
+		if (StringUtils.isAnyString(dir)) {
+			String name = workQueueName(sourcePid).replaceAll("[^A-Za-z0-9_.-]", "_");
+			return new File(dir, name + ".postponed");
+		}
+		return null;
+	}
+
+	/**
+	 * Returns iteration replaying pids postponed by the last harvest before the harvested items; failed pids of
+	 * this harvest are collected into a new file which replaces the old one when the harvest ends
+	 */
+	protected CDKHarvestIteration replayPostponed(File postponedFile, final CDKHarvestIteration iterator)
+			throws IOException {
+		File next = new File(postponedFile.getPath() + ".new");
+		Files.deleteIfExists(next.toPath());
+		this.postponedItems = new BufferedPostponedItemsListImpl(next, 64 * 1024, 1000);
+		if (!postponedFile.exists()) {
+			this.postponedReplayed = true;
+			return iterator;
+		}
+		LOGGER.log(Level.INFO, "replaying pids postponed by the last harvest from {0}", postponedFile);
+		this.postponedReplayed = false;
+		final CDKHarvestIteration replay = BufferedPostponedItemsListImpl.replay(postponedFile);
+		return new CDKHarvestIteration() {
+
+			@Override
+			public void init() throws CDKHarvestIterationException {
+				replay.init();
+				iterator.init();
+			}
+
+			@Override
+			public boolean hasNext() throws CDKHarvestIterationException {
+				if (!postponedReplayed) {
+					if (replay.hasNext()) return true;
+					postponedReplayed = true;
+				}
+				return iterator.hasNext();
+			}
+
+			@Override
+			public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
+				if (!hasNext()) return null;
+				return postponedReplayed ? iterator.next() : replay.next();
+			}
+		};
+	}
+
+	/**
+	 * Stores pids postponed by this harvest. The new file replaces the old one when all replayed pids
+	 * have been resolved; otherwise the new pids are appended to the old ones.
+	 */
+	protected void closePostponedItems(File postponedFile, boolean resolved) {
+		BufferedPostponedItemsListImpl items = this.postponedItems;
+		this.postponedItems = null;
+		if (items == null) return;
+		try {
+			items.close();
+			Path next = items.getPostponeFile().toPath();
+			if (resolved && this.postponedReplayed) {
+				if (items.getCount() > 0) {
+					Files.move(next, postponedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} else {
+					Files.deleteIfExists(next);
+					Files.deleteIfExists(postponedFile.toPath());
+				}
+			} else {
+				Files.write(postponedFile.toPath(), Files.readAllBytes(next), StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+				Files.delete(next);
+			}
+			if (items.getCount() > 0) {
+				LOGGER.log(Level.INFO, "{0} pids postponed to the next harvest in {1}",
+						new Object[] { items.getCount(), postponedFile });
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "cannot store postponed pids " + items.getPostponeFile(), e);
+		}
+	}
+
+	/**
+	 * Item has been replicated and its documents are in the index; only then it is done in the work queue
+	 */
+	private void completed(CDKHarvestIterationItem item) {
+		getMetrics().replicated();
+		storeFingerprint(item.getPid());
+		if (this.workQueueIteration != null && item instanceof WorkItem) {
+			try {
+				this.workQueueIteration.done(item);
+			} catch (IOException e) {
+				stopHarvest(new CDKReplicationException(e));
+			}
+		}
+	}
+
+	/** Failed items are replicated again at the end of the harvest; otherwise the failure stops the harvest */
+	protected boolean isPostponeFailures() {
+		return KConfiguration.getInstance().getConfiguration().getBoolean("cdk.retry.postpone", true);
+	}
+
+	/**
+	 * Creates tracker of the harvested items; the timestamp is moved only over the items which have been
+	 * replicated and whose documents are in the index
+	 */
+	protected ReplicationTracker createTracker(final String sourcePid, @Nullable final ProcessingTimestamps timestamps) {
+		return new ReplicationTracker(new ReplicationTracker.Listener() {
+			@Override
+			public void completed(CDKHarvestIterationItem item) {
+				AbstractCDKSourceHarvestProcess.this.completed(item);
+			}
+
+			@Override
+			public void failed(CDKHarvestIterationItem item, Exception e) {
+				itemFailed(item, e);
+			}
+
+			@Override
+			public void watermark(CDKHarvestIterationItem item) {
+				if (timestamps != null) {
+					try {
+						timestamps.setTimestamp(sourcePid, timestamps.parse(item.getTimestamp()));
+					} catch (IOException e) {
+						stopHarvest(new CDKReplicationException(e));
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Handles failed replication of the item; the item is retried at the end of the harvest
+	 * or the harvest stops when the failures are not postponed
+	 */
+	private void itemFailed(CDKHarvestIterationItem item, Exception e) {
+		getMetrics().failed(e);
+		dropFingerprint(item.getPid());
+		replicationFailed(item);
+		BufferedPostponedItemsListImpl postponed = this.postponedItems;
+		if (postponed != null) {
+			try {
+				postponed.postpone(item.getPid());
+			} catch (IOException ex) {
+				LOGGER.log(Level.SEVERE, "cannot postpone " + item.getPid(), ex);
+			}
+		}
+		if (!isPostponeFailures()) {
+			stopHarvest(e instanceof CDKReplicationException ? (CDKReplicationException) e : new CDKReplicationException(e));
+		} else {
+			LOGGER.log(Level.SEVERE, "replication of " + item.getPid() + " failed; postponing", e);
+		}
+	}
+
+	private void stopHarvest(CDKReplicationException e) {
+		this.replicationFailure.compareAndSet(null, e);
+	}
+
+	/**
+	 * Throws the failure which stops the harvest
+	 */
+	private void checkReplicationFailure() throws CDKReplicationException {
+		CDKReplicationException failure = this.replicationFailure.getAndSet(null);
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Replicates one tracked item
+	 */
+	private void replicateItem(CDKHarvestIterationItem item, CDKState updatingState) {
+		try {
+			replicate(item.getPid(), item.getTimestamp(), updatingState);
+			this.tracker.replicated(item);
+		} catch (CDKReplicationException | RuntimeException e) {
+			this.tracker.failed(item, e);
+		}
+	}
+
+	/**
+	 * Indexes buffered documents and replicates failed items once more
+	 * @return number of items which failed again
+	 */
+	protected int retryFailed(CDKState updatingState) throws CDKReplicationException {
+		flushIndexBatch();
+		closeUpdateWriter();
+		checkReplicationFailure();
+		List<CDKHarvestIterationItem> items = this.tracker.retry();
+		if (!items.isEmpty()) {
+			LOGGER.log(Level.INFO, "replaying {0} postponed items", items.size());
+			for (CDKHarvestIterationItem item : items) {
+				replicateItem(item, updatingState);
+			}
+			flushIndexBatch();
+			closeUpdateWriter();
+			checkReplicationFailure();
+		}
+		int failed = this.tracker.getFailedCount();
+		if (failed > 0) {
+			LOGGER.log(Level.SEVERE, "{0} postponed items failed again; the timestamp stays before them", failed);
+		}
+		LOGGER.log(Level.INFO, "retry statistics: {0}", getRetryExecutor());
+		return failed;
+	}
+
+	private void replicationFailed(CDKHarvestIterationItem item) {
+		if (this.workQueueIteration != null && item instanceof WorkItem) {
+			try {
+				this.workQueueIteration.failed(item);
+			} catch (IOException e) {
+				LOGGER.log(Level.SEVERE, "cannot mark failed item " + item.getPid(), e);
+			}
+		}
+	}
+
 	public void replicate(String pid, String timeStamp, CDKState updatingState) throws CDKReplicationException {
 		try {
 			String url = k4Url + "/api/" + API_VERSION + "/cdk/" + pid + "/foxml?collection=" + collectionPid;
@@ -138,9 +607,29 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 				if (!Utils.getSkipList().contains(pid)) {
 					
 					try {
-						InputStream t = foxml(pid, url);
-						ingest(t, pid);
-						index(pid);
+						if (this.writeLimiter != null) {
+							try {
+								this.writeLimiter.acquire();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new CDKReplicationException(e);
+							}
+						}
+						FingerprintStore fingerprints = getFingerprintStore();
+						if (fingerprints != null) {
+							replicateChanged(fingerprints, pid, url, timeStamp);
+						} else {
+							InputStream t = foxml(pid, url);
+							try {
+								ingest(t, pid);
+							} finally {
+								// releases the connection of the source host
+								IOUtils.tryClose(t);
+							}
+							index(pid);
+						}
+					} catch (IOException e) {
+						throw new CDKReplicationException(e);
 					} finally {
 						if (updatingState != null) {
 							updateState(pid, timeStamp,updatingState);
@@ -158,21 +647,167 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 		}
 	}
 
+	/**
+	 * Ingests and indexes the object only when its foxml differs from the last replicated one. The request is
+	 * conditional (If-None-Match, If-Modified-Since) when the source sent the validators; otherwise the hash
+	 * of the source foxml is compared with the stored one.
+	 */
+	protected void replicateChanged(FingerprintStore fingerprints, String pid, String url, String timeStamp)
+			throws CDKReplicationException, IOException {
+		final Fingerprint previous = fingerprints.get(pid);
+		final WebResource r = client(url);
+		ClientResponse response;
+		long start = System.nanoTime();
+		try {
+			response = getRetryExecutor().call("foxml of " + pid, new Callable<ClientResponse>() {
+				@Override
+				public ClientResponse call() throws Exception {
+					WebResource.Builder builder = r.accept(MediaType.APPLICATION_XML);
+					if (previous != null && previous.getEtag() != null) {
+						builder = builder.header("If-None-Match", previous.getEtag());
+					}
+					if (previous != null && previous.getLastModified() != null) {
+						builder = builder.header("If-Modified-Since", previous.getLastModified());
+					}
+					ClientResponse resp = builder.get(ClientResponse.class);
+					if (resp.getStatus() >= 400) {
+						throw new UniformInterfaceException(resp);
+					}
+					return resp;
+				}
+			});
+			getMetrics().stop(HarvestMetrics.FOXML, start);
+		} catch (UniformInterfaceException e) {
+			getMetrics().error(HarvestMetrics.FOXML, e);
+			if (e.getResponse().getStatus() == 404) {
+				LOGGER.log(Level.WARNING, "Call to {0} failed with message {1}. Skyping document.",
+						new Object[] { url, e.getResponse().toString() });
+				index(pid);
+				return;
+			}
+			throw new CDKReplicationException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CDKReplicationException(e);
+		} catch (Exception e) {
+			getMetrics().error(HarvestMetrics.FOXML, e);
+			throw new CDKReplicationException(e);
+		}
+
+		if (response.getStatus() == 304) {
+			response.close();
+			this.unchangedObjects.incrementAndGet();
+			LOGGER.log(Level.FINE, "{0} not modified", pid);
+			return;
+		}
+		String etag = response.getHeaders().getFirst("ETag");
+		String lastModified = response.getHeaders().getFirst("Last-Modified");
+		File spool = File.createTempFile("cdk_source", ".xml");
+		try {
+			String hash;
+			try {
+				hash = spoolWithHash(getMetrics().counting(HarvestMetrics.FOXML, response.getEntityInputStream()), spool);
+			} finally {
+				response.close();
+			}
+			Fingerprint fingerprint = new Fingerprint(pid, hash, etag, lastModified, timeStamp);
+			if (previous != null && hash.equals(previous.getHash())) {
+				this.unchangedObjects.incrementAndGet();
+				LOGGER.log(Level.FINE, "{0} not changed", pid);
+				// validators of the source may be new
+				fingerprints.put(fingerprint);
+				return;
+			}
+			ingest(new BufferedInputStream(new FileInputStream(spool)), pid);
+			index(pid);
+			if (this.tracker == null) {
+				fingerprints.put(fingerprint);
+			} else {
+				// stored when the item is completed, i.e. its documents are in the index
+				synchronized (this.pendingFingerprints) {
+					this.pendingFingerprints.put(pid, fingerprint);
+				}
+			}
+		} finally {
+			if (!spool.delete()) {
+				LOGGER.warning("cannot delete temporary file " + spool.getAbsolutePath());
+			}
+		}
+	}
+
+	private static String spoolWithHash(InputStream is, File spool) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(spool));
+		try {
+			IOUtils.copyStreams(new DigestInputStream(is, digest), os);
+		} finally {
+			os.close();
+			is.close();
+		}
+		StringBuilder builder = new StringBuilder();
+		for (byte b : digest.digest()) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
 	static String authToken() {
         return System.getProperty(ProcessStarter.AUTH_TOKEN_KEY);
     }
 
-	// TODO : some 
+	/**
+	 * Enqueues the state of the pid; the states are sent to the application in the background
+	 */
 	private void updateState(String pid, String timeStamp,CDKState updatingState) {
-		String appUrl = KConfiguration.getInstance().getApplicationURL();
-		String url = appUrl + (appUrl.endsWith("/") ? "" : "/")+ "cdkmanage?action=INTRODUCESTATE&pid=" + pid+"&timestamp="+timeStamp;
-			Client c = Client.create();
-        WebResource r = c
-                .resource(url);
+		getStateReporter().report(pid, timeStamp, updatingState);
+	}
 
-        String t = r.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON)
-        		.header("auth-token", authToken()).get(String.class);
-        
+	/** Capacity of the state reporting queue */
+	protected int getStateQueueSize() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.state.queue", 10000);
+	}
+
+	/** Maximal number of states sent in one request */
+	protected int getStateBatchSize() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.state.batch", 200);
+	}
+
+	/** Maximal time the state waits for the request in milliseconds */
+	protected long getStateFlushMillis() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.state.flush.millis", 2000);
+	}
+
+	/** Maximal time the replication waits when the state queue is full; 0 means the state is dropped */
+	protected long getStateBlockMillis() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.state.block.millis", 0);
+	}
+
+	protected synchronized StateReporter getStateReporter() {
+		if (this.stateReporter == null) {
+			this.stateReporter = new StateReporter(
+					new HttpStateSender(getHarvestClient(), KConfiguration.getInstance().getApplicationURL(), authToken()),
+					getStateQueueSize(), getStateBatchSize(), getStateFlushMillis(), getStateBlockMillis());
+		}
+		return this.stateReporter;
+	}
+
+	/**
+	 * Sends the queued states and stops the reporter
+	 */
+	protected void closeStateReporter() {
+		StateReporter reporter;
+		synchronized (this) {
+			reporter = this.stateReporter;
+			this.stateReporter = null;
+		}
+		if (reporter != null) {
+			reporter.close(getHarvestClient().getReadTimeout() + getStateFlushMillis());
+		}
 	}
 
 	@Override
@@ -192,7 +827,9 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 
 	public org.json.JSONObject findDocFromCurrentIndex(String pid)
 			throws UnsupportedEncodingException, URISyntaxException {
-		org.json.JSONObject results = PrivateConnectUtils.findDoc(getSolrSelectEndpoint(), pid);
+		long start = System.nanoTime();
+		org.json.JSONObject results = PrivateConnectUtils.findDoc(getHarvestClient(), getSolrSelectEndpoint(), pid);
+		getMetrics().stop(HarvestMetrics.FIND_DOC, start);
 		return results;
 	}
 
@@ -211,38 +848,101 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 				KConfiguration.getInstance().getProperty("ingest.password"));
 	}
 
+	/** Compile tr.xsl by XSLTC */
+	protected boolean isCompiledTransformation() {
+		return KConfiguration.getInstance().getConfiguration().getBoolean("cdk.xslt.compiled", false);
+	}
+
+	/** Number of documents requested by tr.xsl kept in the cache */
+	protected int getTransformationCacheSize() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.xslt.resolver.cache", 1000);
+	}
+
 	protected void initTransformations()
 			throws TransformerFactoryConfigurationError, TransformerConfigurationException {
-		TransformerFactory tfactory = TransformerFactory.newInstance();
-		InputStream stylesheet = this.getClass().getResourceAsStream("/cz/incad/cdk/cdkharvester/tr.xsl");
-		StreamSource xslt = new StreamSource(stylesheet);
-		this.setTransformer(tfactory.newTransformer(xslt));
+		SolrXMLTransformation transformation = new SolrXMLTransformation(isCompiledTransformation());
+		transformation.setURIResolver(new CachingURIResolver(getHarvestClient(), getTransformationCacheSize(),
+				getMetadataCacheTTL()));
+		this.transformation = transformation;
 	}
 
+	protected synchronized SolrXMLTransformation getTransformation() throws TransformerConfigurationException {
+		if (this.transformation == null) {
+			initTransformations();
+		}
+		return this.transformation;
+	}
+
+	/**
+	 * Returns transformer set by {@link #setTransformer(Transformer)} or the transformer of the current thread
+	 */
 	public Transformer getTransformer() {
-		return transformer;
+		if (this.transformer != null) {
+			return this.transformer;
+		}
+		try {
+			return getTransformation().getTransformer();
+		} catch (TransformerConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
+	/**
+	 * Sets one transformer shared by all threads; the transformations are serialized
+	 */
 	public void setTransformer(Transformer transformer) {
 		this.transformer = transformer;
 	}
 
+	/**
+	 * Transforms solrxml of the new document into update documents
+	 * @param pid Pid of the document which is not in the index
+	 */
+	protected void transform(String pid, Source source, Result result) throws TransformerException {
+		Map<String, Object> parameters = transformationParameters(pid);
+		Transformer shared = this.transformer;
+		if (shared != null) {
+			// shared transformer is not thread safe
+			synchronized (shared) {
+				for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+					shared.setParameter(entry.getKey(), entry.getValue());
+				}
+				shared.transform(source, result);
+			}
+		} else {
+			getTransformation().transform(source, result, parameters);
+		}
+	}
+
 	public InputStream foxml(String pid, String url) {
-		WebResource r = client(url);
+		final WebResource r = client(url);
+		long start = System.nanoTime();
 		try {
-			return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
+			InputStream is = getRetryExecutor().call("foxml of " + pid, new Callable<InputStream>() {
+				@Override
+				public InputStream call() throws Exception {
+					return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
+				}
+			});
+			getMetrics().stop(HarvestMetrics.FOXML, start);
+			return getMetrics().counting(HarvestMetrics.FOXML, is);
 		} catch (UniformInterfaceException ex2) {
+			getMetrics().error(HarvestMetrics.FOXML, ex2);
 			if (ex2.getResponse().getStatus() == 404) {
 				LOGGER.log(Level.WARNING, "Call to {0} failed with message {1}. Skyping document.",
 						new Object[] { url, ex2.getResponse().toString() });
 				return null;
-			} else {
-				LOGGER.log(Level.WARNING, "Call to {0} failed. Retrying...", url);
-				return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
 			}
+			throw ex2;
+		} catch (RuntimeException ex) {
+			getMetrics().error(HarvestMetrics.FOXML, ex);
+			throw ex;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ClientHandlerException(ex);
 		} catch (Exception ex) {
-			LOGGER.log(Level.WARNING, "Call to {0} failed. Retrying...", url);
-			return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
+			getMetrics().error(HarvestMetrics.FOXML, ex);
+			throw new ClientHandlerException(ex);
 		}
 	}
 
@@ -254,25 +954,61 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 				return;
 			}
 
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			IOUtils.copyStreams(foxml, bos);
-
-			InputStream processingStream = new ByteArrayInputStream(bos.toByteArray());
-			for (int i = 0, ll = getProcessingChain().size(); i < ll; i++) {
-				ProcessFOXML unit = getProcessingChain().get(i);
-				processingStream = new ByteArrayInputStream(unit.process(this.k4Url, pid, processingStream));
-			}
+			// the chain is composed over stream of xml events and the result is spooled to the temporary file
+			File spool = File.createTempFile("cdk_foxml", ".xml");
+			try {
+				OutputStream spoolStream = new BufferedOutputStream(new FileOutputStream(spool));
+				try {
+					List<ProcessFOXML> chain = getProcessingChain();
+					if (chain.isEmpty()) {
+						long start = System.nanoTime();
+						IOUtils.copyStreams(foxml, spoolStream);
+						getMetrics().stop(HarvestMetrics.FOXML_READ, start);
+					} else {
+						// every reader is timed; the unit takes the time of its reader minus the time of its input
+						TimedEventReader[] timed = new TimedEventReader[chain.size() + 1];
+						timed[0] = new TimedEventReader(FOXMLStreams.reader(foxml));
+						for (int i = 0; i < chain.size(); i++) {
+							timed[i + 1] = new TimedEventReader(
+									FOXMLStreams.streaming(chain.get(i)).process(this.k4Url, pid, timed[i]));
+						}
+						FOXMLStreams.write(timed[chain.size()], spoolStream);
+						getMetrics().record(HarvestMetrics.FOXML_READ, timed[0].getNanos());
+						for (int i = 0; i < chain.size(); i++) {
+							getMetrics().record(HarvestMetrics.CHAIN + chain.get(i).getClass().getSimpleName(),
+									timed[i + 1].getNanos() - timed[i].getNanos());
+						}
+					}
+				} finally {
+					spoolStream.close();
+					foxml.close();
+				}
 
-			if (getIngestWait()) {
+				if (getIngestWait()) {
+					try {
+						long millis = getIngestWaitMilliseconds();
+						LOGGER.info("waiting for "+millis +" ms");
+						Thread.sleep(millis);
+					} catch (InterruptedException e) {
+						LOGGER.log(Level.SEVERE, e.getMessage(),e);
+					}
+				}
+				InputStream processingStream = new BufferedInputStream(new FileInputStream(spool));
+				long start = System.nanoTime();
 				try {
-					long millis = getIngestWaitMilliseconds();
-					LOGGER.info("waiting for "+millis +" ms");
-					Thread.sleep(millis);
-				} catch (InterruptedException e) {
-					LOGGER.log(Level.SEVERE, e.getMessage(),e);
+					rawIngest(pid, processingStream);
+					getMetrics().stop(HarvestMetrics.INGEST, start);
+				} catch (IOException | RuntimeException e) {
+					getMetrics().error(HarvestMetrics.INGEST, e);
+					throw e;
+				} finally {
+					processingStream.close();
+				}
+			} finally {
+				if (!spool.delete()) {
+					LOGGER.warning("cannot delete temporary file "+spool.getAbsolutePath());
 				}
 			}
-			rawIngest(pid, processingStream);
 		} catch (IOException e) {
 			throw new CDKReplicationException(e);
 		} catch (Exception e) {
@@ -291,48 +1027,256 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 				LOGGER.info("Page pid; cannot index");
 				return;
 			}
+			IndexBatch batch = getIndexBatch();
+			if (batch != null) {
+				buffered(pid);
+				batch.add(pid);
+				return;
+			}
 			org.json.JSONObject results = findDocFromCurrentIndex(pid);
 			if (ResultsUtils.docsExists(results)) {
+				long start = System.nanoTime();
 				if (ResultsUtils.collectionExists(results)) {
 					List<String> collections = ResultsUtils.disectCollections(results);
 					if (!collections.contains(this.collectionPid)) {
 						AddField addField = new AddField(pid, "collection", this.collectionPid);
-						addField.addValueToArray(getSolrUpdateEndpoint());
+						addField.addValueToArray(getHarvestClient(), withUpdateParameters(getSolrUpdateEndpoint()));
+						getMetrics().stop(HarvestMetrics.UPDATE, start);
 					}
 				} else {
 					ChangeField chField = new ChangeField(pid, "collection", this.collectionPid);
-					chField.changeField(getSolrUpdateEndpoint());
+					chField.changeField(getHarvestClient(), withUpdateParameters(getSolrUpdateEndpoint()));
+					getMetrics().stop(HarvestMetrics.UPDATE, start);
 				}
 			} else {
-
-				try {
-					String url = k4Url + "/api/" + API_VERSION + "/cdk/" + pid + "/solrxml";
-					InputStream t = solrxml(url);
-
-					StreamResult destStream = new StreamResult(new StringWriter());
-					changeTranformationVariables();
-					transformer.transform(new StreamSource(t), destStream);
-
-					StringWriter sw = (StringWriter) destStream.getWriter();
-					postToIndex(sw.toString());
-				} catch (UniformInterfaceException e) {
-					LOGGER.info("cannot index document");
-				}
+				indexNewDocument(pid);
 			}
 		} catch (UnsupportedEncodingException e) {
 			throw new CDKReplicationException(e);
 		} catch (URISyntaxException e) {
 			throw new CDKReplicationException(e);
+		}
+	}
+
+	/**
+	 * Indexes document which is not in the index yet; solrxml from the source is transformed by tr.xsl
+	 * @return false if the document has been streamed into the shared update request; the writer reports its result
+	 */
+	protected boolean indexNewDocument(String pid) throws CDKReplicationException {
+		StreamingUpdateWriter writer = getUpdateWriter();
+		if (writer == null) {
+			postNewDocument(pid);
+			return true;
+		}
+		try {
+			String url = k4Url + "/api/" + API_VERSION + "/cdk/" + pid + "/solrxml";
+			final InputStream t = solrxml(url);
+			try {
+				buffered(pid);
+				writer.add(pid, new StreamingUpdateWriter.DocumentSource() {
+					@Override
+					public void write(Result result) throws TransformerException {
+						long start = System.nanoTime();
+						transform(pid, new StreamSource(t), result);
+						getMetrics().stop(HarvestMetrics.TRANSFORM, start);
+					}
+				});
+			} finally {
+				// releases the connection of the source host
+				IOUtils.tryClose(t);
+			}
+			return false;
+		} catch (UniformInterfaceException e) {
+			LOGGER.info("cannot index document");
+			return true;
+		}
+	}
+
+	/**
+	 * Documents of the pid are buffered; the item is resolved when they are indexed
+	 */
+	private void buffered(String pid) {
+		ReplicationTracker current = this.tracker;
+		if (current != null) {
+			current.buffered(pid);
+		}
+	}
+
+	/**
+	 * Transforms solrxml of the new document and posts it as one update request
+	 */
+	protected void postNewDocument(String pid) throws CDKReplicationException {
+		try {
+			String url = k4Url + "/api/" + API_VERSION + "/cdk/" + pid + "/solrxml";
+			InputStream t = solrxml(url);
+
+			StreamResult destStream = new StreamResult(new StringWriter());
+			long transformStart = System.nanoTime();
+			try {
+				transform(pid, new StreamSource(t), destStream);
+			} finally {
+				// releases the connection of the source host
+				IOUtils.tryClose(t);
+			}
+			getMetrics().stop(HarvestMetrics.TRANSFORM, transformStart);
+
+			StringWriter sw = (StringWriter) destStream.getWriter();
+			long start = System.nanoTime();
+			try {
+				postToIndex(sw.toString());
+			} catch (CDKReplicationException | RuntimeException e) {
+				getMetrics().error(HarvestMetrics.POST, e);
+				throw e;
+			}
+			getMetrics().stop(HarvestMetrics.POST, start);
+		} catch (UniformInterfaceException e) {
+			LOGGER.info("cannot index document");
 		} catch (TransformerException e) {
 			throw new CDKReplicationException(e);
 		}
 	}
 
-	
+	/**
+	 * Receives results of the buffered documents (index batch, streamed update requests)
+	 */
+	protected IndexBatch.Listener indexListener() {
+		return new IndexBatch.Listener() {
+			@Override
+			public void indexed(Collection<String> pids) {
+				ReplicationTracker current = tracker;
+				if (current != null) {
+					current.indexed(pids);
+				}
+			}
+
+			@Override
+			public void failed(String pid, Exception e) {
+				ReplicationTracker current = tracker;
+				if (current != null) {
+					current.failed(pid, e);
+				} else {
+					LOGGER.log(Level.SEVERE, "indexing of " + pid + " failed", e);
+				}
+			}
+		};
+	}
+
+	/** Size of the window of pids resolved by one index query; 1 means lookup per pid */
+	protected int getIndexBatchSize() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.index.batch.size", 1);
+	}
+
+	/** Partial window of the index batch is flushed when no pid has been added for the given time */
+	protected long getIndexBatchIdleMillis() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.index.batch.idle",
+				getUpdateStreamIdleMillis());
+	}
+
+	/**
+	 * Returns batching index stage or null if the batching is disabled
+	 */
+	protected synchronized IndexBatch getIndexBatch() {
+		if (this.indexBatch == null) {
+			int size = getIndexBatchSize();
+			if (size > 1) {
+				this.indexBatch = new IndexBatch(getHarvestClient(), getSolrSelectEndpoint(),
+						withUpdateParameters(getSolrUpdateEndpoint()), getCollectionPid(), size,
+						getIndexBatchIdleMillis(), new IndexBatch.NewDocumentIndexer() {
+							@Override
+							public boolean index(String pid) throws CDKReplicationException {
+								return indexNewDocument(pid);
+							}
+						}, indexListener()) {
+					@Override
+					protected JSONObject findDocs(Set<String> pids) throws CDKReplicationException {
+						long start = System.nanoTime();
+						JSONObject results = super.findDocs(pids);
+						getMetrics().stop(HarvestMetrics.FIND_DOC, start);
+						return results;
+					}
+
+					@Override
+					protected void update(JSONArray updates) throws CDKReplicationException {
+						long start = System.nanoTime();
+						super.update(updates);
+						getMetrics().stop(HarvestMetrics.UPDATE, start);
+					}
+				};
+			}
+		}
+		return this.indexBatch;
+	}
+
+	/** Maximum number of documents streamed in one update request; 0 means one request per document */
+	protected int getUpdateStreamDocuments() {
+		return KConfiguration.getInstance().getConfiguration().getInt("cdk.index.stream.documents", 0);
+	}
+
+	/** Maximum size of one streamed update request in bytes */
+	protected long getUpdateStreamBytes() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.index.stream.bytes", 8 * 1024 * 1024);
+	}
+
+	/** Streamed update request is finished when no document has been written for the given time */
+	protected long getUpdateStreamIdleMillis() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.index.stream.idle", 10000);
+	}
+
+	/**
+	 * Returns writer streaming new documents into shared update requests or null if it is disabled
+	 */
+	protected synchronized StreamingUpdateWriter getUpdateWriter() {
+		if (this.updateWriter == null) {
+			int documents = getUpdateStreamDocuments();
+			if (documents > 0) {
+				this.updateWriter = new StreamingUpdateWriter(getHarvestClient(),
+						withUpdateParameters(getSolrUpdateEndpoint()), documents, getUpdateStreamBytes(),
+						getUpdateStreamIdleMillis(), new StreamingUpdateWriter.Fallback() {
+							@Override
+							public void index(String pid) throws CDKReplicationException {
+								postNewDocument(pid);
+							}
+						}, indexListener());
+			}
+		}
+		return this.updateWriter;
+	}
+
+	/**
+	 * Sends all streamed documents and stops the writer
+	 */
+	protected void closeUpdateWriter() throws CDKReplicationException {
+		StreamingUpdateWriter writer;
+		synchronized (this) {
+			writer = this.updateWriter;
+			this.updateWriter = null;
+		}
+		if (writer != null) {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Flushes the batching index stage and stops its idle timer
+	 */
+	protected void flushIndexBatch() throws CDKReplicationException {
+		IndexBatch batch;
+		synchronized (this) {
+			batch = this.indexBatch;
+			this.indexBatch = null;
+		}
+		if (batch != null) {
+			batch.close();
+			LOGGER.log(Level.INFO, "index statistics: {0}", batch);
+		}
+	}
+
 	public InputStream solrxml(String url) {
 		WebResource r = client(url);
+		long start = System.nanoTime();
 		InputStream t = r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
-		return t;
+		getMetrics().stop(HarvestMetrics.SOLRXML, start);
+		return getMetrics().counting(HarvestMetrics.SOLRXML, t);
 	}
 
 	public String getCollectionPid() {
@@ -343,16 +1287,58 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 		this.collectionPid = collectionPid;
 	}
 
-	protected void changeTranformationVariables() {
-		transformer.setParameter("collectionPid", getCollectionPid());
-		transformer.setParameter("solr_url", getSolrSelectEndpoint());
+	/**
+	 * Parameters of the solrxml transformation; the new document is known to be missing in the index,
+	 * so tr.xsl does not look up its collections
+	 */
+	protected Map<String, Object> transformationParameters(String pid) {
+		Map<String, Object> parameters = new LinkedHashMap<>();
+		parameters.put("collectionPid", getCollectionPid());
+		parameters.put("solr_url", getSolrSelectEndpoint());
+		parameters.put("new_pid", pid);
+		return parameters;
 	}
 
 	protected void commit() throws CDKReplicationException {
-		String s = "<commit />";
+		commit(false);
+	}
+
+	protected void commit(boolean softCommit) throws CDKReplicationException {
+		StreamingUpdateWriter writer = this.updateWriter;
+		if (writer != null) {
+			// streamed documents must be sent before commit
+			writer.flush();
+		}
+		String s = softCommit ? "<commit softCommit=\"true\" />" : "<commit />";
 		// logger.log(Level.FINE, "commit");
+		long start = System.nanoTime();
 		postToIndex(s);
+		this.commitStatistics.record(System.nanoTime() - start);
+		getMetrics().stop(HarvestMetrics.COMMIT, start);
+	}
 
+	protected CommitPolicy getCommitPolicy() {
+		if (this.commitPolicy == null) {
+			this.commitPolicy = CommitPolicies.fromConfiguration();
+		}
+		return this.commitPolicy;
+	}
+
+	public void setCommitPolicy(CommitPolicy commitPolicy) {
+		this.commitPolicy = commitPolicy;
+	}
+
+	public CommitStatistics getCommitStatistics() {
+		return commitStatistics;
+	}
+
+	private CommitPolicy.Committer committer() {
+		return new CommitPolicy.Committer() {
+			@Override
+			public void commit(boolean softCommit) throws CDKReplicationException {
+				AbstractCDKSourceHarvestProcess.this.commit(softCommit);
+			}
+		};
 	}
 
 	public static String reducePid(String pid) {
@@ -377,33 +1363,174 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 	 *            Basic iterator
 	 * @param timestaps
 	 *            Timestamps
+	 * <p>
+	 * When the work queue is configured (cdk.queue.dir), the items go through the persistent queue;
+	 * the item is done when its documents are in the index, failed items are queued again by the next run,
+	 * so the interrupted harvest continues with the items which have not been replicated. Without the work queue,
+	 * the failed pids are written to the postponed file of the source (cdk.retry.postponed.dir) and the next
+	 * harvest replicates them first.
+	 * <p>
+	 * The harvesting timestamp moves only over the items which have been replicated and whose documents
+	 * are in the index; failed items are replicated again at the end and keep the timestamp before them
+	 * when they fail again, so the next harvest starts with them.
+	 * <p>
+	 * The timestamps are written behind (cdk.timestamp.flush.items, cdk.timestamp.flush.millis) and
+	 * flushed when the process ends; when it fails, they are flushed only if the buffered documents have been
+	 * indexed.
 	 * @throws CDKReplicationException
 	 * @throws IOException
 	 * @throws CDKHarvestIterationException
 	 */
 	protected void process(String sourcePid,  CDKHarvestIteration iterator , @Nullable ProcessingTimestamps timestaps, @Nullable  CDKStateSupport.CDKState updatingState)
 			throws CDKReplicationException, IOException, CDKHarvestIterationException {
+		this.commitStatistics.reset();
+		boolean finished = false;
+		WorkQueue workQueue = openWorkQueue(sourcePid);
+		if (workQueue != null) {
+			this.workQueueIteration = new WorkQueueIteration(workQueue, iterator);
+			this.workQueueIteration.init();
+			iterator = this.workQueueIteration;
+		}
+		File postponedFile = workQueue == null ? getPostponedFile(sourcePid) : null;
+		if (postponedFile != null) {
+			iterator = replayPostponed(postponedFile, iterator);
+		}
+		WriteBehindProcessingTimestamps writeBehind = null;
+		if (timestaps != null) {
+			writeBehind = new WriteBehindProcessingTimestamps(timestaps, getTimestampFlushItems(), getTimestampFlushMillis());
+			writeBehind.open();
+			timestaps = writeBehind;
+		}
+		this.tracker = createTracker(sourcePid, timestaps);
+		iterator = this.tracker.track(iterator);
+		try {
+			int workers = getReplicationWorkers();
+			if (workers > 1) {
+				processParallel(sourcePid, iterator, timestaps, updatingState, workers);
+			} else {
+				processSequential(sourcePid, iterator, timestaps, updatingState);
+			}
+			if (writeBehind != null) {
+				writeBehind.close();
+			}
+			finished = true;
+		} finally {
+			if (!finished) {
+				// index already ingested documents
+				boolean indexed = true;
+				try {
+					flushIndexBatch();
+				} catch (CDKReplicationException | RuntimeException e) {
+					indexed = false;
+					LOGGER.log(Level.SEVERE, "cannot flush index batch", e);
+				}
+				try {
+					closeUpdateWriter();
+				} catch (CDKReplicationException | RuntimeException e) {
+					indexed = false;
+					LOGGER.log(Level.SEVERE, "cannot flush streamed documents", e);
+				}
+				if (writeBehind != null) {
+					if (indexed) {
+						// the watermark covers only items whose documents are in the index
+						try {
+							writeBehind.close();
+						} catch (IOException | RuntimeException e) {
+							LOGGER.log(Level.SEVERE, "cannot flush timestamps", e);
+						}
+					} else {
+						writeBehind.discard();
+					}
+				}
+				LOGGER.log(Level.SEVERE, "harvest stopped; the timestamp stays before {0} unresolved items",
+						this.tracker.getFailedCount() + this.tracker.getActiveCount());
+			}
+			if (postponedFile != null) {
+				closePostponedItems(postponedFile, this.tracker.getActiveCount() == 0);
+			}
+			this.tracker = null;
+			this.replicationFailure.set(null);
+			closeStateReporter();
+			try {
+				closeFingerprintStore();
+			} catch (IOException e) {
+				LOGGER.log(Level.SEVERE, "cannot close fingerprints", e);
+			}
+			LOGGER.log(Level.INFO, "harvest of {0} finished; metrics of {1}",
+					new Object[] { sourcePid, getMetrics().getSummary() });
+			try {
+				getMetrics().dump();
+			} catch (IOException | RuntimeException e) {
+				LOGGER.log(Level.WARNING, "cannot write metrics", e);
+			}
+			if (workQueue != null) {
+				this.workQueueIteration = null;
+				if (finished) {
+					workQueue.delete();
+				} else {
+					LOGGER.log(Level.INFO, "keeping work queue {0}", workQueue);
+					workQueue.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sequential variant of the import process
+	 */
+	protected void processSequential(String sourcePid, CDKHarvestIteration iterator,
+			@Nullable ProcessingTimestamps timestaps, @Nullable CDKStateSupport.CDKState updatingState)
+			throws CDKReplicationException, IOException, CDKHarvestIterationException {
+		CommitPolicy policy = getCommitPolicy();
 		int processed = 0;
 		while (iterator.hasNext()) {
 			CDKHarvestIterationItem iter = iterator.next();
-			String pid = iter.getPid();
-			String timestamp = iter.getTimestamp();
-			if (timestamp != null) {
-				replicate(pid, timestamp, updatingState);
-				if (timestamp != null) {
-					timestaps.setTimestamp(sourcePid, timestaps.parse(timestamp));
-				}
-				processed++;
-			} else {
-				replicate(pid, timestamp, updatingState);
-				
-				processed++;
-			}
+			replicateItem(iter, updatingState);
+			checkReplicationFailure();
+			processed++;
 
-			commit();
+			policy.documentReplicated(committer());
 		}
-		commit();
+		finishHarvest(policy, processed, updatingState);
+	}
+
+	/**
+	 * Parallel variant of the import process. The harvesting timestamp is moved by the tracker only to the
+	 * highest item for which all previous items have been resolved; the failed item keeps the timestamp before it.
+	 */
+	protected void processParallel(final String sourcePid, CDKHarvestIteration iterator,
+			@Nullable final ProcessingTimestamps timestaps, @Nullable final CDKStateSupport.CDKState updatingState,
+			int workers) throws CDKReplicationException, IOException, CDKHarvestIterationException {
+		LOGGER.log(Level.INFO, "replicating with {0} workers", workers);
+		final CommitPolicy policy = getCommitPolicy();
+		ReplicationWorkers replicationWorkers = new ReplicationWorkers(workers, getReplicationQueueSize());
+		int processed = replicationWorkers.process(iterator, new ReplicationWorkers.ReplicationTask() {
+			@Override
+			public void replicate(CDKHarvestIterationItem item) throws CDKReplicationException {
+				replicateItem(item, updatingState);
+				checkReplicationFailure();
+				policy.documentReplicated(committer());
+			}
+		}, null);
+		finishHarvest(policy, processed, updatingState);
+	}
+
+	/**
+	 * Common end of the sequential and parallel harvest; replays failed items, stores fingerprints,
+	 * commits and logs statistics
+	 * @throws CDKReplicationException when some items failed again
+	 */
+	protected void finishHarvest(CommitPolicy policy, int processed, @Nullable CDKStateSupport.CDKState updatingState)
+			throws CDKReplicationException, IOException {
+		int failed = retryFailed(updatingState);
+		flushFingerprintStore();
+		policy.harvestFinished(committer());
 		LOGGER.log(Level.INFO, "{0} processed", processed);
+		LOGGER.log(Level.INFO, "commit statistics: {0}", this.commitStatistics);
+		getHarvestClient().logStatistics();
+		if (failed > 0) {
+			throw new CDKReplicationException(failed + " items cannot be replicated");
+		}
 	}
 
 	protected String findURLByGivenPid(List<CDKSource> sourcesList, String pid)
@@ -424,10 +1551,45 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 		return source != null ? source.getLabel() : null;
 	}
 
+	/** Time to live of the cached sources and collections */
+	protected long getMetadataCacheTTL() {
+		return KConfiguration.getInstance().getConfiguration().getLong("cdk.cache.ttl", 600000);
+	}
+
+	protected synchronized MetadataCache<String, List<CDKSource>> getSourcesCache() {
+		if (this.sourcesCache == null) {
+			this.sourcesCache = new MetadataCache<>(getMetadataCacheTTL());
+		}
+		return this.sourcesCache;
+	}
+
+	protected synchronized MetadataCache<String, CDKSource> getSourceByPidCache() {
+		if (this.sourceByPidCache == null) {
+			this.sourceByPidCache = new MetadataCache<>(getMetadataCacheTTL());
+		}
+		return this.sourceByPidCache;
+	}
+
+	/**
+	 * Forgets cached sources and collections
+	 */
+	public void invalidateMetadata() {
+		getSourcesCache().invalidateAll();
+		getSourceByPidCache().invalidateAll();
+	}
+
+	protected List<CDKSource> getSources(final Injector inj) throws CollectionException {
+		return getSourcesCache().get("sources", new MetadataCache.Loader<List<CDKSource>, CollectionException>() {
+			@Override
+			public List<CDKSource> load() throws CollectionException {
+				return inj.getInstance(CDKSourcesAware.class).getSources();
+			}
+		});
+	}
+
 	protected void initFromGivenSource(String pid, String source, String userName, String pswd, Injector inj)
 			throws CollectionException, UnsupportedEncodingException, URISyntaxException {
-		CDKSourcesAware sources = inj.getInstance(CDKSourcesAware.class);
-		List<CDKSource> sourcesList = sources.getSources();
+		List<CDKSource> sourcesList = getSources(inj);
 		if (StringUtils.isAnyString(source)) {
 			// source has been specified
 			CDKSource cdkSource = sourcesList.stream().filter(t -> t.getUrl().equals(source)).findFirst().get();
@@ -448,16 +1610,27 @@ public abstract class AbstractCDKSourceHarvestProcess implements CDKSourceHarves
 		}
 	}
 
-	protected CDKSource selectCDKSourceByGivenPid(List<CDKSource> sourcesList, String pid)
+	protected CDKSource selectCDKSourceByGivenPid(final List<CDKSource> sourcesList, final String pid)
 			throws UnsupportedEncodingException, URISyntaxException {
-		org.json.JSONObject results = findDocFromCurrentIndex(pid);
-		if (ResultsUtils.docsExists(results)) {
-			List<CDKSource> disectSources = ResultsUtils.disectSources(results, sourcesList);
-			if (!disectSources.isEmpty()) {
-				return disectSources.get(0);
-			}
+		try {
+			return getSourceByPidCache().get(pid, new MetadataCache.Loader<CDKSource, Exception>() {
+				@Override
+				public CDKSource load() throws Exception {
+					org.json.JSONObject results = findDocFromCurrentIndex(pid);
+					if (ResultsUtils.docsExists(results)) {
+						List<CDKSource> disectSources = ResultsUtils.disectSources(results, sourcesList);
+						if (!disectSources.isEmpty()) {
+							return disectSources.get(0);
+						}
+					}
+					return null;
+				}
+			});
+		} catch (UnsupportedEncodingException | URISyntaxException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
 		}
-		return null;
 	}
 
 }
@@ -12,9 +12,9 @@ import javax.ws.rs.core.MediaType;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.WebResource;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.kramerius.FedoraAccess;
 import cz.incad.kramerius.impl.FedoraAccessImpl;
 import cz.incad.kramerius.utils.conf.KConfiguration;
@@ -80,8 +80,7 @@ public class CDKHarvestCollections {
 	public static JSONArray getCollection(String parent, String base) throws UnsupportedEncodingException {
 		JSONArray retVal = new JSONArray();
 
-		Client c = Client.create();
-		WebResource r = c.resource(base + (base.endsWith("/") ? "" : "/") + "api/v5.0/vc");
+		WebResource r = HarvestClient.getInstance().resource(base + (base.endsWith("/") ? "" : "/") + "api/v5.0/vc");
 		String t = r.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON).get(String.class);
 
 		JSONArray jArr = new JSONArray(t);
@@ -5,7 +5,7 @@ import java.net.URL;
 
 import com.google.inject.Injector;
 
-import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.cdk.cdkharvester.iterator.TitleCDKHarvestIterationImpl;
 import cz.incad.kramerius.processes.annotations.ParameterName;
 import cz.incad.kramerius.processes.annotations.Process;
@@ -13,6 +13,7 @@ import cz.incad.kramerius.utils.handle.DisectHandle;
 
 public class CDKHarvestOneTitleProcessImpl extends AbstractCDKSourceHarvestProcess {
 
+	private String titlePid;
 
 	public CDKHarvestOneTitleProcessImpl() {
 		super();
@@ -37,14 +38,27 @@ public class CDKHarvestOneTitleProcessImpl extends AbstractCDKSourceHarvestProce
 
 	public void start(String pid, String source, String userName, String pswd) throws Exception {
 		Injector inj = injector();
+		setHarvestClient(inj.getInstance(HarvestClient.class));
 		initFromGivenSource(pid, source, userName, pswd, inj);
 		initImport();
 		initTransformations();
 
-		CDKHarvestIteration iterator = new TitleCDKHarvestIterationImpl(this.k4Url, pid);
-		iterator.init();
+		// the crawl starts with the first item; resumed harvest does not crawl again
+		TitleCDKHarvestIterationImpl iterator = new TitleCDKHarvestIterationImpl(this.k4Url, pid);
+		iterator.setHarvestClient(getHarvestClient());
 
-		super.process(collectionPid, iterator, null, null);
+		this.titlePid = pid;
+		try {
+			super.process(collectionPid, iterator, null, null);
+		} finally {
+			// crawl waits for the free place in its queue when the harvest stopped
+			iterator.cancel();
+		}
+	}
+
+	@Override
+	protected String workQueueName(String sourcePid) {
+		return "title_" + this.titlePid;
 	}
 
 
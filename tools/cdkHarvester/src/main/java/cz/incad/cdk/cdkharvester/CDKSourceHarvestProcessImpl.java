@@ -19,18 +19,24 @@ package cz.incad.cdk.cdkharvester;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 import com.google.inject.Injector;
 
-import cz.incad.cdk.cdkharvester.foxmlprocess.ImageReplaceProcess;
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.cdk.cdkharvester.client.RateLimiter;
 import cz.incad.cdk.cdkharvester.foxmlprocess.ProcessFOXML;
+import cz.incad.cdk.cdkharvester.foxmlprocess.StreamingImageReplaceProcess;
 import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
 import cz.incad.cdk.cdkharvester.iterator.StandardCDKHarvestIterationImpl;
 import cz.incad.cdk.cdkharvester.manageprocess.CheckLiveProcess;
+import cz.incad.cdk.cdkharvester.scheduler.HarvestScheduler;
 import cz.incad.cdk.cdkharvester.timestamp.ProcessingTimestamps;
 import cz.incad.kramerius.processes.annotations.ParameterName;
 import cz.incad.kramerius.processes.annotations.Process;
 import cz.incad.kramerius.processes.impl.ProcessStarter;
+import cz.incad.kramerius.virtualcollections.CDKSource;
+import cz.incad.kramerius.virtualcollections.CDKSourcesAware;
 import cz.incad.kramerius.virtualcollections.CDKStateSupport.CDKState;
 
 /**
@@ -58,7 +64,7 @@ public class CDKSourceHarvestProcessImpl extends AbstractCDKSourceHarvestProcess
 	 */
 	public CDKSourceHarvestProcessImpl() throws IOException {
 		super();
-		this.processingChain.add(new ImageReplaceProcess());
+		this.processingChain.add(new StreamingImageReplaceProcess());
 	}
 
 	public CDKSourceHarvestProcessImpl(List<ProcessFOXML> chains) {
@@ -74,12 +80,38 @@ public class CDKSourceHarvestProcessImpl extends AbstractCDKSourceHarvestProcess
 		p.start(url, name, collectionPid, userName, pswd);
 	}
 
+	@Process
+	public static void cdkImportAll(@ParameterName("username") String userName, @ParameterName("pswd") String pswd)
+			throws Exception {
+		ProcessStarter.updateName("Import CDK from all sources");
+		Injector injector = injector();
+		List<CDKSource> sources = injector.getInstance(CDKSourcesAware.class).getSources();
+		HarvestScheduler scheduler = new HarvestScheduler(injector.getInstance(HarvestClient.class));
+		Map<String, Throwable> failures = scheduler.run(sources, new HarvestScheduler.SourceHarvest() {
+			@Override
+			public void harvest(CDKSource source, final int workers, RateLimiter writeLimiter) throws Exception {
+				CDKSourceHarvestProcessImpl p = new CDKSourceHarvestProcessImpl() {
+					@Override
+					protected int getReplicationWorkers() {
+						return workers;
+					}
+				};
+				p.setWriteLimiter(writeLimiter);
+				p.start(source.getUrl(), source.getLabel(), source.getPid(), userName, pswd);
+			}
+		});
+		if (!failures.isEmpty()) {
+			throw new CDKReplicationException("harvest failed for sources " + failures.keySet());
+		}
+	}
+
 	// whole cdk process
 	public void start(String url, String name, String collectionPid, String userName, String pswd) throws Exception {
 		
 		Injector injector = injector();
 		
 		// initalization
+		setHarvestClient(injector.getInstance(HarvestClient.class));
 		initFromGivenSource(collectionPid, url, userName, pswd, injector);
 		initImport();
 		initTransformations();
@@ -91,8 +123,9 @@ public class CDKSourceHarvestProcessImpl extends AbstractCDKSourceHarvestProcess
 		if (!checkLiveProcess.isAlive( this.collectionPid, this.sourceName)) {
 			checkLiveProcess.informAboutStart(this.collectionPid, this.sourceName, System.getProperty(ProcessStarter.UUID_KEY));
 			LocalDateTime timestamp = processingTimestamps.getTimestamp(this.collectionPid);
-			CDKHarvestIteration iterator = new StandardCDKHarvestIterationImpl(processingTimestamps.format(timestamp),
+			StandardCDKHarvestIterationImpl iterator = new StandardCDKHarvestIterationImpl(processingTimestamps.format(timestamp),
 					url, userName, pswd);
+			iterator.setHarvestClient(getHarvestClient());
 			super.process(this.collectionPid, iterator, processingTimestamps, CDKState.HARVESTED);
 		} else {
 			LOGGER.info("previous harvesting is still active");
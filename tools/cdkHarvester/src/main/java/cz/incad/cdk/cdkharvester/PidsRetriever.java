@@ -16,10 +16,11 @@
  */
 package cz.incad.cdk.cdkharvester;
 
-import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+import cz.incad.cdk.cdkharvester.iterator.PrepareResponseParser;
 import cz.incad.kramerius.utils.IOUtils;
 
 import java.io.IOException;
@@ -33,19 +34,8 @@ import java.util.Queue;
 import java.util.logging.Level;
 
 import javax.ws.rs.core.MediaType;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.commons.httpclient.util.URIUtil;
-import org.kramerius.replications.BasicAuthenticationClientFilter;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  *
@@ -60,9 +50,6 @@ public class PidsRetriever {
     String pswd;
     String initial_date;
     String actual_date;
-    XPathFactory factory = XPathFactory.newInstance();
-    XPath xpath;
-    XPathExpression expr;
     final String APIURL_PREFIX = "/api/v4.6/cdk/prepare?rows=500&date=";
     Queue<Map.Entry<String, String>> qe;
     SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
@@ -73,7 +60,6 @@ public class PidsRetriever {
         this.harvestUrl = k4Url + APIURL_PREFIX;
         this.userName = userName;
         this.pswd = pswd;
-        xpath = factory.newXPath();
         qe = new LinkedList<Map.Entry<String, String>>();
     }
 
@@ -94,50 +80,33 @@ public class PidsRetriever {
     private void getDocs() throws Exception {
         String urlStr = harvestUrl + URIUtil.encodeQuery(actual_date);
         logger.log(Level.INFO, "urlStr: {0}", urlStr);
-        org.w3c.dom.Document solrDom = solrResults(urlStr);
-        String xPathStr = "/response/result/@numFound";
-        expr = xpath.compile(xPathStr);
-        int numDocs = Integer.parseInt((String) expr.evaluate(solrDom, XPathConstants.STRING));
-        logger.log(Level.INFO, "numDocs: {0}", numDocs);
-        if (numDocs > 0) {
-            xPathStr = "/response/result/doc/str[@name='PID']";
-            expr = xpath.compile(xPathStr);
-            NodeList nodes = (NodeList) expr.evaluate(solrDom, XPathConstants.NODESET);
-            for (int i = 0; i < nodes.getLength(); i++) {
-                Node node = nodes.item(i);
-                String pid = node.getFirstChild().getNodeValue();
-                String to = node.getNextSibling().getFirstChild().getNodeValue();
-                qe.add(new DocEntry(pid, to));
+        InputStream is = null;
+        try {
+            is = solrResponse(urlStr);
+            PrepareResponseParser parser = new PrepareResponseParser(is);
+            CDKHarvestIterationItem item;
+            while ((item = parser.next()) != null) {
+                qe.add(new DocEntry(item.getPid(), item.getTimestamp()));
             }
+            parser.close();
+            logger.log(Level.INFO, "numDocs: {0}", parser.getNumFound());
+        } finally {
+            IOUtils.tryClose(is);
         }
     }
 
-	protected org.w3c.dom.Document solrResults(String urlStr) throws SAXException, IOException, ParserConfigurationException {
+	protected InputStream solrResponse(String urlStr) throws IOException {
         WebResource r = client(urlStr);
-        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-		InputStream is = null;
-		try {
-        	is = r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
-            return builder.parse(is);
+        try {
+        	return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
         } catch (Exception ex) {
             logger.log(Level.WARNING, "Retrying...", ex);
-            is = r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
-            return builder.parse(is);
-        } finally {
-        	IOUtils.tryClose(is);
+            return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
         }
 	}
 
 	private WebResource client(String urlStr) {
-		Client c = Client.create();
-        // follow redirect
-        c.getProperties().put(
-                ClientConfig.PROPERTY_FOLLOW_REDIRECTS, true);
-        c.setConnectTimeout(2000);
-        c.setReadTimeout(20000);
-        WebResource r = c.resource(urlStr);
-        r.addFilter(new BasicAuthenticationClientFilter(userName, pswd));
-		return r;
+		return HarvestClient.getInstance().resource(urlStr, userName, pswd);
 	}
 
     final class DocEntry<K, V> implements Map.Entry<K, V> {
@@ -4,10 +4,10 @@ import java.util.List;
 
 import javax.ws.rs.core.MediaType;
 
-import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 
 public class Utils {
@@ -16,10 +16,14 @@ public class Utils {
 	
 	public static boolean checkExists(String baseUrl, String pid) {
 		String url = baseUrl+(baseUrl.endsWith("/") ? "" : "/")+API_POSTFIX+pid;
-		Client c = Client.create();
-        WebResource r = c.resource(url);
+        WebResource r = HarvestClient.getInstance().resource(url);
         ClientResponse response = r.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
-        return response.getStatus() == ClientResponse.Status.OK.getStatusCode();
+        try {
+        	return response.getStatus() == ClientResponse.Status.OK.getStatusCode();
+        } finally {
+        	// release connection
+        	response.close();
+        }
 	}
 	
 	public static List<String> getSkipList() {
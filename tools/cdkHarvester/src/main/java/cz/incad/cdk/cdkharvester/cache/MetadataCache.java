@@ -0,0 +1,93 @@
+package cz.incad.cdk.cdkharvester.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small in-process cache of the harvest metadata (sources, collections, timestamps). Entries expire after
+ * the time to live and can be invalidated explicitly; null values are cached as well.
+ * <p>
+ * The class is thread safe; concurrent loads of the same key are not coordinated, the last one wins.
+ */
+public class MetadataCache<K, V> {
+
+	/**
+	 * Loads value of the missing or expired entry
+	 */
+	public static interface Loader<V, E extends Exception> {
+
+		public V load() throws E;
+	}
+
+	private final long ttlMillis;
+	private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+
+	/**
+	 * @param ttlMillis Time to live in milliseconds
+	 */
+	public MetadataCache(long ttlMillis) {
+		super();
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Returns cached value or loads and caches the new one
+	 * @param key Key
+	 * @param loader Loader of the value
+	 * @return
+	 * @throws E
+	 */
+	public <E extends Exception> V get(K key, Loader<V, E> loader) throws E {
+		Entry<V> entry = this.entries.get(key);
+		long now = System.currentTimeMillis();
+		if (entry != null && entry.expires > now) {
+			this.hits.incrementAndGet();
+			return entry.value;
+		}
+		V value = loader.load();
+		this.loads.incrementAndGet();
+		this.entries.put(key, new Entry<V>(value, now + this.ttlMillis));
+		return value;
+	}
+
+	public void put(K key, V value) {
+		this.entries.put(key, new Entry<V>(value, System.currentTimeMillis() + this.ttlMillis));
+	}
+
+	public void invalidate(K key) {
+		this.entries.remove(key);
+	}
+
+	public void invalidateAll() {
+		this.entries.clear();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getLoads() {
+		return loads.get();
+	}
+
+	@Override
+	public String toString() {
+		return "MetadataCache [ttlMillis=" + ttlMillis + ", size=" + entries.size() + ", hits=" + hits + ", loads="
+				+ loads + "]";
+	}
+
+	private static class Entry<V> {
+
+		private final V value;
+		private final long expires;
+
+		public Entry(V value, long expires) {
+			super();
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -2,6 +2,8 @@ package cz.incad.cdk.cdkharvester.changeindex;
 
 import org.json.JSONObject;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+
 public class AddField {
 
 	public static final String SOLR_UDATE_ENDPOINT = "http://localhost:8983/solr/kramerius/update?commit=true";
@@ -18,7 +20,10 @@ public class AddField {
         this.value = value;
     }
     
-    public JSONObject toJSONObject() {
+    /**
+     * Returns atomic update document
+     */
+    public JSONObject toDocument() {
         JSONObject obj = new JSONObject();
         obj.put("PID", this.pid);
         
@@ -26,7 +31,11 @@ public class AddField {
         setval.put("add", this.value);
         
         obj.put(this.name, setval);
-        
+        return obj;
+    }
+
+    public JSONObject toJSONObject() {
+        JSONObject obj = toDocument();
         JSONObject doc = new JSONObject();
         doc.put("doc", obj);
         return doc;
@@ -36,6 +45,10 @@ public class AddField {
         return PrivateConnectUtils.indexDocument(addr, this.pid, this.toJSONObject());
     }
 
+    public JSONObject addValueToArray(HarvestClient client, String addr) {
+        return PrivateConnectUtils.indexDocument(client, addr, this.pid, this.toJSONObject());
+    }
+
     public JSONObject addValueToArray() {
         return PrivateConnectUtils.indexDocument(SOLR_UDATE_ENDPOINT, this.pid, this.toJSONObject());
     }
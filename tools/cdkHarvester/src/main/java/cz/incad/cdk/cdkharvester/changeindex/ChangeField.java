@@ -2,6 +2,8 @@ package cz.incad.cdk.cdkharvester.changeindex;
 
 import org.json.JSONObject;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+
 public class ChangeField {
 
     public static final String SOLR_UDATE_ENDPOINT = "http://localhost:8983/solr/kramerius/update?commit=true";
@@ -20,7 +22,10 @@ public class ChangeField {
     }
 
 
-    public JSONObject toJSONObject() {
+    /**
+     * Returns atomic update document
+     */
+    public JSONObject toDocument() {
         JSONObject obj = new JSONObject();
         obj.put("PID", this.pid);
         
@@ -28,7 +33,11 @@ public class ChangeField {
         setval.put("set", this.value);
         
         obj.put(this.name, setval);
-        
+        return obj;
+    }
+
+    public JSONObject toJSONObject() {
+        JSONObject obj = toDocument();
         JSONObject doc = new JSONObject();
         doc.put("doc", obj);
         return doc;
@@ -38,6 +47,10 @@ public class ChangeField {
         return PrivateConnectUtils.indexDocument(addr, this.pid, this.toJSONObject());
     }
 
+    public JSONObject changeField(HarvestClient client, String addr) {
+        return PrivateConnectUtils.indexDocument(client, addr, this.pid, this.toJSONObject());
+    }
+
     public JSONObject changeField() {
         return PrivateConnectUtils.indexDocument(SOLR_UDATE_ENDPOINT, this.pid, this.toJSONObject());
     }
@@ -0,0 +1,307 @@
+package cz.incad.cdk.cdkharvester.changeindex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+
+/**
+ * Batching index stage. Collects window of replicated pids and resolves them by one terms query.
+ * Collection changes of the existing documents are sent as one array of atomic updates;
+ * only new documents are passed to the given indexer (solrxml transformation).
+ * <p>
+ * The window is flushed by the thread which fills it, so the result of every pid is reported to the listener:
+ * when the lookup fails, all pids of the window fail; when the update fails, the updated pids fail;
+ * every new document is indexed on its own.
+ * <p>
+ * Partial window is flushed by the idle timer when no pid has been added for the idle timeout, so the results
+ * (and the harvesting timestamp behind them) do not wait for the next pids.
+ * <p>
+ * The class is thread safe.
+ */
+public class IndexBatch {
+
+	public static final Logger LOGGER = Logger.getLogger(IndexBatch.class.getName());
+
+	/**
+	 * Indexes new document
+	 */
+	public static interface NewDocumentIndexer {
+
+		/**
+		 * @param pid New pid
+		 * @return true if the document has been sent to the index; false if it has been handed over to another
+		 *         stage which reports the result
+		 * @throws CDKReplicationException
+		 */
+		public boolean index(String pid) throws CDKReplicationException;
+	}
+
+	/**
+	 * Result of the flushed windows
+	 */
+	public static interface Listener {
+
+		/**
+		 * Documents of the pids have been sent to the index
+		 */
+		public void indexed(Collection<String> pids);
+
+		/**
+		 * Documents of the pid cannot be indexed
+		 */
+		public void failed(String pid, Exception e);
+	}
+
+	private final HarvestClient client;
+	private final String selectEndpoint;
+	private final String updateEndpoint;
+	private final String collectionPid;
+	private final int size;
+	private final NewDocumentIndexer indexer;
+	private final Listener listener;
+	private final ScheduledExecutorService idleScheduler;
+
+	// current window; guarded by this
+	private Set<String> window = new LinkedHashSet<>();
+	private long lastAdd;
+
+	private final AtomicLong lookups = new AtomicLong();
+	private final AtomicLong updated = new AtomicLong();
+	private final AtomicLong unchanged = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public IndexBatch(HarvestClient client, String selectEndpoint, String updateEndpoint, String collectionPid,
+			int size, NewDocumentIndexer indexer, Listener listener) {
+		this(client, selectEndpoint, updateEndpoint, collectionPid, size, 0, indexer, listener);
+	}
+
+	/**
+	 * @param idleMillis Partial window is flushed when no pid has been added for the given time; 0 means never
+	 */
+	public IndexBatch(HarvestClient client, String selectEndpoint, String updateEndpoint, String collectionPid,
+			int size, final long idleMillis, NewDocumentIndexer indexer, Listener listener) {
+		super();
+		this.client = client;
+		this.selectEndpoint = selectEndpoint;
+		this.updateEndpoint = updateEndpoint;
+		this.collectionPid = collectionPid;
+		this.size = size;
+		this.indexer = indexer;
+		this.listener = listener;
+		if (idleMillis > 0) {
+			this.idleScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "cdk-index-batch");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(idleMillis / 2, 1);
+			this.idleScheduler.scheduleWithFixedDelay(() -> flushIfIdle(idleMillis), period, period,
+					TimeUnit.MILLISECONDS);
+		} else {
+			this.idleScheduler = null;
+		}
+	}
+
+	/**
+	 * Adds pid to the window; full window is flushed by the calling thread
+	 * @param pid Replicated pid
+	 */
+	public void add(String pid) {
+		Set<String> full = null;
+		synchronized (this) {
+			this.window.add(pid);
+			this.lastAdd = System.currentTimeMillis();
+			if (this.window.size() >= this.size) {
+				full = this.window;
+				this.window = new LinkedHashSet<>();
+			}
+		}
+		if (full != null) {
+			flush(full);
+		}
+	}
+
+	/**
+	 * Flushes current window
+	 */
+	public void flush() {
+		Set<String> current;
+		synchronized (this) {
+			current = this.window;
+			this.window = new LinkedHashSet<>();
+		}
+		if (!current.isEmpty()) {
+			flush(current);
+		}
+	}
+
+	/**
+	 * Stops the idle timer and flushes; returns after the running idle flush is finished
+	 */
+	public void close() {
+		if (this.idleScheduler != null) {
+			this.idleScheduler.shutdown();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					if (this.idleScheduler.awaitTermination(1, TimeUnit.MINUTES)) break;
+					LOGGER.log(Level.WARNING, "waiting for the idle flush of the index batch");
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flush();
+	}
+
+	private void flushIfIdle(long idleMillis) {
+		Set<String> idle;
+		synchronized (this) {
+			if (this.window.isEmpty() || System.currentTimeMillis() - this.lastAdd < idleMillis) {
+				return;
+			}
+			idle = this.window;
+			this.window = new LinkedHashSet<>();
+		}
+		try {
+			flush(idle);
+		} catch (RuntimeException e) {
+			// results are reported to the listener; the timer must keep running
+			LOGGER.log(Level.SEVERE, "idle flush of " + idle.size() + " pids failed", e);
+		}
+	}
+
+	private void flush(Set<String> pids) {
+		JSONObject results;
+		try {
+			results = findDocs(pids);
+		} catch (CDKReplicationException | RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "lookup of the window of " + pids.size() + " pids failed", e);
+			failed(pids, e);
+			return;
+		}
+		this.lookups.incrementAndGet();
+		Map<String, JSONObject> found = new HashMap<>();
+		JSONArray docs = results.getJSONObject("response").getJSONArray("docs");
+		for (int i = 0, ll = docs.length(); i < ll; i++) {
+			JSONObject doc = docs.getJSONObject(i);
+			found.put(doc.getString("PID"), doc);
+		}
+
+		JSONArray updates = new JSONArray();
+		List<String> updatedPids = new ArrayList<>();
+		List<String> indexed = new ArrayList<>();
+		List<String> newPids = new ArrayList<>();
+		for (String pid : pids) {
+			JSONObject doc = found.get(pid);
+			if (doc == null) {
+				newPids.add(pid);
+			} else if (doc.has("collection")) {
+				if (!collections(doc).contains(this.collectionPid)) {
+					updates.put(new AddField(pid, "collection", this.collectionPid).toDocument());
+					updatedPids.add(pid);
+				} else {
+					this.unchanged.incrementAndGet();
+					indexed.add(pid);
+				}
+			} else {
+				updates.put(new ChangeField(pid, "collection", this.collectionPid).toDocument());
+				updatedPids.add(pid);
+			}
+		}
+		if (updates.length() > 0) {
+			try {
+				update(updates);
+				this.updated.addAndGet(updates.length());
+				indexed.addAll(updatedPids);
+			} catch (CDKReplicationException | RuntimeException e) {
+				LOGGER.log(Level.SEVERE, "update of " + updatedPids.size() + " documents failed", e);
+				failed(updatedPids, e);
+			}
+		}
+		LOGGER.log(Level.FINE, "window of {0} pids: {1} updated, {2} new",
+				new Object[] { pids.size(), updates.length(), newPids.size() });
+		if (!indexed.isEmpty()) {
+			this.listener.indexed(indexed);
+		}
+		// every new document on its own; the failure of one document does not stop the others
+		List<String> sent = new ArrayList<>();
+		for (String pid : newPids) {
+			try {
+				if (this.indexer.index(pid)) {
+					sent.add(pid);
+				}
+				this.created.incrementAndGet();
+			} catch (CDKReplicationException | RuntimeException e) {
+				LOGGER.log(Level.SEVERE, "indexing of new document " + pid + " failed", e);
+				failed(Collections.singletonList(pid), e);
+			}
+		}
+		if (!sent.isEmpty()) {
+			this.listener.indexed(sent);
+		}
+	}
+
+	private void failed(Collection<String> pids, Exception e) {
+		for (String pid : pids) {
+			this.failed.incrementAndGet();
+			this.listener.failed(pid, e);
+		}
+	}
+
+	private static List<String> collections(JSONObject doc) {
+		List<String> collections = new ArrayList<>();
+		JSONArray jArray = doc.getJSONArray("collection");
+		for (int i = 0, ll = jArray.length(); i < ll; i++) {
+			collections.add(jArray.getString(i));
+		}
+		return collections;
+	}
+
+	protected JSONObject findDocs(Set<String> pids) throws CDKReplicationException {
+		try {
+			return PrivateConnectUtils.findDocs(this.client, this.selectEndpoint, pids);
+		} catch (RuntimeException e) {
+			throw new CDKReplicationException(e);
+		}
+	}
+
+	protected void update(JSONArray updates) throws CDKReplicationException {
+		try {
+			PrivateConnectUtils.indexDocuments(this.client, this.updateEndpoint, updates);
+		} catch (RuntimeException e) {
+			throw new CDKReplicationException(e);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "IndexBatch [size=" + size + ", lookups=" + lookups + ", updated=" + updated + ", unchanged="
+				+ unchanged + ", new=" + created + ", failed=" + failed + "]";
+	}
+}
@@ -5,17 +5,20 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.Collection;
 import java.util.List;
 
 import javax.ws.rs.core.MediaType;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.ClientResponse.Status;
+import com.sun.jersey.api.representation.Form;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 
 public class PrivateConnectUtils {
@@ -25,12 +28,14 @@ public class PrivateConnectUtils {
 
     
     public static JSONObject indexDocument(String solrUpdateEndpoint, String pid, JSONObject doc) {
+        return indexDocument(HarvestClient.getInstance(), solrUpdateEndpoint, pid, doc);
+    }
+
+    public static JSONObject indexDocument(HarvestClient client, String solrUpdateEndpoint, String pid, JSONObject doc) {
         JSONObject add = new JSONObject();
         add.put("add", doc);
 
-        Client c = Client.create();
-        WebResource r = c
-                .resource(solrUpdateEndpoint);
+        WebResource r = client.resource(solrUpdateEndpoint);
 
         String t = r.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON)
                 .entity(add.toString(), MediaType.APPLICATION_JSON)
@@ -43,13 +48,43 @@ public class PrivateConnectUtils {
         return indexDocument(SOLR_UDATE_ENDPOINT, pid, doc);
     }    
 
+    /**
+     * Sends all documents (typically atomic updates) in one request
+     */
+    public static JSONObject indexDocuments(HarvestClient client, String solrUpdateEndpoint, JSONArray docs) {
+        WebResource r = client.resource(solrUpdateEndpoint);
+
+        String t = r.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON)
+                .entity(docs.toString(), MediaType.APPLICATION_JSON)
+                .post(String.class);
+        return new JSONObject(t);
+    }
+
+    /**
+     * Finds all given pids by one terms query; returns only PID and collection fields
+     */
+    public static JSONObject findDocs(HarvestClient client, String solrSelectEndpoint, Collection<String> pids) {
+        Form form = new Form();
+        form.add("q", "{!terms f=PID}" + String.join(",", pids));
+        form.add("fl", "PID,collection");
+        form.add("rows", "" + pids.size());
+        form.add("wt", "json");
+        WebResource r = client.resource(solrSelectEndpoint);
+
+        String t = r.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_FORM_URLENCODED)
+                .post(String.class, form);
+        return new JSONObject(t);
+    }
+
 
     public static JSONObject findDoc(String solrSelectEndpoint, String pid) throws UnsupportedEncodingException, URISyntaxException {
+        return findDoc(HarvestClient.getInstance(), solrSelectEndpoint, pid);
+    }
+
+    public static JSONObject findDoc(HarvestClient client, String solrSelectEndpoint, String pid) throws UnsupportedEncodingException, URISyntaxException {
     	String q="?q=PID:"+URLEncoder.encode("\"","UTF-8")+pid+URLEncoder.encode("\"","UTF-8")+"*&wt=json";
     	String u = solrSelectEndpoint+q;
-        Client c = Client.create();
-		WebResource r = c
-                .resource(u);
+        WebResource r = client.resource(u);
 
         String t = r.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON)
                 .get(String.class);
@@ -0,0 +1,446 @@
+package cz.incad.cdk.cdkharvester.changeindex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXResult;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+
+/**
+ * Streams transformed solr documents into one chunked update request. The request is opened with the first
+ * document; every next document is transformed into its own buffer by the calling thread (a failed transformation
+ * must not leave half of a document in the request), the root element of the transformation output (&lt;add&gt;)
+ * is stripped and the buffer is handed to the sender thread, which writes it to the open request as it arrives.
+ * Only a few documents wait for the sender at a time; the adding thread blocks when the sender is behind.
+ * <p>
+ * The request is finished when the number of documents or the number of bytes reaches the limit, when no document
+ * has been added for the idle timeout, or when the writer is flushed. Result of every request is reported to the
+ * listener; when the request fails, its documents are indexed again one by one by the fallback. The class is
+ * thread safe.
+ */
+public class StreamingUpdateWriter {
+
+	public static final Logger LOGGER = Logger.getLogger(StreamingUpdateWriter.class.getName());
+
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+	private static final byte[] START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><add>"
+			.getBytes(StandardCharsets.UTF_8);
+	private static final byte[] END = "</add>".getBytes(StandardCharsets.UTF_8);
+
+	/** Marks the end of the request in the documents queue */
+	private static final byte[] END_OF_REQUEST = new byte[0];
+
+	/** Number of documents waiting for the sender */
+	private static final int PENDING_DOCUMENTS = 16;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Writes documents (typically transformation) into given result
+	 */
+	public static interface DocumentSource {
+
+		public void write(Result result) throws TransformerException;
+	}
+
+	/**
+	 * Indexes one document without the writer
+	 */
+	public static interface Fallback {
+
+		public void index(String pid) throws CDKReplicationException;
+	}
+
+	private final WebResource updateResource;
+	private final int maxDocuments;
+	private final long maxBytes;
+	private final Fallback fallback;
+	private final IndexBatch.Listener listener;
+	private final ExecutorService sender;
+	private final ScheduledExecutorService idleScheduler;
+
+	// open request and the last sent one; guarded by this
+	private Request current;
+	private Future<?> lastRequest;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong documents = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	public StreamingUpdateWriter(HarvestClient client, String updateEndpoint, int maxDocuments, long maxBytes,
+			final long idleMillis, Fallback fallback, IndexBatch.Listener listener) {
+		super();
+		this.updateResource = client.resource(updateEndpoint);
+		this.updateResource.setProperty(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, CHUNK_SIZE);
+		this.maxDocuments = maxDocuments;
+		this.maxBytes = maxBytes;
+		this.fallback = fallback;
+		this.listener = listener;
+		// one request at a time, so flush returns after all documents added before are sent
+		this.sender = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "cdk-update-sender");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (idleMillis > 0) {
+			this.idleScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "cdk-update-writer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(idleMillis / 2, 1);
+			this.idleScheduler.scheduleWithFixedDelay(() -> flushIfIdle(idleMillis), period, period,
+					TimeUnit.MILLISECONDS);
+		} else {
+			this.idleScheduler = null;
+		}
+	}
+
+	/**
+	 * Adds documents of the given pid; the documents are transformed by the calling thread
+	 * @param pid Pid
+	 * @param source Documents source
+	 * @throws CDKReplicationException the documents cannot be written; other documents of the request are not affected
+	 */
+	public void add(String pid, DocumentSource source) throws CDKReplicationException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+		try {
+			XMLStreamWriter xmlWriter = OUTPUT_FACTORY.createXMLStreamWriter(buffer, "UTF-8");
+			source.write(new SAXResult(new ChildrenHandler(xmlWriter)));
+			xmlWriter.close();
+		} catch (XMLStreamException | TransformerException e) {
+			throw new CDKReplicationException(e);
+		}
+		byte[] document = buffer.toByteArray();
+		boolean full;
+		synchronized (this) {
+			if (this.current == null) {
+				final Request request = new Request();
+				this.lastRequest = this.sender.submit(() -> send(request));
+				this.current = request;
+			}
+			full = this.current.add(pid, document);
+		}
+		if (full) {
+			flush();
+		}
+	}
+
+	/**
+	 * Finishes current request and waits until it is sent
+	 */
+	public void flush() {
+		Future<?> pending;
+		synchronized (this) {
+			if (this.current != null) {
+				this.current.finish();
+				this.current = null;
+			}
+			pending = this.lastRequest;
+		}
+		if (pending == null) return;
+		boolean interrupted = false;
+		while (true) {
+			try {
+				pending.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				LOGGER.log(Level.SEVERE, "update request failed", e.getCause());
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Flushes and stops the sender and the idle timer
+	 */
+	public void close() {
+		if (this.idleScheduler != null) {
+			this.idleScheduler.shutdownNow();
+		}
+		flush();
+		this.sender.shutdown();
+		LOGGER.log(Level.INFO, "update writer statistics: {0}", this);
+	}
+
+	private void flushIfIdle(long idleMillis) {
+		synchronized (this) {
+			if (this.current == null || System.currentTimeMillis() - this.current.lastWrite < idleMillis) {
+				return;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Runs in the sender thread
+	 */
+	private void send(Request request) {
+		boolean sent = false;
+		String error = null;
+		Exception cause = null;
+		try {
+			ClientResponse resp = this.updateResource.type(MediaType.TEXT_XML + "; charset=UTF-8")
+					.post(ClientResponse.class, request);
+			try {
+				if (resp.getStatus() == ClientResponse.Status.OK.getStatusCode()) {
+					sent = true;
+				} else {
+					error = resp.getEntity(String.class);
+				}
+			} finally {
+				resp.close();
+			}
+		} catch (ClientHandlerException e) {
+			cause = e;
+		} finally {
+			// the request may fail before all its documents are added
+			request.drain();
+		}
+		if (sent) {
+			this.requests.incrementAndGet();
+			this.documents.addAndGet(request.pids.size());
+			this.bytes.addAndGet(request.size);
+			this.listener.indexed(request.pids);
+			return;
+		}
+		if (cause != null) {
+			LOGGER.log(Level.SEVERE, "update request with " + request.pids.size() + " documents failed", cause);
+		} else {
+			LOGGER.log(Level.SEVERE, "update request with {0} documents failed: {1}",
+					new Object[] { request.pids.size(), error });
+		}
+		reindex(request.pids);
+	}
+
+	/**
+	 * Indexes documents of the failed request one by one
+	 */
+	private void reindex(List<String> failed) {
+		List<String> indexed = new ArrayList<>();
+		for (String pid : failed) {
+			try {
+				this.fallback.index(pid);
+				indexed.add(pid);
+			} catch (CDKReplicationException | RuntimeException e) {
+				LOGGER.log(Level.SEVERE, "indexing of document " + pid + " failed", e);
+				this.listener.failed(pid, e);
+			}
+		}
+		if (!indexed.isEmpty()) {
+			this.listener.indexed(indexed);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "StreamingUpdateWriter [maxDocuments=" + maxDocuments + ", maxBytes=" + maxBytes + ", requests="
+				+ requests + ", documents=" + documents + ", bytes=" + bytes + "]";
+	}
+
+	/**
+	 * One update request; documents are added under the lock of the writer and written by the sender thread.
+	 * Pids and size are complete when the sender has taken the end of the request from the queue.
+	 */
+	private class Request implements StreamingOutput {
+
+		private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(PENDING_DOCUMENTS);
+		private final List<String> pids = new ArrayList<>();
+		private long size = START.length + END.length;
+		private long lastWrite;
+		// sender thread only
+		private boolean finished = false;
+
+		/**
+		 * Returns true when the request is full
+		 */
+		private boolean add(String pid, byte[] document) {
+			this.pids.add(pid);
+			this.size += document.length;
+			this.lastWrite = System.currentTimeMillis();
+			put(document);
+			return this.pids.size() >= maxDocuments || this.size >= maxBytes;
+		}
+
+		private void finish() {
+			put(END_OF_REQUEST);
+		}
+
+		// the sender always takes documents until the end of the request, so the put cannot block forever
+		private void put(byte[] document) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					this.queue.put(document);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private byte[] take() {
+			boolean interrupted = false;
+			try {
+				while (true) {
+					try {
+						byte[] document = this.queue.take();
+						if (document == END_OF_REQUEST) {
+							this.finished = true;
+						}
+						return document;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException {
+			output.write(START);
+			byte[] document;
+			while ((document = take()) != END_OF_REQUEST) {
+				output.write(document);
+			}
+			output.write(END);
+		}
+
+		/**
+		 * Discards documents which have not been written
+		 */
+		private void drain() {
+			while (!this.finished) {
+				take();
+			}
+		}
+	}
+
+	/**
+	 * Writes children of the root element to the xml stream writer
+	 */
+	private static class ChildrenHandler extends DefaultHandler {
+
+		private final XMLStreamWriter writer;
+		private final List<String[]> prefixes = new ArrayList<>();
+		private int depth = 0;
+
+		public ChildrenHandler(XMLStreamWriter writer) {
+			super();
+			this.writer = writer;
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			if (this.depth > 0) {
+				this.prefixes.add(new String[] { prefix, uri });
+			}
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes)
+				throws SAXException {
+			this.depth += 1;
+			if (this.depth == 1) return;
+			try {
+				String local = localName != null && localName.length() > 0 ? localName : qName;
+				int colon = qName.indexOf(':');
+				if (uri == null || uri.length() == 0) {
+					this.writer.writeStartElement(local);
+				} else {
+					this.writer.writeStartElement(colon > 0 ? qName.substring(0, colon) : "", local, uri);
+				}
+				for (String[] prefix : this.prefixes) {
+					this.writer.writeNamespace(prefix[0], prefix[1]);
+				}
+				this.prefixes.clear();
+				for (int i = 0, ll = attributes.getLength(); i < ll; i++) {
+					String attrUri = attributes.getURI(i);
+					String attrName = attributes.getQName(i);
+					if (attrName.startsWith("xmlns")) continue;
+					if (attrUri == null || attrUri.length() == 0) {
+						this.writer.writeAttribute(attrName, attributes.getValue(i));
+					} else {
+						int attrColon = attrName.indexOf(':');
+						this.writer.writeAttribute(attrColon > 0 ? attrName.substring(0, attrColon) : "", attrUri,
+								attributes.getLocalName(i), attributes.getValue(i));
+					}
+				}
+			} catch (XMLStreamException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			this.depth -= 1;
+			if (this.depth == 0) return;
+			try {
+				this.writer.writeEndElement();
+			} catch (XMLStreamException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (this.depth == 0) return;
+			try {
+				this.writer.writeCharacters(ch, start, length);
+			} catch (XMLStreamException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			characters(ch, start, length);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package cz.incad.cdk.cdkharvester.client;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration.Configuration;
+import org.kramerius.replications.BasicAuthenticationClientFilter;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.api.client.filter.GZIPContentEncodingFilter;
+
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * One shared http client for all harvester network calls. Connections are kept alive and reused
+ * (jdk keep-alive cache); number of concurrent requests to one host is limited.
+ * <ul>
+ * <li>cdk.http.connectTimeout - connect timeout in milliseconds</li>
+ * <li>cdk.http.readTimeout - read timeout in milliseconds</li>
+ * <li>cdk.http.maxConnectionsPerHost - maximum concurrent requests and kept alive connections per host</li>
+ * <li>cdk.http.acquireTimeout - maximal wait for a free connection of the host in milliseconds</li>
+ * <li>cdk.http.gzip - negotiate gzip compressed responses</li>
+ * </ul>
+ * The request holds its connection until the response entity is read or closed. Binary datastreams requested
+ * while the foxml of the same host is being read use their own client ({@link #getDatastreamInstance()}),
+ * so they never wait for connections held by the foxml streams.
+ * <p>
+ * The harvest processes get the client from the injector (CDKModule binds {@link #getInstance()}) and pass it to
+ * their iterations, index stages and update writers. Static helpers running outside of a harvest (standalone
+ * tools, deprecated retriever) use {@link #getInstance()} directly, which is the same instance.
+ */
+public class HarvestClient {
+
+	public static final Logger LOGGER = Logger.getLogger(HarvestClient.class.getName());
+
+	private static HarvestClient instance;
+	private static HarvestClient datastreamInstance;
+
+	private final Client client;
+	private final HostConnectionsFilter connectionsFilter;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final boolean gzip;
+
+	public HarvestClient(int connectTimeout, int readTimeout, int maxConnectionsPerHost, boolean gzip) {
+		this(connectTimeout, readTimeout, maxConnectionsPerHost, gzip, readTimeout);
+	}
+
+	public HarvestClient(int connectTimeout, int readTimeout, int maxConnectionsPerHost, boolean gzip,
+			long acquireTimeout) {
+		super();
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.gzip = gzip;
+		this.client = Client.create();
+		// follow redirect
+		this.client.getProperties().put(ClientConfig.PROPERTY_FOLLOW_REDIRECTS, true);
+		this.client.setConnectTimeout(connectTimeout);
+		this.client.setReadTimeout(readTimeout);
+		this.connectionsFilter = new HostConnectionsFilter(maxConnectionsPerHost, acquireTimeout);
+		this.client.addFilter(this.connectionsFilter);
+		if (gzip) {
+			this.client.addFilter(new GZIPContentEncodingFilter(false));
+		}
+	}
+
+	/**
+	 * Returns shared instance configured from KConfiguration
+	 * @return
+	 */
+	public static synchronized HarvestClient getInstance() {
+		if (instance == null) {
+			instance = fromConfiguration();
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns shared client of the binary datastreams (thumbnails); its connections are limited
+	 * independently of the main client
+	 * @return
+	 */
+	public static synchronized HarvestClient getDatastreamInstance() {
+		if (datastreamInstance == null) {
+			datastreamInstance = fromConfiguration();
+		}
+		return datastreamInstance;
+	}
+
+	public static HarvestClient fromConfiguration() {
+		Configuration conf = KConfiguration.getInstance().getConfiguration();
+		int maxConnections = conf.getInt("cdk.http.maxConnectionsPerHost", 10);
+		// size of the jdk keep-alive cache; must be set before the first connection
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", "" + maxConnections);
+		}
+		HarvestClient harvestClient = new HarvestClient(conf.getInt("cdk.http.connectTimeout", 2000),
+				conf.getInt("cdk.http.readTimeout", 60000), maxConnections, conf.getBoolean("cdk.http.gzip", true),
+				conf.getLong("cdk.http.acquireTimeout", 60000));
+		LOGGER.log(Level.INFO, "http client {0}", harvestClient);
+		return harvestClient;
+	}
+
+	public WebResource resource(String url) {
+		return this.client.resource(url);
+	}
+
+	public WebResource resource(String url, String userName, String pswd) {
+		WebResource r = this.client.resource(url);
+		if (userName != null && pswd != null) {
+			r.addFilter(new BasicAuthenticationClientFilter(userName, pswd));
+		}
+		return r;
+	}
+
+	/**
+	 * Limits number of requests per second to the host of the given url
+	 * @param url Any url of the host
+	 * @param requestsPerSecond Limit; zero means no limit
+	 */
+	public void setRateLimit(String url, double requestsPerSecond) {
+		this.connectionsFilter.setRateLimit(URI.create(url), requestsPerSecond);
+	}
+
+	public Client getClient() {
+		return client;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return this.connectionsFilter.getMaxConnectionsPerHost();
+	}
+
+	/**
+	 * Returns connection statistics per host
+	 * @return
+	 */
+	public List<HostStatistics> getStatistics() {
+		List<HostStatistics> stats = new ArrayList<>(this.connectionsFilter.getHosts().values());
+		return Collections.unmodifiableList(stats);
+	}
+
+	public void logStatistics() {
+		for (HostStatistics stats : getStatistics()) {
+			LOGGER.log(Level.INFO, "http statistics: {0}", stats);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HarvestClient [connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout
+				+ ", maxConnectionsPerHost=" + getMaxConnectionsPerHost() + ", acquireTimeout="
+				+ this.connectionsFilter.getAcquireTimeout() + ", gzip=" + gzip + "]";
+	}
+}
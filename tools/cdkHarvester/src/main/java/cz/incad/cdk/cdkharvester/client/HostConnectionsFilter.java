@@ -0,0 +1,163 @@
+package cz.incad.cdk.cdkharvester.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Limits number of concurrent requests to one host and collects statistics per host;
+ * optionally limits number of requests per second to one host. The request holds its connection
+ * until the response entity is read to the end or closed.
+ */
+public class HostConnectionsFilter extends ClientFilter {
+
+	private final int maxConnectionsPerHost;
+	private final long acquireTimeout;
+	private final ConcurrentHashMap<String, HostStatistics> hosts = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, RateLimiter> rates = new ConcurrentHashMap<>();
+
+	/**
+	 * @param maxConnectionsPerHost Maximum concurrent requests per host
+	 * @param acquireTimeout Maximal wait for a free connection in milliseconds
+	 */
+	public HostConnectionsFilter(int maxConnectionsPerHost, long acquireTimeout) {
+		super();
+		this.maxConnectionsPerHost = Math.max(maxConnectionsPerHost, 1);
+		this.acquireTimeout = acquireTimeout;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest cr) throws ClientHandlerException {
+		RateLimiter rate = this.rates.get(key(cr.getURI()));
+		if (rate != null) {
+			try {
+				rate.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ClientHandlerException(e);
+			}
+		}
+		HostStatistics stats = statistics(cr.getURI());
+		try {
+			stats.acquire(this.acquireTimeout);
+		} catch (ClientHandlerException e) {
+			stats.failed();
+			throw e;
+		}
+		ClientResponse response;
+		try {
+			response = getNext().handle(cr);
+		} catch (ClientHandlerException e) {
+			stats.failed();
+			stats.release();
+			throw e;
+		} catch (RuntimeException e) {
+			stats.release();
+			throw e;
+		}
+		int status = response.getStatus();
+		InputStream entity = response.getEntityInputStream();
+		if (entity == null || "HEAD".equals(cr.getMethod()) || status == 204 || status == 304
+				|| response.getLength() == 0) {
+			stats.release();
+		} else {
+			// the connection is in use until the entity is read or closed
+			response.setEntityInputStream(new ReleasingInputStream(entity, stats));
+		}
+		return response;
+	}
+
+	/**
+	 * Limits number of requests per second to the host of the given uri
+	 * @param uri Any uri of the host
+	 * @param requestsPerSecond Limit; zero or negative value removes the limit
+	 */
+	public void setRateLimit(URI uri, double requestsPerSecond) {
+		if (requestsPerSecond > 0) {
+			this.rates.put(key(uri), new RateLimiter(requestsPerSecond));
+		} else {
+			this.rates.remove(key(uri));
+		}
+	}
+
+	private static String key(URI uri) {
+		return uri.getHost() + ":" + uri.getPort();
+	}
+
+	private HostStatistics statistics(URI uri) {
+		final String key = key(uri);
+		HostStatistics stats = this.hosts.get(key);
+		if (stats == null) {
+			stats = new HostStatistics(key, this.maxConnectionsPerHost);
+			HostStatistics prev = this.hosts.putIfAbsent(key, stats);
+			if (prev != null) {
+				stats = prev;
+			}
+		}
+		return stats;
+	}
+
+	public Map<String, HostStatistics> getHosts() {
+		return hosts;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public long getAcquireTimeout() {
+		return acquireTimeout;
+	}
+
+	/**
+	 * Releases the connection of the host when the entity is closed or read to the end
+	 */
+	private static class ReleasingInputStream extends FilterInputStream {
+
+		private final HostStatistics stats;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		public ReleasingInputStream(InputStream in, HostStatistics stats) {
+			super(in);
+			this.stats = stats;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0) release();
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read < 0) release();
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				release();
+			}
+		}
+
+		private void release() {
+			if (this.released.compareAndSet(false, true)) {
+				this.stats.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package cz.incad.cdk.cdkharvester.client;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+/**
+ * Connection statistics for one host
+ */
+public class HostStatistics {
+
+	private final String host;
+	private final Semaphore connections;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	public HostStatistics(String host, int maxConnections) {
+		super();
+		this.host = host;
+		this.connections = new Semaphore(maxConnections, true);
+	}
+
+	/**
+	 * Waits for a free connection
+	 * @param timeoutMillis Maximal wait
+	 * @throws ClientHandlerException no connection has been released in time or the thread has been interrupted
+	 */
+	void acquire(long timeoutMillis) {
+		long start = System.nanoTime();
+		if (!this.connections.tryAcquire()) {
+			this.waits.incrementAndGet();
+			boolean acquired;
+			try {
+				acquired = this.connections.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ClientHandlerException(e);
+			} finally {
+				this.waitNanos.addAndGet(System.nanoTime() - start);
+			}
+			if (!acquired) {
+				throw new ClientHandlerException("no free connection to " + this.host + " within " + timeoutMillis + " ms");
+			}
+		}
+		this.requests.incrementAndGet();
+		int current = this.active.incrementAndGet();
+		int max;
+		while (current > (max = this.maxActive.get()) && !this.maxActive.compareAndSet(max, current)) {
+		}
+	}
+
+	void release() {
+		this.active.decrementAndGet();
+		this.connections.release();
+	}
+
+	void failed() {
+		this.failures.incrementAndGet();
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getWaits() {
+		return waits.get();
+	}
+
+	public long getWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+	}
+
+	public int getActive() {
+		return active.get();
+	}
+
+	public int getMaxActive() {
+		return maxActive.get();
+	}
+
+	@Override
+	public String toString() {
+		return this.host + " [requests=" + getRequests() + ", failures=" + getFailures() + ", active=" + getActive()
+				+ ", maxActive=" + getMaxActive() + ", waits=" + getWaits() + ", waitTime=" + getWaitMillis() + " ms]";
+	}
+}
@@ -0,0 +1,53 @@
+package cz.incad.cdk.cdkharvester.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting number of operations per second. The bucket holds at most one second of permits;
+ * a caller without permit reserves the next one and sleeps until its time.
+ */
+public class RateLimiter {
+
+	private final double permitsPerSecond;
+	private final double maxPermits;
+	private double permits;
+	private long last;
+
+	public RateLimiter(double permitsPerSecond) {
+		super();
+		if (permitsPerSecond <= 0) {
+			throw new IllegalArgumentException("permits per second must be positive");
+		}
+		this.permitsPerSecond = permitsPerSecond;
+		this.maxPermits = Math.max(1.0, permitsPerSecond);
+		this.permits = this.maxPermits;
+		this.last = System.nanoTime();
+	}
+
+	/**
+	 * Waits for one permit
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			this.permits = Math.min(this.maxPermits, this.permits + (now - this.last) / 1e9 * this.permitsPerSecond);
+			this.last = now;
+			this.permits -= 1;
+			wait = this.permits >= 0 ? 0 : (long) (-this.permits / this.permitsPerSecond * 1e9);
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	public double getPermitsPerSecond() {
+		return permitsPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiter [permitsPerSecond=" + permitsPerSecond + "]";
+	}
+}
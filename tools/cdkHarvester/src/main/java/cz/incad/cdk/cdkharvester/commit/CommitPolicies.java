@@ -0,0 +1,47 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration.Configuration;
+
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Creates commit policy from configuration
+ * <ul>
+ * <li>cdk.commit.policy=documents - hard commit every cdk.commit.documents documents</li>
+ * <li>cdk.commit.policy=time - hard commit every cdk.commit.interval milliseconds</li>
+ * <li>cdk.commit.policy=within - commitWithin cdk.commit.within milliseconds</li>
+ * <li>cdk.commit.policy=soft - soft commit every cdk.commit.documents documents</li>
+ * </ul>
+ */
+public class CommitPolicies {
+
+	public static final Logger LOGGER = Logger.getLogger(CommitPolicies.class.getName());
+
+	public static enum Type {
+		documents, time, within, soft
+	}
+
+	public static CommitPolicy fromConfiguration() {
+		Configuration conf = KConfiguration.getInstance().getConfiguration();
+		String name = conf.getString("cdk.commit.policy", Type.documents.name());
+		Type type;
+		try {
+			type = Type.valueOf(name.trim());
+		} catch (IllegalArgumentException e) {
+			LOGGER.warning("unknown commit policy '" + name + "'; using " + Type.documents);
+			type = Type.documents;
+		}
+		switch (type) {
+		case time:
+			return new TimeIntervalCommitPolicy(conf.getLong("cdk.commit.interval", 60000L));
+		case within:
+			return new CommitWithinPolicy(conf.getLong("cdk.commit.within", 30000L));
+		case soft:
+			return new DocumentsCountCommitPolicy(conf.getInt("cdk.commit.documents", 1000), true);
+		default:
+			return new DocumentsCountCommitPolicy(conf.getInt("cdk.commit.documents", 1000));
+		}
+	}
+}
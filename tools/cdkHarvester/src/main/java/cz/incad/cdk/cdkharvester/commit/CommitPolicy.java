@@ -0,0 +1,42 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+
+/**
+ * Decides when the harvested documents should be committed into the index
+ */
+public interface CommitPolicy {
+
+	/**
+	 * Performs commit request
+	 */
+	public static interface Committer {
+
+		/**
+		 * Commit
+		 * @param softCommit True if only soft commit should be sent
+		 * @throws CDKReplicationException
+		 */
+		public void commit(boolean softCommit) throws CDKReplicationException;
+	}
+
+	/**
+	 * Returns parameters which should be appended to update endpoint or empty string
+	 * @return
+	 */
+	public String getUpdateParameters();
+
+	/**
+	 * Called after each replicated document
+	 * @param committer Committer
+	 * @throws CDKReplicationException
+	 */
+	public void documentReplicated(Committer committer) throws CDKReplicationException;
+
+	/**
+	 * Called at the end of harvest
+	 * @param committer Committer
+	 * @throws CDKReplicationException
+	 */
+	public void harvestFinished(Committer committer) throws CDKReplicationException;
+}
@@ -0,0 +1,47 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of commits and commit latency within one harvest run
+ */
+public class CommitStatistics {
+
+	private int commits;
+	private long totalNanos;
+	private long maxNanos;
+
+	public synchronized void record(long nanos) {
+		this.commits += 1;
+		this.totalNanos += nanos;
+		this.maxNanos = Math.max(this.maxNanos, nanos);
+	}
+
+	public synchronized void reset() {
+		this.commits = 0;
+		this.totalNanos = 0;
+		this.maxNanos = 0;
+	}
+
+	public synchronized int getCommits() {
+		return commits;
+	}
+
+	public synchronized long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(this.totalNanos);
+	}
+
+	public synchronized long getMaxMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(this.maxNanos);
+	}
+
+	public synchronized long getAverageMillis() {
+		return this.commits > 0 ? TimeUnit.NANOSECONDS.toMillis(this.totalNanos / this.commits) : 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "commits=" + this.commits + ", total=" + getTotalMillis() + " ms, avg=" + getAverageMillis()
+				+ " ms, max=" + getMaxMillis() + " ms";
+	}
+}
@@ -0,0 +1,35 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+
+/**
+ * Leaves commits on solr (commitWithin parameter); the only explicit commit is sent at the end of harvest
+ */
+public class CommitWithinPolicy implements CommitPolicy {
+
+	private final long withinMillis;
+
+	public CommitWithinPolicy(long withinMillis) {
+		super();
+		this.withinMillis = withinMillis;
+	}
+
+	@Override
+	public String getUpdateParameters() {
+		return "commitWithin=" + this.withinMillis;
+	}
+
+	@Override
+	public void documentReplicated(Committer committer) throws CDKReplicationException {
+		// solr commits itself
+	}
+
+	@Override
+	public void harvestFinished(Committer committer) throws CDKReplicationException {
+		committer.commit(false);
+	}
+
+	public long getWithinMillis() {
+		return withinMillis;
+	}
+}
@@ -0,0 +1,59 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+
+/**
+ * Commits every N replicated documents and at the end of harvest
+ */
+public class DocumentsCountCommitPolicy implements CommitPolicy {
+
+	private final int documents;
+	private final boolean softCommit;
+	private int counter = 0;
+
+	public DocumentsCountCommitPolicy(int documents) {
+		this(documents, false);
+	}
+
+	public DocumentsCountCommitPolicy(int documents, boolean softCommit) {
+		super();
+		this.documents = Math.max(documents, 1);
+		this.softCommit = softCommit;
+	}
+
+	@Override
+	public String getUpdateParameters() {
+		return "";
+	}
+
+	@Override
+	public void documentReplicated(Committer committer) throws CDKReplicationException {
+		boolean commit = false;
+		synchronized (this) {
+			this.counter += 1;
+			if (this.counter >= this.documents) {
+				this.counter = 0;
+				commit = true;
+			}
+		}
+		if (commit) {
+			committer.commit(this.softCommit);
+		}
+	}
+
+	@Override
+	public void harvestFinished(Committer committer) throws CDKReplicationException {
+		synchronized (this) {
+			this.counter = 0;
+		}
+		committer.commit(this.softCommit);
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public boolean isSoftCommit() {
+		return softCommit;
+	}
+}
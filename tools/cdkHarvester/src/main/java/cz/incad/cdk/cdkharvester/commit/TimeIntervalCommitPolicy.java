@@ -0,0 +1,54 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+
+/**
+ * Commits when given time has elapsed from the last commit and at the end of harvest
+ */
+public class TimeIntervalCommitPolicy implements CommitPolicy {
+
+	private final long intervalMillis;
+	private long lastCommit;
+
+	public TimeIntervalCommitPolicy(long intervalMillis) {
+		super();
+		this.intervalMillis = intervalMillis;
+		this.lastCommit = now();
+	}
+
+	@Override
+	public String getUpdateParameters() {
+		return "";
+	}
+
+	@Override
+	public void documentReplicated(Committer committer) throws CDKReplicationException {
+		boolean commit = false;
+		synchronized (this) {
+			long now = now();
+			if (now - this.lastCommit >= this.intervalMillis) {
+				this.lastCommit = now;
+				commit = true;
+			}
+		}
+		if (commit) {
+			committer.commit(false);
+		}
+	}
+
+	@Override
+	public void harvestFinished(Committer committer) throws CDKReplicationException {
+		synchronized (this) {
+			this.lastCommit = now();
+		}
+		committer.commit(false);
+	}
+
+	protected long now() {
+		return System.currentTimeMillis();
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+}
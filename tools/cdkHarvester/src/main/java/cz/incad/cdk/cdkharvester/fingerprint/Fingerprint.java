@@ -0,0 +1,55 @@
+package cz.incad.cdk.cdkharvester.fingerprint;
+
+/**
+ * Fingerprint of the replicated foxml; hash of the source foxml and validators of the source response
+ */
+public class Fingerprint {
+
+	private final String pid;
+	private final String hash;
+	private final String etag;
+	private final String lastModified;
+	private final String timestamp;
+
+	/**
+	 * @param pid Pid
+	 * @param hash Hash of the source foxml
+	 * @param etag ETag header of the response; may be null
+	 * @param lastModified Last-Modified header of the response; may be null
+	 * @param timestamp Harvesting timestamp of the item; may be null
+	 */
+	public Fingerprint(String pid, String hash, String etag, String lastModified, String timestamp) {
+		super();
+		this.pid = pid;
+		this.hash = hash;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.timestamp = timestamp;
+	}
+
+	public String getPid() {
+		return pid;
+	}
+
+	public String getHash() {
+		return hash;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "Fingerprint [pid=" + pid + ", hash=" + hash + ", etag=" + etag + ", lastModified=" + lastModified
+				+ ", timestamp=" + timestamp + "]";
+	}
+}
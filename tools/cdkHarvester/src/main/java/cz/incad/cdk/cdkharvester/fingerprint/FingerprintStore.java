@@ -0,0 +1,176 @@
+package cz.incad.cdk.cdkharvester.fingerprint;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fingerprints of the replicated objects kept in one append only file. Every put appends one line
+ * (<code>pid hash etag lastModified timestamp</code> separated by tabs); the last line of the pid wins.
+ * The file is read into memory when the store is opened and rewritten when it contains too many
+ * overwritten lines. The class is thread safe.
+ */
+public class FingerprintStore implements Closeable {
+
+	public static final Logger LOGGER = Logger.getLogger(FingerprintStore.class.getName());
+
+	private static final String NULL = "-";
+
+	private final File file;
+	private final Map<String, Fingerprint> fingerprints = new HashMap<>();
+	private Writer writer;
+	private int lines = 0;
+
+	/**
+	 * Opens (or creates) the store
+	 * @param file Store file
+	 * @throws IOException
+	 */
+	public FingerprintStore(File file) throws IOException {
+		super();
+		this.file = file;
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists() && !parent.mkdirs()) {
+			throw new IOException("cannot create directory " + parent);
+		}
+		if (file.exists()) {
+			load();
+		}
+		this.writer = openWriter(true);
+	}
+
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", -1);
+				if (parts.length != 5) {
+					// torn write at the end of the file
+					LOGGER.log(Level.WARNING, "skipping invalid fingerprint line {0}", line);
+					continue;
+				}
+				this.fingerprints.put(parts[0], new Fingerprint(parts[0], value(parts[1]), value(parts[2]),
+						value(parts[3]), value(parts[4])));
+				this.lines += 1;
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private Writer openWriter(boolean append) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, append), StandardCharsets.UTF_8));
+	}
+
+	private static String value(String s) {
+		return NULL.equals(s) ? null : s;
+	}
+
+	private static String field(String s) {
+		return s == null || s.isEmpty() ? NULL : s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	private static String line(Fingerprint fingerprint) {
+		return field(fingerprint.getPid()) + "\t" + field(fingerprint.getHash()) + "\t" + field(fingerprint.getEtag())
+				+ "\t" + field(fingerprint.getLastModified()) + "\t" + field(fingerprint.getTimestamp()) + "\n";
+	}
+
+	/**
+	 * Returns fingerprint of the given pid or null
+	 */
+	public synchronized Fingerprint get(String pid) {
+		return this.fingerprints.get(pid);
+	}
+
+	/**
+	 * Stores the fingerprint
+	 * @throws IOException
+	 */
+	public synchronized void put(Fingerprint fingerprint) throws IOException {
+		if (this.writer == null) throw new IOException("store is closed");
+		this.fingerprints.put(fingerprint.getPid(), fingerprint);
+		this.writer.write(line(fingerprint));
+		this.lines += 1;
+		if (this.lines > 1024 && this.lines > 2 * this.fingerprints.size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Removes the fingerprint; the object will be replicated again
+	 * @throws IOException
+	 */
+	public synchronized void remove(String pid) throws IOException {
+		if (this.fingerprints.remove(pid) != null) {
+			compact();
+		}
+	}
+
+	/**
+	 * Writes buffered lines to the file
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (this.writer != null) {
+			this.writer.flush();
+		}
+	}
+
+	/**
+	 * Rewrites the file with the current fingerprints only
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException {
+		if (this.writer != null) {
+			this.writer.close();
+		}
+		File tmp = new File(this.file.getPath() + ".tmp");
+		Writer compacted = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+		try {
+			for (Fingerprint fingerprint : this.fingerprints.values()) {
+				compacted.write(line(fingerprint));
+			}
+		} finally {
+			compacted.close();
+		}
+		Files.move(tmp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.lines = this.fingerprints.size();
+		this.writer = openWriter(true);
+	}
+
+	public synchronized int size() {
+		return this.fingerprints.size();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.writer != null) {
+			this.writer.close();
+			this.writer = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FingerprintStore [file=" + file + ", size=" + size() + "]";
+	}
+}
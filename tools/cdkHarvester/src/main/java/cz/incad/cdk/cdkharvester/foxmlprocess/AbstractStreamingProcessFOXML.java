@@ -0,0 +1,19 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Streaming unit with the byte array contract implemented over the streaming one
+ */
+public abstract class AbstractStreamingProcessFOXML implements StreamingProcessFOXML {
+
+	@Override
+	public byte[] process(String url, String pid, InputStream is) throws Exception {
+		if (is == null)
+			return null;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FOXMLStreams.write(process(url, pid, FOXMLStreams.reader(is)), bos);
+		return bos.toByteArray();
+	}
+}
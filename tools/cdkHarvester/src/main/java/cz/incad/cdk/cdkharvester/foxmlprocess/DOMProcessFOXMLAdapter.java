@@ -0,0 +1,38 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLEventReader;
+
+/**
+ * Compatibility adapter; allows to run byte array (DOM based) units in the streaming chain. 
+ * Note: The adapted unit still materializes the whole document.
+ */
+public class DOMProcessFOXMLAdapter implements StreamingProcessFOXML {
+
+	private final ProcessFOXML delegate;
+
+	public DOMProcessFOXMLAdapter(ProcessFOXML delegate) {
+		super();
+		this.delegate = delegate;
+	}
+
+	@Override
+	public byte[] process(String url, String pid, InputStream is) throws Exception {
+		return this.delegate.process(url, pid, is);
+	}
+
+	@Override
+	public XMLEventReader process(String url, String pid, XMLEventReader reader) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FOXMLStreams.write(reader, bos);
+		byte[] processed = this.delegate.process(url, pid, new ByteArrayInputStream(bos.toByteArray()));
+		return FOXMLStreams.reader(new ByteArrayInputStream(processed));
+	}
+
+	public ProcessFOXML getDelegate() {
+		return delegate;
+	}
+}
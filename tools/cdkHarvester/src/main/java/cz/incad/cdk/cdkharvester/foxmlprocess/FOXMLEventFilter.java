@@ -0,0 +1,158 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Base for streaming chain units. Every event from the parent reader is passed to the
+ * {@link #filter(XMLEvent)} method which emits zero or more events to the output. 
+ * Emitted iterators are consumed lazily, so large content (for example base64 encoded binary content) 
+ * can be produced chunk by chunk.
+ */
+public abstract class FOXMLEventFilter implements XMLEventReader {
+
+	private final XMLEventReader parent;
+	private final LinkedList<Iterator<XMLEvent>> pending = new LinkedList<>();
+	private XMLEvent peeked;
+	private boolean finished = false;
+
+	public FOXMLEventFilter(XMLEventReader parent) {
+		super();
+		this.parent = parent;
+	}
+
+	/**
+	 * Processes one event from the parent reader
+	 * @param event Input event
+	 * @throws XMLStreamException
+	 */
+	protected abstract void filter(XMLEvent event) throws XMLStreamException;
+
+	/**
+	 * Called when the parent reader is exhausted and all emitted events have been consumed
+	 * @throws XMLStreamException
+	 */
+	protected void finish() throws XMLStreamException {
+	}
+
+	protected void emit(XMLEvent event) {
+		this.pending.add(Collections.singletonList(event).iterator());
+	}
+
+	protected void emit(Iterator<XMLEvent> events) {
+		this.pending.add(events);
+	}
+
+	private boolean fill() throws XMLStreamException {
+		while (true) {
+			while (!this.pending.isEmpty()) {
+				if (this.pending.getFirst().hasNext()) return true;
+				this.pending.removeFirst();
+			}
+			if (this.parent.hasNext()) {
+				filter(this.parent.nextEvent());
+			} else {
+				if (!this.finished) {
+					this.finished = true;
+					finish();
+					continue;
+				}
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public XMLEvent nextEvent() throws XMLStreamException {
+		if (this.peeked != null) {
+			XMLEvent event = this.peeked;
+			this.peeked = null;
+			return event;
+		}
+		if (!fill()) throw new NoSuchElementException();
+		return this.pending.getFirst().next();
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			return this.peeked != null || fill();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public XMLEvent peek() throws XMLStreamException {
+		if (this.peeked == null && fill()) {
+			this.peeked = this.pending.getFirst().next();
+		}
+		return this.peeked;
+	}
+
+	@Override
+	public Object next() {
+		try {
+			return nextEvent();
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		StringBuilder builder = new StringBuilder();
+		while (true) {
+			XMLEvent event = nextEvent();
+			switch (event.getEventType()) {
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				builder.append(event.asCharacters().getData());
+				break;
+			case XMLStreamConstants.ENTITY_REFERENCE:
+			case XMLStreamConstants.COMMENT:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return builder.toString();
+			default:
+				throw new XMLStreamException("unexpected event in the text only element " + event);
+			}
+		}
+	}
+
+	@Override
+	public XMLEvent nextTag() throws XMLStreamException {
+		while (true) {
+			XMLEvent event = nextEvent();
+			if (event.isStartElement() || event.isEndElement()) {
+				return event;
+			} else if (event.isCharacters() && !event.asCharacters().isWhiteSpace()) {
+				throw new XMLStreamException("expecting start or end element " + event);
+			}
+		}
+	}
+
+	@Override
+	public Object getProperty(String name) throws IllegalArgumentException {
+		return this.parent.getProperty(name);
+	}
+
+	@Override
+	public void close() throws XMLStreamException {
+		this.parent.close();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+}
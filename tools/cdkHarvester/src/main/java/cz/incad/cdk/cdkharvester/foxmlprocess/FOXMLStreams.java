@@ -0,0 +1,76 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Support for streaming FOXML processing chain
+ */
+public class FOXMLStreams {
+
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+	private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+	private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+	static {
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	private FOXMLStreams() {
+	}
+
+	public static XMLEventReader reader(InputStream is) throws XMLStreamException {
+		return INPUT_FACTORY.createXMLEventReader(is);
+	}
+
+	public static XMLEventFactory eventFactory() {
+		return EVENT_FACTORY;
+	}
+
+	/**
+	 * Writes all events from the reader as UTF-8 document
+	 * @param reader Events
+	 * @param os Output stream
+	 * @throws XMLStreamException
+	 */
+	public static void write(XMLEventReader reader, OutputStream os) throws XMLStreamException {
+		XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(os, "UTF-8");
+		try {
+			while (reader.hasNext()) {
+				XMLEvent event = reader.nextEvent();
+				if (event.isStartDocument()) {
+					// output is always UTF-8
+					writer.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+				} else {
+					writer.add(event);
+				}
+			}
+			writer.flush();
+		} finally {
+			writer.close();
+			reader.close();
+		}
+	}
+
+	/**
+	 * Returns streaming variant of the given chain unit
+	 * @param unit Chain unit
+	 * @return
+	 */
+	public static StreamingProcessFOXML streaming(ProcessFOXML unit) {
+		if (unit instanceof StreamingProcessFOXML) {
+			return (StreamingProcessFOXML) unit;
+		} else {
+			return new DOMProcessFOXMLAdapter(unit);
+		}
+	}
+}
@@ -18,6 +18,7 @@
 package cz.incad.cdk.cdkharvester.foxmlprocess;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -163,6 +164,11 @@ public class ImageReplaceProcess implements ProcessFOXML {
 
 	public void binaryContentStream(Document document, final Element datStreamElm, Element version, String imgUrl)
 			throws IOException, MalformedURLException {
-		ReplicationUtils.binaryContentForStream(document, datStreamElm, version, new URL(imgUrl));
+		File content = ThumbnailFetcher.getInstance().fetchWithRetry(imgUrl);
+		try {
+			ReplicationUtils.binaryContentForStream(document, datStreamElm, version, content);
+		} finally {
+			content.delete();
+		}
 	}
 }
@@ -1,10 +1,12 @@
 package cz.incad.cdk.cdkharvester.foxmlprocess;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,6 +17,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.kramerius.utils.IOUtils;
 import cz.incad.kramerius.utils.XMLUtils;
 
@@ -33,20 +36,36 @@ public class ReplicationUtils {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             URLConnection urlConnection = url.openConnection();
+            HarvestClient client = HarvestClient.getInstance();
+            urlConnection.setConnectTimeout(client.getConnectTimeout());
+            urlConnection.setReadTimeout(client.getReadTimeout());
             is = urlConnection.getInputStream();
             IOUtils.copyStreams(is, bos);
-            version.setAttribute("SIZE", ""+bos.size());
-            version.removeChild(XMLUtils.findElement( version,"contentLocation",version.getNamespaceURI()));
-            Element binaryContent = document.createElementNS(version.getNamespaceURI(), "binaryContent");
-            document.adoptNode(binaryContent);
-            binaryContent.setTextContent(new String(Base64.encodeBase64(bos.toByteArray())));
-            version.appendChild(binaryContent);
-            datastream.setAttribute("CONTROL_GROUP", "M");
+            binaryContent(document, datastream, version, bos.size(), bos.toByteArray());
         } finally {
             IOUtils.tryClose(is);
         }
     }
 
+    /**
+     * @param version
+     * @param content Downloaded content
+     * @throws IOException 
+     */
+    public static void binaryContentForStream(Document document, Element datastream, Element version, File content) throws IOException {
+        binaryContent(document, datastream, version, content.length(), Files.readAllBytes(content.toPath()));
+    }
+
+    private static void binaryContent(Document document, Element datastream, Element version, long size, byte[] bytes) {
+        version.setAttribute("SIZE", ""+size);
+        version.removeChild(XMLUtils.findElement( version,"contentLocation",version.getNamespaceURI()));
+        Element binaryContent = document.createElementNS(version.getNamespaceURI(), "binaryContent");
+        document.adoptNode(binaryContent);
+        binaryContent.setTextContent(new String(Base64.encodeBase64(bytes)));
+        version.appendChild(binaryContent);
+        datastream.setAttribute("CONTROL_GROUP", "M");
+    }
+
     /**
      * @param version
      * @throws IOException
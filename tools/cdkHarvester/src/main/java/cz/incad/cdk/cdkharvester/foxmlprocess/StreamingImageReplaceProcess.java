@@ -0,0 +1,401 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.codec.binary.Base64;
+
+import cz.incad.kramerius.utils.IOUtils;
+
+/**
+ * Streaming variant of the {@link ImageReplaceProcess}. Only the replaced and redirected datastream elements
+ * are buffered (they contain just the content locations); the thumbnail is downloaded by the shared
+ * {@link ThumbnailFetcher} to the temporary file and its base64 representation is written to the output in chunks.
+ * <p>
+ * The thumbnail is downloaded once per datastream (the url doesn't depend on the version).
+ * Datastreams which already contain inlined binary content are passed unchanged.
+ */
+public class StreamingImageReplaceProcess extends AbstractStreamingProcessFOXML {
+
+	public static final Logger LOGGER = Logger.getLogger(StreamingImageReplaceProcess.class.getName());
+
+	/** Size of the binary chunk; must be divisible by 3 */
+	private static final int CHUNK_SIZE = 3 * 16 * 1024;
+
+	private static final QName ID = new QName("ID");
+	private static final QName CONTROL_GROUP = new QName("CONTROL_GROUP");
+	private static final QName REF = new QName("REF");
+
+	@Override
+	public XMLEventReader process(String url, String pid, XMLEventReader reader) throws Exception {
+		return new ImageReplaceFilter(reader, url, pid);
+	}
+
+	protected Future<File> fetch(String imgUrl) {
+		return ThumbnailFetcher.getInstance().fetch(imgUrl);
+	}
+
+	static String imgUrl(String url, String pid, String stream) {
+		return url + "/img?uuid=" + pid + "&action=GETRAW&stream=" + stream;
+	}
+
+	private static boolean isVersion(StartElement elm) {
+		return elm.getName().getLocalPart().endsWith("datastreamVersion");
+	}
+
+	private static String attribute(StartElement elm, QName name) {
+		Attribute attr = elm.getAttributeByName(name);
+		return attr != null ? attr.getValue() : null;
+	}
+
+	private static StartElement withAttribute(StartElement elm, String name, String value) {
+		XMLEventFactory factory = FOXMLStreams.eventFactory();
+		List<Attribute> attrs = new ArrayList<>();
+		Iterator<?> it = elm.getAttributes();
+		while (it.hasNext()) {
+			Attribute attr = (Attribute) it.next();
+			if (!attr.getName().equals(new QName(name))) {
+				attrs.add(attr);
+			}
+		}
+		attrs.add(factory.createAttribute(name, value));
+		return factory.createStartElement(elm.getName(), attrs.iterator(), elm.getNamespaces());
+	}
+
+	private class ImageReplaceFilter extends FOXMLEventFilter {
+
+		private final String url;
+		private final String pid;
+
+		private int depth = 0;
+		private boolean digitalObject = false;
+
+		// currently buffered datastream
+		private List<XMLEvent> buffer;
+		private String datastreamId;
+		private boolean replace;
+		private Future<File> download;
+
+		private final List<File> spooled = new ArrayList<>();
+
+		public ImageReplaceFilter(XMLEventReader parent, String url, String pid) {
+			super(parent);
+			this.url = url;
+			this.pid = pid;
+		}
+
+		@Override
+		protected void filter(XMLEvent event) throws XMLStreamException {
+			if (event.isStartElement()) {
+				this.depth += 1;
+				StartElement elm = event.asStartElement();
+				String localName = elm.getName().getLocalPart();
+				if (this.depth == 1) {
+					this.digitalObject = localName.equals("digitalObject");
+				} else if (this.depth == 2 && this.digitalObject && localName.equals("datastream")) {
+					startDatastream(elm);
+				} else if (this.buffer != null && localName.equals("binaryContent")) {
+					// inlined content; nothing to do
+					cancelDatastream();
+				}
+			}
+
+			if (this.buffer != null) {
+				this.buffer.add(event);
+			} else {
+				emit(event);
+			}
+
+			if (event.isEndElement()) {
+				if (this.depth == 2 && this.buffer != null) {
+					endDatastream();
+				}
+				this.depth -= 1;
+			}
+		}
+
+		private void startDatastream(StartElement elm) {
+			String id = attribute(elm, ID);
+			String controlGroup = attribute(elm, CONTROL_GROUP);
+			if (Arrays.asList(ImageReplaceProcess.REPLACE_DATASTREAM).contains(id) && controlGroup != null
+					&& !controlGroup.equals("M")) {
+				this.buffer = new ArrayList<>();
+				this.datastreamId = id;
+				this.replace = true;
+				// start download immediately
+				this.download = fetch(imgUrl(this.url, this.pid, id));
+			} else if (Arrays.asList(ImageReplaceProcess.REDIRECTED_DATASTREAM).contains(id)) {
+				this.buffer = new ArrayList<>();
+				this.datastreamId = id;
+				this.replace = false;
+			}
+		}
+
+		private void cancelDatastream() {
+			for (XMLEvent buffered : this.buffer) {
+				emit(buffered);
+			}
+			this.buffer = null;
+			if (this.download != null) {
+				ThumbnailFetcher.discard(this.download);
+				this.download = null;
+			}
+		}
+
+		private void endDatastream() {
+			List<XMLEvent> events = this.buffer;
+			Future<File> fetched = this.download;
+			this.buffer = null;
+			this.download = null;
+			if (this.replace) {
+				replaceDatastream(events, fetched);
+			} else {
+				redirectDatastream(events);
+			}
+		}
+
+		/**
+		 * Returns content location references of the versions; key is index of the version start event
+		 */
+		private Map<Integer, String> locations(List<XMLEvent> events) {
+			Map<Integer, String> locations = new HashMap<>();
+			int level = 0;
+			int version = -1;
+			for (int i = 0, ll = events.size(); i < ll; i++) {
+				XMLEvent event = events.get(i);
+				if (event.isStartElement()) {
+					level += 1;
+					StartElement elm = event.asStartElement();
+					if (level == 2 && isVersion(elm)) {
+						version = i;
+					} else if (level == 3 && version >= 0 && elm.getName().getLocalPart().equals("contentLocation")) {
+						String ref = attribute(elm, REF);
+						locations.put(version, ref != null ? ref : "");
+					}
+				} else if (event.isEndElement()) {
+					if (level == 2) version = -1;
+					level -= 1;
+				}
+			}
+			return locations;
+		}
+
+		private void replaceDatastream(List<XMLEvent> events, Future<File> fetched) {
+			Map<Integer, String> locations = locations(events);
+			if (locations.isEmpty()) {
+				ThumbnailFetcher.discard(fetched);
+				emitAll(events);
+				return;
+			}
+			File content = null;
+			try {
+				content = ThumbnailFetcher.get(fetched);
+				this.spooled.add(content);
+			} catch (IOException e) {
+				// something happend; must continue
+				LOGGER.log(Level.SEVERE, e.getMessage(), e);
+				emitAll(events);
+				return;
+			}
+
+			XMLEventFactory factory = FOXMLStreams.eventFactory();
+			int level = 0;
+			boolean inReplacedVersion = false;
+			int skipping = 0;
+			QName binaryContent = null;
+			for (int i = 0, ll = events.size(); i < ll; i++) {
+				XMLEvent event = events.get(i);
+				if (event.isStartElement()) {
+					level += 1;
+					StartElement elm = event.asStartElement();
+					if (skipping > 0) {
+						skipping += 1;
+						continue;
+					}
+					if (level == 1) {
+						event = withAttribute(elm, "CONTROL_GROUP", "M");
+					} else if (level == 2 && locations.containsKey(i)) {
+						inReplacedVersion = true;
+						event = withAttribute(elm, "SIZE", "" + content.length());
+						binaryContent = new QName(elm.getName().getNamespaceURI(), "binaryContent",
+								elm.getName().getPrefix());
+					} else if (level == 3 && inReplacedVersion
+							&& elm.getName().getLocalPart().equals("contentLocation")) {
+						skipping = 1;
+						continue;
+					}
+				} else if (event.isEndElement()) {
+					level -= 1;
+					if (skipping > 0) {
+						skipping -= 1;
+						continue;
+					}
+					if (level == 1 && inReplacedVersion) {
+						inReplacedVersion = false;
+						emit(factory.createStartElement(binaryContent, null, null));
+						emit(new Base64Events(content));
+						emit(factory.createEndElement(binaryContent, null));
+					}
+				} else if (skipping > 0) {
+					continue;
+				}
+				emit(event);
+			}
+		}
+
+		private void redirectDatastream(List<XMLEvent> events) {
+			Map<Integer, String> locations = locations(events);
+			String expecting = imgUrl(this.url, this.pid, this.datastreamId);
+			List<Integer> redirected = new ArrayList<>();
+			for (Map.Entry<Integer, String> entry : locations.entrySet()) {
+				if (!expecting.equals(entry.getValue())) {
+					redirected.add(entry.getKey());
+				}
+			}
+			if (redirected.isEmpty()) {
+				emitAll(events);
+				return;
+			}
+
+			XMLEventFactory factory = FOXMLStreams.eventFactory();
+			int level = 0;
+			boolean inRedirectedVersion = false;
+			for (int i = 0, ll = events.size(); i < ll; i++) {
+				XMLEvent event = events.get(i);
+				if (event.isStartElement()) {
+					level += 1;
+					StartElement elm = event.asStartElement();
+					if (level == 1) {
+						event = withAttribute(elm, "CONTROL_GROUP", "E");
+					} else if (level == 2 && redirected.contains(i)) {
+						// version contains only the new location
+						inRedirectedVersion = true;
+						QName location = new QName(elm.getName().getNamespaceURI(), "contentLocation",
+								elm.getName().getPrefix());
+						List<Attribute> attrs = Arrays.asList(factory.createAttribute("REF", expecting),
+								factory.createAttribute("TYPE", "URL"));
+						emit(event);
+						emit(factory.createStartElement(location, attrs.iterator(), null));
+						emit(factory.createEndElement(location, null));
+						continue;
+					}
+				} else if (event.isEndElement()) {
+					level -= 1;
+					if (level == 1 && inRedirectedVersion) {
+						inRedirectedVersion = false;
+						emit(event);
+						continue;
+					}
+				}
+				if (!inRedirectedVersion) {
+					emit(event);
+				}
+			}
+		}
+
+		private void emitAll(List<XMLEvent> events) {
+			emit(events.iterator());
+		}
+
+		@Override
+		protected void finish() throws XMLStreamException {
+			deleteSpooled();
+		}
+
+		@Override
+		public void close() throws XMLStreamException {
+			deleteSpooled();
+			if (this.download != null) {
+				ThumbnailFetcher.discard(this.download);
+				this.download = null;
+			}
+			super.close();
+		}
+
+		private void deleteSpooled() {
+			for (File file : this.spooled) {
+				if (file.exists() && !file.delete()) {
+					LOGGER.warning("cannot delete temporary file " + file.getAbsolutePath());
+				}
+			}
+			this.spooled.clear();
+		}
+	}
+
+	/**
+	 * Lazily produces base64 encoded content of the file as character events
+	 */
+	private static class Base64Events implements Iterator<XMLEvent> {
+
+		private final File file;
+		private InputStream is;
+		private byte[] chunk;
+		private boolean eof = false;
+
+		public Base64Events(File file) {
+			super();
+			this.file = file;
+		}
+
+		private void read() {
+			if (this.chunk != null || this.eof) return;
+			try {
+				if (this.is == null) {
+					this.is = new BufferedInputStream(new FileInputStream(this.file));
+				}
+				byte[] buffer = new byte[CHUNK_SIZE];
+				int filled = 0;
+				int read;
+				while (filled < CHUNK_SIZE && (read = this.is.read(buffer, filled, CHUNK_SIZE - filled)) != -1) {
+					filled += read;
+				}
+				if (filled == 0) {
+					this.eof = true;
+					IOUtils.tryClose(this.is);
+				} else {
+					this.chunk = filled == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, filled);
+				}
+			} catch (IOException e) {
+				IOUtils.tryClose(this.is);
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			read();
+			return this.chunk != null;
+		}
+
+		@Override
+		public XMLEvent next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			String encoded = new String(Base64.encodeBase64(this.chunk), StandardCharsets.US_ASCII);
+			this.chunk = null;
+			return FOXMLStreams.eventFactory().createCharacters(encoded);
+		}
+	}
+}
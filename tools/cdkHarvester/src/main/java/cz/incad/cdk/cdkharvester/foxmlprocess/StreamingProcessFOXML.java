@@ -0,0 +1,20 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import javax.xml.stream.XMLEventReader;
+
+/**
+ * The FOXML post processing chain unit working over stream of xml events. 
+ * The unit should not materialize the whole document. 
+ */
+public interface StreamingProcessFOXML extends ProcessFOXML {
+
+	/**
+	 * Postprocessing method
+	 * @param url Source kramerius
+	 * @param pid Pid
+	 * @param reader Input events
+	 * @return filtered events
+	 * @throws Exception
+	 */
+	public XMLEventReader process(String url, String pid, XMLEventReader reader) throws Exception;
+}
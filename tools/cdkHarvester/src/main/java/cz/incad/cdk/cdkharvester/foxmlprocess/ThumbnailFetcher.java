@@ -0,0 +1,188 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration.Configuration;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.kramerius.utils.IOUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Downloads binary datastreams (thumbnails) to temporary files. Downloads run in the bounded pool shared 
+ * by all replication workers; failed downloads are retried with exponential backoff.
+ * <ul>
+ * <li>cdk.thumbs.fetch.threads - maximum number of concurrent downloads</li>
+ * <li>cdk.thumbs.fetch.retries - number of retries for timeouts and server errors</li>
+ * <li>cdk.thumbs.fetch.backoff - first retry delay in milliseconds; doubled for every next retry</li>
+ * </ul>
+ */
+public class ThumbnailFetcher {
+
+	public static final Logger LOGGER = Logger.getLogger(ThumbnailFetcher.class.getName());
+
+	private static ThumbnailFetcher instance;
+
+	private final HarvestClient client;
+	private final ExecutorService executor;
+	private final int retries;
+	private final long backoff;
+
+	public ThumbnailFetcher(HarvestClient client, int threads, int retries, long backoff) {
+		super();
+		this.client = client;
+		this.retries = retries;
+		this.backoff = backoff;
+		this.executor = Executors.newFixedThreadPool(threads, new FetcherThreadFactory());
+	}
+
+	/**
+	 * Returns shared instance configured from KConfiguration
+	 * @return
+	 */
+	public static synchronized ThumbnailFetcher getInstance() {
+		if (instance == null) {
+			Configuration conf = KConfiguration.getInstance().getConfiguration();
+			// own connections; downloads run while the foxml stream of the same host holds its connection
+			instance = new ThumbnailFetcher(HarvestClient.getDatastreamInstance(), conf.getInt("cdk.thumbs.fetch.threads", 4),
+					conf.getInt("cdk.thumbs.fetch.retries", 2), conf.getLong("cdk.thumbs.fetch.backoff", 500));
+		}
+		return instance;
+	}
+
+	/**
+	 * Starts download of the given url
+	 * @param url Binary content url
+	 * @return Future of the temporary file; the caller is responsible for deleting it
+	 */
+	public Future<File> fetch(final String url) {
+		return this.executor.submit(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				return fetchWithRetry(url);
+			}
+		});
+	}
+
+	/**
+	 * Downloads the given url in the calling thread
+	 * @param url Binary content url
+	 * @return temporary file
+	 * @throws IOException
+	 */
+	public File fetchWithRetry(String url) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			try {
+				return download(url);
+			} catch (FileNotFoundException e) {
+				// client error; no reason to repeat
+				throw e;
+			} catch (IOException | ClientHandlerException e) {
+				if (attempt >= this.retries) {
+					throw e instanceof IOException ? (IOException) e : new IOException(e);
+				}
+				long delay = this.backoff << attempt;
+				LOGGER.log(Level.WARNING, "download of {0} failed ({1}); retrying in {2} ms",
+						new Object[] { url, e.getMessage(), delay });
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IOException(ie);
+				}
+			}
+		}
+	}
+
+	protected File download(String url) throws IOException {
+		ClientResponse response = this.client.resource(url).get(ClientResponse.class);
+		try {
+			int status = response.getStatus();
+			if (status >= 500) {
+				throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+			} else if (status != ClientResponse.Status.OK.getStatusCode()) {
+				throw new FileNotFoundException("Server returned HTTP response code: " + status + " for URL: " + url);
+			}
+			File file = File.createTempFile("cdk_thumb", ".bin");
+			boolean downloaded = false;
+			InputStream is = response.getEntityInputStream();
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				IOUtils.copyStreams(is, os);
+				os.close();
+				downloaded = true;
+			} finally {
+				if (!downloaded) {
+					IOUtils.tryClose(os);
+					file.delete();
+				}
+			}
+			return file;
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Waits for the download
+	 * @param future Download
+	 * @return temporary file
+	 * @throws IOException
+	 */
+	public static File get(Future<File> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
+
+	/**
+	 * Waits for the unused download and deletes the file
+	 * @param future Download
+	 */
+	public static void discard(Future<File> future) {
+		try {
+			File file = get(future);
+			if (!file.delete()) {
+				LOGGER.warning("cannot delete temporary file " + file.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, e.getMessage(), e);
+		}
+	}
+
+	private static class FetcherThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cdk-thumbs-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
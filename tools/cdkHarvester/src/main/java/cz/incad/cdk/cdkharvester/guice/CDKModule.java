@@ -5,6 +5,7 @@ import com.google.inject.Scopes;
 import com.google.inject.name.Names;
 import com.google.inject.util.Providers;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.cdk.cdkharvester.manageprocess.CheckLiveProcess;
 import cz.incad.cdk.cdkharvester.manageprocess.CheckLiveProcessesFileStoreImpl;
 import cz.incad.cdk.cdkharvester.timestamp.ProcessingTimestamps;
@@ -34,6 +35,8 @@ public class CDKModule extends AbstractModule {
         
         bind(ProcessingTimestamps.class).to(ProcessingTimestampsSolrStoreImpl.class);
         bind(CheckLiveProcess.class).to(CheckLiveProcessesFileStoreImpl.class);
+
+        bind(HarvestClient.class).toInstance(HarvestClient.getInstance());
         
 	}
 
@@ -1,27 +1,29 @@
 package cz.incad.cdk.cdkharvester.iterator;
 
-import org.kramerius.replications.BasicAuthenticationClientFilter;
-
-import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 
 public abstract class AbstractCDKHarvestIteration implements CDKHarvestIteration {
 
+	private HarvestClient harvestClient;
+
 	protected WebResource client(String urlStr) {
 		return client(urlStr, null, null);
 	}
 	
 	protected WebResource client(String urlStr, String userName, String pswd) {
-		Client c = Client.create();
-		// follow redirect
-		c.getProperties().put(ClientConfig.PROPERTY_FOLLOW_REDIRECTS, true);
-		c.setConnectTimeout(2000);
-		c.setReadTimeout(20000);
-		WebResource r = c.resource(urlStr);
-		if (userName != null && pswd != null) {
-			r.addFilter(new BasicAuthenticationClientFilter(userName, pswd));
+		return getHarvestClient().resource(urlStr, userName, pswd);
+	}
+
+	public HarvestClient getHarvestClient() {
+		if (this.harvestClient == null) {
+			this.harvestClient = HarvestClient.getInstance();
 		}
-		return r;
+		return harvestClient;
+	}
+
+	public void setHarvestClient(HarvestClient harvestClient) {
+		this.harvestClient = harvestClient;
 	}
 }
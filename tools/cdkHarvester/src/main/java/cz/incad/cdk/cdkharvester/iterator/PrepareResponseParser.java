@@ -0,0 +1,110 @@
+package cz.incad.cdk.cdkharvester.iterator;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pull parser of the prepare endpoint response. Items are read one by one from the stream;
+ * the pid is taken from <code>/response/result/doc/str[@name='PID']</code> and the timestamp
+ * from the element following it (<code>date[@name='modified_date']</code>).
+ */
+public class PrepareResponseParser {
+
+	private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	}
+
+	private final XMLStreamReader reader;
+	private int depth = 0;
+	private int numFound = -1;
+
+	public PrepareResponseParser(InputStream is) throws XMLStreamException {
+		super();
+		this.reader = INPUT_FACTORY.createXMLStreamReader(is);
+	}
+
+	/**
+	 * Returns numFound attribute of the result element or -1 if the result element has not been read yet
+	 * @return
+	 */
+	public int getNumFound() {
+		return numFound;
+	}
+
+	/**
+	 * Reads next item
+	 * @return next item or null if there is no other item
+	 * @throws XMLStreamException
+	 */
+	public CDKHarvestIterationItem next() throws XMLStreamException {
+		String pid = null;
+		String timestamp = null;
+		boolean expectingTimestamp = false;
+		while (this.reader.hasNext()) {
+			int event = this.reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				this.depth += 1;
+				String name = this.reader.getLocalName();
+				if (this.depth == 2 && name.equals("result")) {
+					String value = this.reader.getAttributeValue(null, "numFound");
+					this.numFound = value != null ? Integer.parseInt(value) : 0;
+				} else if (this.depth == 3 && name.equals("doc")) {
+					pid = null;
+					timestamp = null;
+					expectingTimestamp = false;
+				} else if (this.depth == 4) {
+					if (pid == null && name.equals("str") && "PID".equals(this.reader.getAttributeValue(null, "name"))) {
+						pid = this.reader.getElementText();
+						expectingTimestamp = true;
+						this.depth -= 1;
+					} else if (expectingTimestamp) {
+						timestamp = this.reader.getElementText();
+						expectingTimestamp = false;
+						this.depth -= 1;
+					}
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				this.depth -= 1;
+				if (this.depth == 2 && pid != null) {
+					return new CDKHarvestIterationItemImpl(pid, timestamp);
+				}
+			}
+		}
+		return null;
+	}
+
+	public void close() throws XMLStreamException {
+		this.reader.close();
+	}
+
+	/**
+	 * Reads all items from the response
+	 * @param is Response
+	 * @return items
+	 * @throws XMLStreamException
+	 */
+	public static List<CDKHarvestIterationItem> parse(InputStream is) throws XMLStreamException {
+		List<CDKHarvestIterationItem> items = new ArrayList<>();
+		PrepareResponseParser parser = new PrepareResponseParser(is);
+		try {
+			CDKHarvestIterationItem item;
+			while ((item = parser.next()) != null) {
+				items.add(item);
+			}
+		} finally {
+			parser.close();
+		}
+		return items;
+	}
+}
@@ -2,91 +2,98 @@ package cz.incad.cdk.cdkharvester.iterator;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.ws.rs.core.MediaType;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.httpclient.util.URIUtil;
-import org.kramerius.replications.BasicAuthenticationClientFilter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
-import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.WebResource;
-import com.sun.jersey.api.client.config.ClientConfig;
 
+import cz.incad.cdk.cdkharvester.metrics.HarvestMetrics;
+import cz.incad.cdk.cdkharvester.retry.RetryExecutor;
 import cz.incad.kramerius.utils.IOUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
 
 /**
- * Standard list of pids based on prepare endpoint
+ * Standard list of pids based on prepare endpoint. 
+ * <p>
+ * In the read-ahead mode the next page is requested in the background as soon as the current one 
+ * has been loaded (from the timestamp of the last item of the current page).
+ * <ul>
+ * <li>cdk.harvest.rows - page size</li>
+ * <li>cdk.harvest.readahead - enables read-ahead mode</li>
+ * </ul>
  * @author pstastny
  */
 public class StandardCDKHarvestIterationImpl extends  AbstractCDKHarvestIteration {
 
 	public static final Logger LOGGER = Logger.getLogger(StandardCDKHarvestIterationImpl.class.getName());
-	public static final String APIURL_PREFIX = "/api/v4.6/cdk/prepare?rows=500&date=";
+	public static final String APIURL_PATH = "/api/v4.6/cdk/prepare";
+
+	private static final ExecutorService READ_AHEAD = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cdk-readahead-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	private String harvestUrl;
 	private String userName;
 	private String pswd;
 	private String actualDate;
+	private final boolean readAhead;
+	private RetryExecutor retryExecutor;
 
 	private List<CDKHarvestIterationItem> processingList;
 
+	// next page requested in the background
+	private String nextPageDate;
+	private Future<List<CDKHarvestIterationItem>> nextPage;
+
 	public StandardCDKHarvestIterationImpl(String date, String k4Url, String userName, String pswd)
 			throws CDKHarvestIterationException {
+		this(date, k4Url, userName, pswd,
+				KConfiguration.getInstance().getConfiguration().getInt("cdk.harvest.rows", 500),
+				KConfiguration.getInstance().getConfiguration().getBoolean("cdk.harvest.readahead", false));
+	}
+
+	public StandardCDKHarvestIterationImpl(String date, String k4Url, String userName, String pswd, int rows,
+			boolean readAhead) throws CDKHarvestIterationException {
 		this.actualDate = date;
-		this.harvestUrl = k4Url + APIURL_PREFIX;
+		this.harvestUrl = k4Url + APIURL_PATH + "?rows=" + rows + "&date=";
 		this.userName = userName;
 		this.pswd = pswd;
+		this.readAhead = readAhead;
 		this.processingList = new LinkedList<>();
 
 	}
 
 	public void init() throws CDKHarvestIterationException {
-		try {
-			this.loadNext();
-		} catch (XPathExpressionException e) {
-			throw new CDKHarvestIterationException(e);
-		} catch (SAXException e) {
-			throw new CDKHarvestIterationException(e);
-		} catch (IOException e) {
-			throw new CDKHarvestIterationException(e);
-		} catch (ParserConfigurationException e) {
-			throw new CDKHarvestIterationException(e);
-		}
-
+		this.loadNext();
 	}
 
 	public boolean hasNext() throws CDKHarvestIterationException {
-		try {
-			if (this.processingList.isEmpty()) {
-				this.loadNext();
-			}
-			return !this.processingList.isEmpty();
-		} catch (XPathExpressionException e) {
-			throw new CDKHarvestIterationException(e);
-		} catch (SAXException e) {
-			throw new CDKHarvestIterationException(e);
-		} catch (IOException e) {
-			throw new CDKHarvestIterationException(e);
-		} catch (ParserConfigurationException e) {
-			throw new CDKHarvestIterationException(e);
+		if (this.processingList.isEmpty()) {
+			this.loadNext();
 		}
+		return !this.processingList.isEmpty();
 	}
 
 	@Override
@@ -99,44 +106,100 @@ public class StandardCDKHarvestIterationImpl extends  AbstractCDKHarvestIteratio
 		return null;
 	}
 
-	private void loadNext() throws XPathExpressionException, SAXException, IOException, ParserConfigurationException {
-		String urlStr = harvestUrl + URIUtil.encodeQuery(actualDate);
-		LOGGER.log(Level.INFO, "urlStr: {0}", urlStr);
-		Document solrDom = solrResults(urlStr);
-
-		XPathFactory pathFactory = XPathFactory.newInstance();
-		XPath xpath = pathFactory.newXPath();
+	private void loadNext() throws CDKHarvestIterationException {
+		List<CDKHarvestIterationItem> page;
+		if (this.nextPage != null && this.actualDate.equals(this.nextPageDate)) {
+			page = waitForPage(this.nextPage);
+		} else {
+			if (this.nextPage != null) {
+				this.nextPage.cancel(true);
+			}
+			page = loadPage(this.actualDate);
+		}
+		this.nextPage = null;
+		this.nextPageDate = null;
+		this.processingList.addAll(page);
+
+		if (this.readAhead && !page.isEmpty()) {
+			final String date = page.get(page.size() - 1).getTimestamp();
+			this.nextPageDate = date;
+			this.nextPage = READ_AHEAD.submit(new Callable<List<CDKHarvestIterationItem>>() {
+				@Override
+				public List<CDKHarvestIterationItem> call() throws Exception {
+					return loadPage(date);
+				}
+			});
+		}
+	}
 
-		XPathExpression numFoundExpr = xpath.compile("/response/result/@numFound");
-		int numDocs = Integer.parseInt((String) numFoundExpr.evaluate(solrDom, XPathConstants.STRING));
+	public synchronized RetryExecutor getRetryExecutor() {
+		if (this.retryExecutor == null) {
+			this.retryExecutor = RetryExecutor.forSource(this.harvestUrl);
+		}
+		return retryExecutor;
+	}
 
-		XPathExpression docExpr = xpath.compile("/response/result/doc/str[@name='PID']");
+	public void setRetryExecutor(RetryExecutor retryExecutor) {
+		this.retryExecutor = retryExecutor;
+	}
 
-		LOGGER.log(Level.INFO, "numDocs: {0}", numDocs);
-		if (numDocs > 0) {
-			NodeList nodes = (NodeList) docExpr.evaluate(solrDom, XPathConstants.NODESET);
-			for (int i = 0; i < nodes.getLength(); i++) {
-				Node node = nodes.item(i);
-				String pid = node.getFirstChild().getNodeValue();
-				String to = node.getNextSibling().getFirstChild().getNodeValue();
-				this.processingList.add(new CDKHarvestIterationItemImpl(pid, to));
+	private static List<CDKHarvestIterationItem> waitForPage(Future<List<CDKHarvestIterationItem>> future)
+			throws CDKHarvestIterationException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CDKHarvestIterationException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CDKHarvestIterationException) {
+				throw (CDKHarvestIterationException) cause;
 			}
+			throw new CDKHarvestIterationException(cause);
 		}
 	}
 
-	public Document solrResults(String urlStr) throws SAXException, IOException, ParserConfigurationException {
-		WebResource r = client(urlStr, this.userName, this.pswd);
-		DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-		InputStream is = null;
+	private List<CDKHarvestIterationItem> loadPage(String date) throws CDKHarvestIterationException {
 		try {
-			is = r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
-			return builder.parse(is);
-		} catch (Exception ex) {
-			LOGGER.log(Level.WARNING, "Retrying...", ex);
-			is = r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
-			return builder.parse(is);
+			final String urlStr = harvestUrl + URIUtil.encodeQuery(date);
+			LOGGER.log(Level.INFO, "urlStr: {0}", urlStr);
+			long start = System.nanoTime();
+			List<CDKHarvestIterationItem> page = getRetryExecutor().call("prepare page " + date,
+					new Callable<List<CDKHarvestIterationItem>>() {
+						@Override
+						public List<CDKHarvestIterationItem> call() throws Exception {
+							return parsePage(solrResponse(urlStr));
+						}
+					});
+			HarvestMetrics.getInstance().stop(HarvestMetrics.PAGE, start);
+			return page;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CDKHarvestIterationException(e);
+		} catch (Exception e) {
+			HarvestMetrics.getInstance().error(HarvestMetrics.PAGE, e);
+			throw new CDKHarvestIterationException(e);
+		}
+	}
+
+	private static List<CDKHarvestIterationItem> parsePage(InputStream is) throws XMLStreamException {
+		try {
+			List<CDKHarvestIterationItem> page = new ArrayList<>();
+			PrepareResponseParser parser = new PrepareResponseParser(is);
+			CDKHarvestIterationItem item;
+			while ((item = parser.next()) != null) {
+				page.add(item);
+			}
+			parser.close();
+			LOGGER.log(Level.INFO, "numDocs: {0}", parser.getNumFound());
+			return page;
 		} finally {
 			IOUtils.tryClose(is);
 		}
 	}
+
+	public InputStream solrResponse(String urlStr) throws IOException {
+		WebResource r = client(urlStr, this.userName, this.pswd);
+		return r.accept(MediaType.APPLICATION_XML).get(InputStream.class);
+	}
 }
@@ -5,9 +5,23 @@ import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,27 +35,85 @@ import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 
 import cz.incad.kramerius.utils.IOUtils;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+import cz.incad.kramerius.utils.pid.LexerException;
+import cz.incad.kramerius.utils.pid.PIDParser;
 
 /**
- * Iterator for one title
+ * Iterator for one title.
+ * <p>
+ * The subtree is crawled breadth-first by a bounded pool; at most <code>threads</code> children requests are in flight.
+ * Discovered items are handed to the consumer while the crawl continues, the context (path to the root)
+ * follows when the crawl is finished. The crawl is started by {@link #init()} or by the first {@link #hasNext()}.
+ * <p>
+ * The queue of discovered items is bounded; the crawl waits while the consumer is behind. The consumer which
+ * stops before the end of the iteration must {@link #cancel()} the crawl.
+ * <p>
+ * The crawl is model aware; children of the leaf models (pages by default) are never requested,
+ * page pids (github #16) are not queued at all because they are discarded by the replication.
  * @author pstastny
  */
 public class TitleCDKHarvestIterationImpl extends AbstractCDKHarvestIteration {
 
 	public static final Logger LOGGER = Logger.getLogger(TitleCDKHarvestIterationImpl.class.getName());
+
+	// end of the crawl marker
+	private static final CDKHarvestIterationItem END = new CDKHarvestIterationItemImpl(null, null);
+
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+
 	private String baseUrl;
 	private String topPid;
-	private List<CDKHarvestIterationItem> processingList;
-	
+	private final int threads;
+	private final Set<String> leafModels;
+
+	private final BlockingQueue<CDKHarvestIterationItem> processingQueue;
+	private volatile boolean cancelled = false;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private List<CDKHarvestIterationItem> contextItems;
+	private ExecutorService crawler;
+
+	// statistics
+	private final Map<String, AtomicInteger> modelCounts = new ConcurrentHashMap<>();
+	private final AtomicInteger childrenRequests = new AtomicInteger();
+	private final AtomicInteger skippedRequests = new AtomicInteger();
+	private final AtomicInteger prunedPages = new AtomicInteger();
+
+	private boolean started = false;
+	private boolean finished = false;
+	private CDKHarvestIterationItem nextItem;
+
 	public TitleCDKHarvestIterationImpl(String k4Url, String pid)
 			throws CDKHarvestIterationException {
+		this(k4Url, pid, KConfiguration.getInstance().getConfiguration().getInt("cdk.title.crawl.threads", 4),
+				leafModels(KConfiguration.getInstance().getConfiguration().getStringArray("cdk.title.leaf.models")),
+				KConfiguration.getInstance().getConfiguration().getInt("cdk.title.queue", DEFAULT_QUEUE_SIZE));
+	}
+
+	public TitleCDKHarvestIterationImpl(String k4Url, String pid, int threads, Collection<String> leafModels)
+			throws CDKHarvestIterationException {
+		this(k4Url, pid, threads, leafModels, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param queueSize Maximal number of discovered items waiting for the consumer
+	 */
+	public TitleCDKHarvestIterationImpl(String k4Url, String pid, int threads, Collection<String> leafModels,
+			int queueSize) throws CDKHarvestIterationException {
 		this.baseUrl = k4Url;
 		this.topPid = pid;
-		this.processingList = new LinkedList<>();
-		this.processingList.add(new CDKHarvestIterationItemImpl(pid, null));
+		this.threads = Math.max(threads, 1);
+		this.leafModels = new HashSet<>(leafModels);
+		this.processingQueue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+		this.processingQueue.add(new CDKHarvestIterationItemImpl(pid, null));
 	}
 
 
+	private static List<String> leafModels(String[] configured) {
+		return configured != null && configured.length > 0 ? Arrays.asList(configured) : Arrays.asList("page");
+	}
+
 	private String itemURL(String k4Url, String pid) {
 		return k4Url + "/api/v5.0/item/"+pid;
 	}
@@ -53,23 +125,10 @@ public class TitleCDKHarvestIterationImpl extends AbstractCDKHarvestIteration {
 	
 	@Override
 	public void init() throws CDKHarvestIterationException {
+		if (this.started) return;
 		try {
-			// deti
-			Stack<String> stack = new Stack<>();
-			stack.push(this.topPid);
-			while(!stack.isEmpty()) {
-				String p = stack.pop();
-				JSONArray childrenResults = childrenResults(childrenURL(this.baseUrl,p));
-				for (int i = 0,ll=childrenResults.length(); i < ll; i++) {
-					JSONObject jsonObject = childrenResults.getJSONObject(i);
-					String childP = jsonObject.getString("pid");
-					stack.push(childP);
-					LOGGER.info("adding child pid "+childP);
-					this.processingList.add(new CDKHarvestIterationItemImpl(childP, null));
-				}	
-			}
-			
 			// cesta nahoru
+			this.contextItems = new ArrayList<>();
 			JSONObject itemResult = itemResult(itemURL(this.baseUrl,this.topPid));
 			JSONArray jsonArray = itemResult.getJSONArray("context");
 			for (int i = 0,ll=jsonArray.length(); i < ll; i++) {
@@ -79,28 +138,197 @@ public class TitleCDKHarvestIterationImpl extends AbstractCDKHarvestIteration {
 					String pid = jsonObject.getString("pid");
 					if(!this.topPid.equals(pid)) {
 						LOGGER.info("adding ctx pid "+pid);
-						this.processingList.add(new CDKHarvestIterationItemImpl(pid, null));
+						this.contextItems.add(new CDKHarvestIterationItemImpl(pid, null));
 					}
 				}			
 			}
-			
 		} catch (IOException e) {
 			throw new CDKHarvestIterationException(e);
 		}
+
+		// deti
+		this.crawler = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cdk-title-crawl-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.started = true;
+		schedule(this.topPid);
+	}
+
+	private void schedule(final String pid) {
+		this.pending.incrementAndGet();
+		this.crawler.execute(new Runnable() {
+			@Override
+			public void run() {
+				crawl(pid);
+			}
+		});
+	}
+
+	private void crawl(String pid) {
+		try {
+			if (this.failure.get() != null) return;
+			JSONArray childrenResults = childrenResults(childrenURL(this.baseUrl,pid));
+			this.childrenRequests.incrementAndGet();
+			for (int i = 0,ll=childrenResults.length(); i < ll; i++) {
+				JSONObject jsonObject = childrenResults.getJSONObject(i);
+				String childP = jsonObject.getString("pid");
+				if (isPagePid(childP)) {
+					this.prunedPages.incrementAndGet();
+					continue;
+				}
+				String model = jsonObject.optString("model", null);
+				count(model);
+				LOGGER.fine("adding child pid "+childP);
+				if (!enqueue(new CDKHarvestIterationItemImpl(childP, null))) return;
+				if (model != null && this.leafModels.contains(model)) {
+					this.skippedRequests.incrementAndGet();
+				} else {
+					schedule(childP);
+				}
+			}
+		} catch (Throwable e) {
+			LOGGER.log(Level.SEVERE, "crawling children of " + pid + " failed", e);
+			this.failure.compareAndSet(null, e);
+		} finally {
+			if (this.pending.decrementAndGet() == 0) {
+				finish();
+			}
+		}
+	}
+
+	/**
+	 * Called by the last crawling thread; the consumer takes items until the end marker, so it is never lost
+	 */
+	private void finish() {
+		try {
+			boolean enqueued = true;
+			if (this.failure.get() == null) {
+				for (CDKHarvestIterationItem item : this.contextItems) {
+					enqueued = enqueued && enqueue(item);
+				}
+			}
+			if (enqueued) {
+				enqueue(END);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			this.crawler.shutdown();
+			LOGGER.log(Level.INFO, "title crawl statistics: {0}", this);
+		}
+	}
+
+	/**
+	 * Waits for the free place in the queue
+	 * @return false if the crawl has been cancelled
+	 */
+	private boolean enqueue(CDKHarvestIterationItem item) throws InterruptedException {
+		while (!this.processingQueue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+			if (this.cancelled) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the crawl; the consumer does not take more items
+	 */
+	public void cancel() {
+		this.cancelled = true;
+		if (this.crawler != null) {
+			this.crawler.shutdownNow();
+		}
+		this.processingQueue.clear();
+	}
+
+	private static boolean isPagePid(String pid) {
+		try {
+			return new PIDParser(pid).isPagePid();
+		} catch (LexerException e) {
+			LOGGER.log(Level.WARNING, e.getMessage(), e);
+			return false;
+		}
+	}
+
+	private void count(String model) {
+		String key = model != null ? model : "unknown";
+		AtomicInteger counter = this.modelCounts.get(key);
+		if (counter == null) {
+			AtomicInteger created = new AtomicInteger();
+			counter = this.modelCounts.putIfAbsent(key, created);
+			if (counter == null) counter = created;
+		}
+		counter.incrementAndGet();
+	}
+
+	/**
+	 * Returns number of queued children per model
+	 * @return
+	 */
+	public Map<String, Integer> getModelCounts() {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (Map.Entry<String, AtomicInteger> entry : this.modelCounts.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		return counts;
+	}
+
+	public int getChildrenRequests() {
+		return childrenRequests.get();
+	}
+
+	public int getSkippedRequests() {
+		return skippedRequests.get();
+	}
+
+	public int getPrunedPages() {
+		return prunedPages.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TitleCDKHarvestIterationImpl [topPid=" + topPid + ", models=" + getModelCounts() + ", childrenRequests="
+				+ childrenRequests + ", skippedRequests=" + skippedRequests + ", prunedPages=" + prunedPages + "]";
 	}
 
 	@Override
 	public boolean hasNext() throws CDKHarvestIterationException {
-		return !this.processingList.isEmpty();
+		if (this.nextItem != null) return true;
+		if (this.finished) return false;
+		CDKHarvestIterationItem item;
+		if (!this.started) {
+			init();
+		}
+		try {
+			item = this.processingQueue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CDKHarvestIterationException(e);
+		}
+		if (item == END) {
+			this.finished = true;
+			Throwable e = this.failure.get();
+			if (e != null) {
+				throw new CDKHarvestIterationException(e);
+			}
+			return false;
+		}
+		this.nextItem = item;
+		return true;
 	}
 
 	@Override
 	public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
-		while(!this.processingList.isEmpty()) {
-			CDKHarvestIterationItem removed = this.processingList.remove(0);
-			return removed;
-		}
-		return null;
+		if (!hasNext()) return null;
+		CDKHarvestIterationItem item = this.nextItem;
+		this.nextItem = null;
+		return item;
 	}
 
 	public JSONObject itemResult(String urlStr) throws IOException {
@@ -6,17 +6,24 @@ import javax.ws.rs.core.MediaType;
 
 import org.kramerius.replications.BasicAuthenticationClientFilter;
 
-import com.sun.jersey.api.client.Client;
+import com.google.inject.Inject;
 import com.sun.jersey.api.client.WebResource;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 import net.sf.json.JSONObject;
 
 public abstract class AbstractCheckLiveProcess implements CheckLiveProcess {
 
+	@Inject
+	protected HarvestClient harvestClient;
+
+	protected HarvestClient getHarvestClient() {
+		return this.harvestClient != null ? this.harvestClient : HarvestClient.getInstance();
+	}
+
 	protected String getStatus(String processUuid) throws IOException {
-        Client c = Client.create();
-        WebResource r = c.resource(KConfiguration.getInstance().getConfiguration().getString("_fedoraTomcatHost") + "/search/api/v4.6/processes/" + processUuid);
+        WebResource r = getHarvestClient().resource(KConfiguration.getInstance().getConfiguration().getString("_fedoraTomcatHost") + "/search/api/v4.6/processes/" + processUuid);
         r.addFilter(new BasicAuthenticationClientFilter(KConfiguration.getInstance().getConfiguration().getString("cdk.krameriusUser"),
         		KConfiguration.getInstance().getConfiguration().getString("cdk.krameriusPwd")));
         String t = r.accept(MediaType.APPLICATION_JSON).get(String.class);
@@ -0,0 +1,342 @@
+package cz.incad.cdk.cdkharvester.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.Configuration;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import cz.incad.cdk.cdkharvester.retry.ErrorClass;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Counters and latency histograms of the harvest stages. One instance is shared by all harvests running in the JVM;
+ * it is registered as <code>cz.incad.cdk:type=HarvestMetrics</code> mbean.
+ * <ul>
+ * <li>cdk.metrics.interval - interval of the log summary and json dump in milliseconds; 0 disables it</li>
+ * <li>cdk.metrics.file - json dump file; relative path is resolved against the working directory, empty disables it</li>
+ * </ul>
+ */
+public class HarvestMetrics implements HarvestMetricsMXBean {
+
+	public static final Logger LOGGER = Logger.getLogger(HarvestMetrics.class.getName());
+
+	public static final String OBJECT_NAME = "cz.incad.cdk:type=HarvestMetrics";
+
+	/** Request of one page of the harvested pids */
+	public static final String PAGE = "page";
+	/** Foxml request (until the response headers) */
+	public static final String FOXML = "foxml";
+	/** Reading and parsing of the foxml body */
+	public static final String FOXML_READ = "foxml.read";
+	/** Prefix of the processing chain units */
+	public static final String CHAIN = "chain.";
+	/** Fedora ingest */
+	public static final String INGEST = "ingest";
+	/** Index lookup of the replicated document */
+	public static final String FIND_DOC = "findDoc";
+	/** Solrxml request */
+	public static final String SOLRXML = "solrxml";
+	/** Xslt transformation of the solrxml */
+	public static final String TRANSFORM = "transform";
+	/** Post of the new document */
+	public static final String POST = "post";
+	/** Atomic update of the collection field */
+	public static final String UPDATE = "update";
+	/** Solr commit */
+	public static final String COMMIT = "commit";
+
+	private static HarvestMetrics instance;
+
+	private final ConcurrentHashMap<String, Stage> stages = new ConcurrentHashMap<>();
+	private final Map<ErrorClass, AtomicLong> errors = new EnumMap<>(ErrorClass.class);
+	private final AtomicLong replicated = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private File dumpFile;
+	private ScheduledExecutorService reporter;
+
+	public HarvestMetrics() {
+		super();
+		for (ErrorClass cls : ErrorClass.values()) {
+			this.errors.put(cls, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Returns shared instance; the first call registers the mbean and starts the periodic reporting
+	 */
+	public static synchronized HarvestMetrics getInstance() {
+		if (instance == null) {
+			Configuration conf = KConfiguration.getInstance().getConfiguration();
+			HarvestMetrics metrics = new HarvestMetrics();
+			String file = conf.getString("cdk.metrics.file", "cdk_metrics.json");
+			if (file != null && !file.trim().isEmpty()) {
+				File f = new File(file);
+				metrics.dumpFile = f.isAbsolute() ? f : new File(System.getProperty("user.dir"), file);
+			}
+			metrics.startReporting(conf.getLong("cdk.metrics.interval", 60000));
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (!server.isRegistered(name)) {
+					server.registerMBean(metrics, name);
+				}
+			} catch (Exception e) {
+				LOGGER.log(Level.WARNING, "cannot register metrics mbean", e);
+			}
+			instance = metrics;
+		}
+		return instance;
+	}
+
+	private void startReporting(long intervalMillis) {
+		if (intervalMillis <= 0) return;
+		this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "cdk-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.reporter.scheduleWithFixedDelay(() -> {
+			if (this.replicated.get() + this.failed.get() == 0 && this.stages.isEmpty()) return;
+			LOGGER.log(Level.INFO, "harvest metrics: {0}", getSummary());
+			try {
+				dump();
+			} catch (IOException | RuntimeException e) {
+				LOGGER.log(Level.WARNING, "cannot write metrics", e);
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private Stage stage(String name) {
+		Stage stage = this.stages.get(name);
+		if (stage == null) {
+			stage = new Stage();
+			Stage prev = this.stages.putIfAbsent(name, stage);
+			if (prev != null) {
+				stage = prev;
+			}
+		}
+		return stage;
+	}
+
+	/**
+	 * Records duration of the stage
+	 * @param stage Stage name
+	 * @param nanos Duration in nanoseconds
+	 */
+	public void record(String stage, long nanos) {
+		stage(stage).histogram.record(nanos);
+	}
+
+	/**
+	 * Records duration from the given start (System.nanoTime())
+	 */
+	public void stop(String stage, long startNanos) {
+		record(stage, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Counts the error of the stage
+	 */
+	public void error(String stage, Throwable e) {
+		stage(stage).errors.incrementAndGet();
+		this.errors.get(ErrorClass.classify(e)).incrementAndGet();
+	}
+
+	/**
+	 * Counts transferred bytes of the stage
+	 */
+	public void bytes(String stage, long bytes) {
+		stage(stage).bytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Wraps the stream; the read bytes are counted to the stage
+	 */
+	public InputStream counting(final String stage, InputStream is) {
+		if (is == null) return null;
+		final Stage s = stage(stage);
+		return new FilterInputStream(is) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) s.bytes.incrementAndGet();
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) s.bytes.addAndGet(read);
+				return read;
+			}
+		};
+	}
+
+	public void replicated() {
+		this.replicated.incrementAndGet();
+	}
+
+	public void failed(Throwable e) {
+		this.failed.incrementAndGet();
+		this.errors.get(ErrorClass.classify(e)).incrementAndGet();
+	}
+
+	@Override
+	public long getReplicated() {
+		return replicated.get();
+	}
+
+	@Override
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Returns statistics of the given stage or null
+	 */
+	public StageStatistics getStage(String name) {
+		Stage stage = this.stages.get(name);
+		return stage != null ? stage.snapshot(name) : null;
+	}
+
+	@Override
+	public List<StageStatistics> getStages() {
+		List<String> names = new ArrayList<>(this.stages.keySet());
+		Collections.sort(names);
+		List<StageStatistics> list = new ArrayList<>();
+		for (String name : names) {
+			list.add(this.stages.get(name).snapshot(name));
+		}
+		return list;
+	}
+
+	@Override
+	public Map<String, Long> getErrors() {
+		Map<String, Long> map = new LinkedHashMap<>();
+		for (Map.Entry<ErrorClass, AtomicLong> entry : this.errors.entrySet()) {
+			map.put(entry.getKey().name(), entry.getValue().get());
+		}
+		return map;
+	}
+
+	@Override
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("all harvests in the JVM: replicated=").append(getReplicated()).append(", failed=").append(getFailed());
+		for (StageStatistics stage : getStages()) {
+			builder.append(String.format(", %s=%d/%.1fms/p99 %.1fms", stage.getName(), stage.getCount(),
+					stage.getMeanMillis(), stage.getP99Millis()));
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String getJSON() {
+		JSONObject json = new JSONObject();
+		// shared by all harvests of the JVM
+		json.put("scope", "jvm");
+		json.put("replicated", getReplicated());
+		json.put("failed", getFailed());
+		json.put("errors", new JSONObject(getErrors()));
+		JSONArray array = new JSONArray();
+		for (StageStatistics stage : getStages()) {
+			JSONObject object = new JSONObject();
+			object.put("name", stage.getName());
+			object.put("count", stage.getCount());
+			object.put("errors", stage.getErrors());
+			object.put("bytes", stage.getBytes());
+			object.put("totalMillis", stage.getTotalMillis());
+			object.put("meanMillis", stage.getMeanMillis());
+			object.put("p50Millis", stage.getP50Millis());
+			object.put("p90Millis", stage.getP90Millis());
+			object.put("p99Millis", stage.getP99Millis());
+			object.put("maxMillis", stage.getMaxMillis());
+			array.put(object);
+		}
+		json.put("stages", array);
+		return json.toString(2);
+	}
+
+	@Override
+	public synchronized void dump() throws IOException {
+		if (this.dumpFile == null) return;
+		File dir = this.dumpFile.getAbsoluteFile().getParentFile();
+		// unique temporary file; harvests of other processes may dump into the same file
+		File tmp = File.createTempFile("." + this.dumpFile.getName() + "-", ".tmp", dir);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+			try {
+				writer.write(getJSON());
+			} finally {
+				writer.close();
+			}
+			Files.move(tmp.toPath(), this.dumpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	@Override
+	public void reset() {
+		this.stages.clear();
+		for (AtomicLong counter : this.errors.values()) {
+			counter.set(0);
+		}
+		this.replicated.set(0);
+		this.failed.set(0);
+	}
+
+	public synchronized File getDumpFile() {
+		return dumpFile;
+	}
+
+	public synchronized void setDumpFile(File dumpFile) {
+		this.dumpFile = dumpFile;
+	}
+
+	private static class Stage {
+
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong bytes = new AtomicLong();
+
+		private StageStatistics snapshot(String name) {
+			return new StageStatistics(name, histogram.getCount(), errors.get(), bytes.get(),
+					millis(histogram.getTotalNanos()), millis(histogram.getMeanNanos()),
+					millis(histogram.getPercentileNanos(50)), millis(histogram.getPercentileNanos(90)),
+					millis(histogram.getPercentileNanos(99)), millis(histogram.getMaxNanos()));
+		}
+
+		private static double millis(long nanos) {
+			return nanos / 1000000.0;
+		}
+	}
+}
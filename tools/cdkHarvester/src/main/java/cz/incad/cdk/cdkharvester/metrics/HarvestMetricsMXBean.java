@@ -0,0 +1,35 @@
+package cz.incad.cdk.cdkharvester.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Jmx view of the harvest metrics
+ */
+public interface HarvestMetricsMXBean {
+
+	/** Number of replicated items */
+	public long getReplicated();
+
+	/** Number of items which cannot be replicated */
+	public long getFailed();
+
+	/** Statistics of the stages */
+	public List<StageStatistics> getStages();
+
+	/** Errors by error class */
+	public Map<String, Long> getErrors();
+
+	/** One line summary of all harvests running in the JVM */
+	public String getSummary();
+
+	/** All metrics as json */
+	public String getJSON();
+
+	/** Writes json into the configured file */
+	public void dump() throws IOException;
+
+	/** Clears all metrics */
+	public void reset();
+}
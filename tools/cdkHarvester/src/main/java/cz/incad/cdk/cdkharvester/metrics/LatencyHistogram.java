@@ -0,0 +1,80 @@
+package cz.incad.cdk.cdkharvester.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with power of two buckets in microseconds. Percentiles are upper bounds of the buckets
+ * (at most twice the real value).
+ */
+public class LatencyHistogram {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one measurement
+	 * @param nanos Duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		long micros = nanos / 1000;
+		int index = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+		this.buckets.incrementAndGet(index);
+		this.count.incrementAndGet();
+		this.total.addAndGet(nanos);
+		long current;
+		while (nanos > (current = this.max.get())) {
+			if (this.max.compareAndSet(current, nanos)) break;
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotalNanos() {
+		return total.get();
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	public long getMeanNanos() {
+		long c = this.count.get();
+		return c > 0 ? this.total.get() / c : 0;
+	}
+
+	/**
+	 * Returns upper bound of the given percentile
+	 * @param percentile Percentile (0 - 100)
+	 * @return duration in nanoseconds
+	 */
+	public long getPercentileNanos(double percentile) {
+		long c = this.count.get();
+		if (c == 0) return 0;
+		long rank = (long) Math.ceil(c * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.buckets.get(i);
+			if (seen >= rank) {
+				return Math.min((1L << i) * 1000, getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.set(0);
+		this.total.set(0);
+		this.max.set(0);
+	}
+}
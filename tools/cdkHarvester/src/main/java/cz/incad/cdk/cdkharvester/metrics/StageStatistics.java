@@ -0,0 +1,83 @@
+package cz.incad.cdk.cdkharvester.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the statistics of one harvest stage; exposed through jmx as composite data
+ */
+public class StageStatistics {
+
+	private final String name;
+	private final long count;
+	private final long errors;
+	private final long bytes;
+	private final double totalMillis;
+	private final double meanMillis;
+	private final double p50Millis;
+	private final double p90Millis;
+	private final double p99Millis;
+	private final double maxMillis;
+
+	@ConstructorProperties({ "name", "count", "errors", "bytes", "totalMillis", "meanMillis", "p50Millis", "p90Millis",
+			"p99Millis", "maxMillis" })
+	public StageStatistics(String name, long count, long errors, long bytes, double totalMillis, double meanMillis,
+			double p50Millis, double p90Millis, double p99Millis, double maxMillis) {
+		super();
+		this.name = name;
+		this.count = count;
+		this.errors = errors;
+		this.bytes = bytes;
+		this.totalMillis = totalMillis;
+		this.meanMillis = meanMillis;
+		this.p50Millis = p50Millis;
+		this.p90Millis = p90Millis;
+		this.p99Millis = p99Millis;
+		this.maxMillis = maxMillis;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public double getTotalMillis() {
+		return totalMillis;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP90Millis() {
+		return p90Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s [count=%d, errors=%d, bytes=%d, total=%.1fms, mean=%.2fms, p50=%.2fms, p90=%.2fms, p99=%.2fms, max=%.2fms]",
+				name, count, errors, bytes, totalMillis, meanMillis, p50Millis, p90Millis, p99Millis, maxMillis);
+	}
+}
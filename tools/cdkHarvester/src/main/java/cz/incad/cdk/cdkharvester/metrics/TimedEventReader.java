@@ -0,0 +1,84 @@
+package cz.incad.cdk.cdkharvester.metrics;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+
+/**
+ * Measures time spent in the wrapped reader. In the chain of streaming readers the time of one unit
+ * is the time of its reader minus the time of the reader it consumes.
+ */
+public class TimedEventReader extends EventReaderDelegate {
+
+	private long nanos = 0;
+
+	public TimedEventReader(XMLEventReader reader) {
+		super(reader);
+	}
+
+	@Override
+	public XMLEvent nextEvent() throws XMLStreamException {
+		long start = System.nanoTime();
+		try {
+			return super.nextEvent();
+		} finally {
+			this.nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public Object next() {
+		long start = System.nanoTime();
+		try {
+			return super.next();
+		} finally {
+			this.nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		long start = System.nanoTime();
+		try {
+			return super.hasNext();
+		} finally {
+			this.nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public XMLEvent peek() throws XMLStreamException {
+		long start = System.nanoTime();
+		try {
+			return super.peek();
+		} finally {
+			this.nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		long start = System.nanoTime();
+		try {
+			return super.getElementText();
+		} finally {
+			this.nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public XMLEvent nextTag() throws XMLStreamException {
+		long start = System.nanoTime();
+		try {
+			return super.nextTag();
+		} finally {
+			this.nanos += System.nanoTime() - start;
+		}
+	}
+
+	/** Time spent in the reader (including the readers it consumes) */
+	public long getNanos() {
+		return nanos;
+	}
+}
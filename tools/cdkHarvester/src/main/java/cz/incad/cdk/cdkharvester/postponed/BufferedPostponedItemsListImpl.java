@@ -0,0 +1,202 @@
+package cz.incad.cdk.cdkharvester.postponed;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItemImpl;
+
+/**
+ * Postponed items list which keeps one channel open. Pids are appended into the buffer
+ * and written by one write call when the buffer is full, when the flush interval elapses or when
+ * the list is flushed (group commit). The file format is the same as {@link PostponedItemsListImpl} uses;
+ * one pid per line.
+ */
+public class BufferedPostponedItemsListImpl implements PostponedItemsList, Closeable {
+
+	public static final Logger LOGGER = Logger.getLogger(BufferedPostponedItemsListImpl.class.getName());
+
+	private final File postponeFile;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final ScheduledExecutorService flusher;
+	private final AtomicInteger counter = new AtomicInteger();
+
+	private int flushes = 0;
+
+	public BufferedPostponedItemsListImpl() throws IOException {
+		this(new File(System.getProperty("user.dir") + File.separator + PostponedItemsListImpl.DEFAULT_POSPONED_FILE
+				+ UUID.randomUUID().toString() + ".txt"), 64 * 1024, 1000);
+	}
+
+	/**
+	 * @param f Postpone file; new items are appended
+	 * @param bufferSize Size of the buffer
+	 * @param flushMillis Flush interval; 0 means the buffer is flushed only when it is full or explicitly
+	 * @throws IOException
+	 */
+	public BufferedPostponedItemsListImpl(File f, int bufferSize, long flushMillis) throws IOException {
+		this.postponeFile = f;
+		this.channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		if (flushMillis > 0) {
+			this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "cdk-postponed-flush");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.flusher.scheduleWithFixedDelay(() -> {
+				try {
+					flush();
+				} catch (IOException e) {
+					LOGGER.log(Level.SEVERE, "cannot flush postponed items", e);
+				}
+			}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+		} else {
+			this.flusher = null;
+		}
+	}
+
+	@Override
+	public File getPostponeFile() {
+		return postponeFile;
+	}
+
+	@Override
+	public int getCount() {
+		return this.counter.get();
+	}
+
+	@Override
+	public void postpone(String pid) throws IOException {
+		byte[] bytes = (pid + "\n").getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			if (bytes.length > this.buffer.remaining()) {
+				writeBuffer();
+			}
+			if (bytes.length > this.buffer.capacity()) {
+				this.channel.write(ByteBuffer.wrap(bytes));
+			} else {
+				this.buffer.put(bytes);
+			}
+		}
+		this.counter.incrementAndGet();
+	}
+
+	/**
+	 * Writes buffered pids to the file
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		writeBuffer();
+	}
+
+	private void writeBuffer() throws IOException {
+		if (this.buffer.position() == 0) return;
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+		this.flushes += 1;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.flusher != null) {
+			this.flusher.shutdownNow();
+		}
+		synchronized (this) {
+			writeBuffer();
+			this.channel.force(false);
+			this.channel.close();
+		}
+		LOGGER.log(Level.FINE, "{0} pids postponed in {1} writes", new Object[] { getCount(), this.flushes });
+	}
+
+	/**
+	 * Returns iteration over the postponed pids; buffered pids are flushed first.
+	 * The iteration can be passed to the harvest process.
+	 * @return
+	 * @throws IOException
+	 */
+	public CDKHarvestIteration replay() throws IOException {
+		if (this.channel.isOpen()) {
+			flush();
+		}
+		return replay(this.postponeFile);
+	}
+
+	/**
+	 * Returns iteration over the pids of the given postpone file
+	 * @param f Postpone file
+	 * @return
+	 */
+	public static CDKHarvestIteration replay(final File f) {
+		return new CDKHarvestIteration() {
+
+			private BufferedReader reader;
+			private String line;
+			private boolean eof = false;
+
+			@Override
+			public void init() throws CDKHarvestIterationException {
+				try {
+					this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+				} catch (IOException e) {
+					throw new CDKHarvestIterationException(e);
+				}
+			}
+
+			@Override
+			public boolean hasNext() throws CDKHarvestIterationException {
+				if (this.eof) return false;
+				if (this.reader == null) {
+					init();
+				}
+				try {
+					while (this.line == null) {
+						String read = this.reader.readLine();
+						if (read == null) {
+							this.eof = true;
+							this.reader.close();
+							return false;
+						}
+						if (!read.trim().isEmpty()) {
+							this.line = read.trim();
+						}
+					}
+					return true;
+				} catch (IOException e) {
+					throw new CDKHarvestIterationException(e);
+				}
+			}
+
+			@Override
+			public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
+				if (!hasNext()) return null;
+				CDKHarvestIterationItem item = new CDKHarvestIterationItemImpl(this.line, null);
+				this.line = null;
+				return item;
+			}
+		};
+	}
+}
@@ -0,0 +1,55 @@
+package cz.incad.cdk.cdkharvester.queue;
+
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+
+/**
+ * Item of the work queue
+ */
+public class WorkItem implements CDKHarvestIterationItem {
+
+	/**
+	 * Item state; the ordinal is stored in the log
+	 */
+	public static enum State {
+		PENDING, IN_FLIGHT, DONE, FAILED;
+	}
+
+	private final long id;
+	private final String pid;
+	private final String timestamp;
+	private volatile State state = State.PENDING;
+
+	public WorkItem(long id, String pid, String timestamp) {
+		super();
+		this.id = id;
+		this.pid = pid;
+		this.timestamp = timestamp;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	@Override
+	public String getPid() {
+		return pid;
+	}
+
+	@Override
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	void setState(State state) {
+		this.state = state;
+	}
+
+	@Override
+	public String toString() {
+		return "WorkItem [id=" + id + ", pid=" + pid + ", timestamp=" + timestamp + ", state=" + state + "]";
+	}
+}
@@ -0,0 +1,449 @@
+package cz.incad.cdk.cdkharvester.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.incad.cdk.cdkharvester.queue.WorkItem.State;
+
+/**
+ * Persistent work queue. The queue is an append-only log of memory mapped segment files
+ * (<code>segment_&lt;n&gt;.log</code>) in one directory; every added item and every state change is one record.
+ * The state of the queue is restored by replaying the segments, items that were in flight are pending again.
+ * <p>
+ * Record layout: type byte, payload. The type byte is written after the payload, so a record interrupted
+ * by a crash is never read (zero type marks the end of the segment).
+ * <ul>
+ * <li>ADD: item id (long), pid, timestamp (short length + UTF-8 bytes, length -1 for null)</li>
+ * <li>STATE: item id (long), state ordinal (byte)</li>
+ * <li>END: no payload; the source of the items is exhausted</li>
+ * </ul>
+ * Segments which contain only done items are removed by the compaction; the states of the live items
+ * recorded in them are written again before.
+ * <p>
+ * The class is thread safe.
+ */
+public class WorkQueue {
+
+	public static final Logger LOGGER = Logger.getLogger(WorkQueue.class.getName());
+
+	static final String SEGMENT_PREFIX = "segment_";
+	static final String SEGMENT_SUFFIX = ".log";
+
+	private static final byte ADD = 1;
+	private static final byte STATE = 2;
+	private static final byte END = 3;
+
+	private final File directory;
+	private final int segmentSize;
+
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	private Segment current;
+	private boolean rolled = false;
+
+	private final Map<Long, Entry> entries = new LinkedHashMap<>();
+	private final Map<String, Entry> keys = new HashMap<>();
+	private final ArrayDeque<WorkItem> pending = new ArrayDeque<>();
+	private long nextId = 0;
+	private boolean finished = false;
+	private int endSegment = -1;
+
+	public WorkQueue(File directory, int segmentSize) throws IOException {
+		super();
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		if (!directory.exists() && !directory.mkdirs()) {
+			throw new IOException("cannot create directory " + directory);
+		}
+		File[] files = directory.listFiles();
+		List<Integer> indexes = new ArrayList<>();
+		if (files != null) {
+			for (File f : files) {
+				String name = f.getName();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					indexes.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+				}
+			}
+		}
+		Integer[] sorted = indexes.toArray(new Integer[indexes.size()]);
+		Arrays.sort(sorted);
+		for (Integer index : sorted) {
+			Segment segment = new Segment(index, segmentFile(index), segmentSize);
+			this.segments.put(index, segment);
+			replay(segment);
+			this.current = segment;
+		}
+		if (this.current == null) {
+			this.current = newSegment(0);
+		}
+		for (Entry entry : this.entries.values()) {
+			State state = entry.item.getState();
+			if (state == State.IN_FLIGHT) {
+				entry.item.setState(State.PENDING);
+			}
+			if (entry.item.getState() == State.PENDING) {
+				this.pending.add(entry.item);
+			}
+		}
+		if (!this.entries.isEmpty()) {
+			LOGGER.log(Level.INFO, "work queue {0} restored: {1}", new Object[] { directory, this });
+		}
+	}
+
+	private File segmentFile(int index) {
+		return new File(this.directory, SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+	}
+
+	private Segment newSegment(int index) throws IOException {
+		Segment segment = new Segment(index, segmentFile(index), this.segmentSize);
+		this.segments.put(index, segment);
+		return segment;
+	}
+
+	private void replay(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		int position = 0;
+		while (position < buffer.capacity()) {
+			byte type = buffer.get(position);
+			if (type == 0) break;
+			buffer.position(position + 1);
+			if (type == ADD) {
+				long id = buffer.getLong();
+				String pid = readString(buffer);
+				String timestamp = readString(buffer);
+				Entry entry = new Entry(new WorkItem(id, pid, timestamp), segment.index);
+				this.entries.put(id, entry);
+				this.keys.put(key(pid, timestamp), entry);
+				this.nextId = Math.max(this.nextId, id + 1);
+			} else if (type == STATE) {
+				long id = buffer.getLong();
+				State state = State.values()[buffer.get()];
+				Entry entry = this.entries.get(id);
+				// items of the removed segments are ignored
+				if (entry != null) {
+					entry.item.setState(state);
+					entry.stateSegment = segment.index;
+				}
+			} else if (type == END) {
+				this.finished = true;
+				this.endSegment = segment.index;
+			} else {
+				LOGGER.log(Level.WARNING, "unknown record type {0} in {1}", new Object[] { type, segment.file });
+				break;
+			}
+			position = buffer.position();
+		}
+		segment.position = position;
+	}
+
+	/**
+	 * Adds new pending item
+	 * @param pid Pid
+	 * @param timestamp Timestamp, may be null
+	 * @return added item
+	 * @throws IOException
+	 */
+	public synchronized WorkItem add(String pid, String timestamp) throws IOException {
+		long id = this.nextId++;
+		byte[] pidBytes = bytes(pid);
+		byte[] timestampBytes = bytes(timestamp);
+		Segment segment = append(8 + 2 + length(pidBytes) + 2 + length(timestampBytes));
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.putLong(id);
+		writeString(buffer, pidBytes);
+		writeString(buffer, timestampBytes);
+		commit(segment, ADD);
+		WorkItem item = new WorkItem(id, pid, timestamp);
+		Entry entry = new Entry(item, segment.index);
+		this.entries.put(id, entry);
+		this.keys.put(key(pid, timestamp), entry);
+		this.pending.add(item);
+		return item;
+	}
+
+	/**
+	 * Returns true if the queue already contains the item
+	 */
+	public synchronized boolean contains(String pid, String timestamp) {
+		return this.keys.containsKey(key(pid, timestamp));
+	}
+
+	/**
+	 * Takes the next pending item and marks it in flight
+	 * @return pending item or null
+	 * @throws IOException
+	 */
+	public synchronized WorkItem poll() throws IOException {
+		WorkItem item = this.pending.poll();
+		if (item != null) {
+			state(item, State.IN_FLIGHT);
+		}
+		return item;
+	}
+
+	public synchronized void done(WorkItem item) throws IOException {
+		state(item, State.DONE);
+		if (this.rolled) {
+			this.rolled = false;
+			compact();
+		}
+	}
+
+	public synchronized void failed(WorkItem item) throws IOException {
+		state(item, State.FAILED);
+	}
+
+	/**
+	 * Moves failed items back to the pending ones
+	 * @return number of moved items
+	 * @throws IOException
+	 */
+	public synchronized int requeueFailed() throws IOException {
+		int count = 0;
+		for (Entry entry : this.entries.values()) {
+			if (entry.item.getState() == State.FAILED) {
+				state(entry.item, State.PENDING);
+				this.pending.add(entry.item);
+				count += 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Records that the source of the items is exhausted
+	 * @throws IOException
+	 */
+	public synchronized void finish() throws IOException {
+		if (!this.finished) {
+			writeEnd();
+			this.finished = true;
+		}
+	}
+
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	public synchronized int getCount(State state) {
+		int count = 0;
+		for (Entry entry : this.entries.values()) {
+			if (entry.item.getState() == state) count += 1;
+		}
+		return count;
+	}
+
+	public synchronized List<WorkItem> getItems(State state) {
+		List<WorkItem> items = new ArrayList<>();
+		for (Entry entry : this.entries.values()) {
+			if (entry.item.getState() == state) items.add(entry.item);
+		}
+		return items;
+	}
+
+	public synchronized int getSegmentCount() {
+		return this.segments.size();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Removes segments which contain only done items
+	 * @return number of removed segments
+	 * @throws IOException
+	 */
+	public synchronized int compact() throws IOException {
+		Set<Integer> removable = new HashSet<>(this.segments.keySet());
+		removable.remove(this.current.index);
+		for (Entry entry : this.entries.values()) {
+			if (entry.item.getState() != State.DONE) {
+				removable.remove(entry.addSegment);
+			}
+		}
+		if (removable.isEmpty()) return 0;
+
+		// states of the live items must survive
+		for (Entry entry : new ArrayList<>(this.entries.values())) {
+			if (!removable.contains(entry.addSegment) && removable.contains(entry.stateSegment)) {
+				state(entry.item, entry.item.getState());
+			}
+		}
+		if (this.finished && removable.contains(this.endSegment)) {
+			writeEnd();
+		}
+		for (Iterator<Entry> it = this.entries.values().iterator(); it.hasNext();) {
+			Entry entry = it.next();
+			if (removable.contains(entry.addSegment)) {
+				it.remove();
+				this.keys.remove(key(entry.item.getPid(), entry.item.getTimestamp()));
+			}
+		}
+		for (Integer index : removable) {
+			Segment segment = this.segments.remove(index);
+			segment.close();
+			if (!segment.file.delete()) {
+				LOGGER.log(Level.WARNING, "cannot delete segment {0}", segment.file);
+			}
+		}
+		LOGGER.log(Level.FINE, "compacted {0} segments", removable.size());
+		return removable.size();
+	}
+
+	/**
+	 * Forces segments to the storage and closes them
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		for (Segment segment : this.segments.values()) {
+			segment.buffer.force();
+			segment.close();
+		}
+	}
+
+	/**
+	 * Closes the queue and removes its files
+	 * @throws IOException
+	 */
+	public synchronized void delete() throws IOException {
+		for (Segment segment : this.segments.values()) {
+			segment.close();
+			segment.file.delete();
+		}
+		this.segments.clear();
+		if (!this.directory.delete()) {
+			LOGGER.log(Level.WARNING, "cannot delete directory {0}", this.directory);
+		}
+	}
+
+	private void state(WorkItem item, State state) throws IOException {
+		Entry entry = this.entries.get(item.getId());
+		if (entry == null) {
+			throw new IOException("unknown item " + item);
+		}
+		Segment segment = append(8 + 1);
+		segment.buffer.putLong(item.getId());
+		segment.buffer.put((byte) state.ordinal());
+		commit(segment, STATE);
+		item.setState(state);
+		entry.stateSegment = segment.index;
+	}
+
+	private void writeEnd() throws IOException {
+		Segment segment = append(0);
+		commit(segment, END);
+		this.endSegment = segment.index;
+	}
+
+	// positions current segment behind the type byte of a new record
+	private Segment append(int payload) throws IOException {
+		int length = 1 + payload;
+		if (length > this.segmentSize) {
+			throw new IOException("record is too large (" + length + " bytes)");
+		}
+		if (this.current.position + length > this.current.buffer.capacity()) {
+			this.current = newSegment(this.current.index + 1);
+			this.rolled = true;
+		}
+		this.current.buffer.position(this.current.position + 1);
+		return this.current;
+	}
+
+	private void commit(Segment segment, byte type) {
+		int end = segment.buffer.position();
+		segment.buffer.put(segment.position, type);
+		segment.position = end;
+	}
+
+	private static String key(String pid, String timestamp) {
+		return timestamp != null ? pid + " " + timestamp : pid;
+	}
+
+	private static byte[] bytes(String str) {
+		return str != null ? str.getBytes(StandardCharsets.UTF_8) : null;
+	}
+
+	private static int length(byte[] bytes) {
+		return bytes != null ? bytes.length : 0;
+	}
+
+	private static void writeString(MappedByteBuffer buffer, byte[] bytes) {
+		if (bytes == null) {
+			buffer.putShort((short) -1);
+		} else {
+			buffer.putShort((short) bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		short length = buffer.getShort();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "WorkQueue [segments=" + segments.size() + ", items=" + entries.size() + ", pending=" + pending.size()
+				+ ", done=" + getCount(State.DONE) + ", failed=" + getCount(State.FAILED) + ", finished=" + finished
+				+ "]";
+	}
+
+	private static class Entry {
+
+		private final WorkItem item;
+		private final int addSegment;
+		private int stateSegment = -1;
+
+		public Entry(WorkItem item, int addSegment) {
+			super();
+			this.item = item;
+			this.addSegment = addSegment;
+		}
+	}
+
+	private static class Segment {
+
+		private final int index;
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int position = 0;
+
+		public Segment(int index, File file, int size) throws IOException {
+			super();
+			this.index = index;
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(this.channel.size(), size));
+		}
+
+		public void close() throws IOException {
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package cz.incad.cdk.cdkharvester.queue;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+
+/**
+ * Iteration over the work queue. Pending items of the previous run are returned first, then the items
+ * of the source iteration are appended to the queue and returned. Items which are already in the queue
+ * (e.g. done before the restart) are skipped.
+ * When the previous run has exhausted the source, the source is not initialized at all.
+ * <p>
+ * Returned items are {@link WorkItem}s; the consumer marks them by {@link #done(CDKHarvestIterationItem)}
+ * or {@link #failed(CDKHarvestIterationItem)}.
+ */
+public class WorkQueueIteration implements CDKHarvestIteration {
+
+	public static final Logger LOGGER = Logger.getLogger(WorkQueueIteration.class.getName());
+
+	private final WorkQueue queue;
+	private final CDKHarvestIteration source;
+	private WorkItem nextItem;
+	private int skipped = 0;
+
+	public WorkQueueIteration(WorkQueue queue, CDKHarvestIteration source) {
+		super();
+		this.queue = queue;
+		this.source = source;
+	}
+
+	@Override
+	public void init() throws CDKHarvestIterationException {
+		try {
+			int failed = this.queue.requeueFailed();
+			LOGGER.log(Level.INFO, "resuming {0} pending items ({1} failed before)",
+					new Object[] { this.queue.getPendingCount(), failed });
+			if (!this.queue.isFinished()) {
+				this.source.init();
+			}
+		} catch (IOException e) {
+			throw new CDKHarvestIterationException(e);
+		}
+	}
+
+	@Override
+	public boolean hasNext() throws CDKHarvestIterationException {
+		if (this.nextItem != null) return true;
+		try {
+			this.nextItem = this.queue.poll();
+			while (this.nextItem == null && !this.queue.isFinished()) {
+				if (this.source.hasNext()) {
+					CDKHarvestIterationItem item = this.source.next();
+					if (this.queue.contains(item.getPid(), item.getTimestamp())) {
+						this.skipped += 1;
+					} else {
+						this.queue.add(item.getPid(), item.getTimestamp());
+					}
+					this.nextItem = this.queue.poll();
+				} else {
+					this.queue.finish();
+					LOGGER.log(Level.INFO, "source exhausted, {0} items skipped", this.skipped);
+				}
+			}
+		} catch (IOException e) {
+			throw new CDKHarvestIterationException(e);
+		}
+		return this.nextItem != null;
+	}
+
+	@Override
+	public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
+		if (!hasNext()) return null;
+		WorkItem item = this.nextItem;
+		this.nextItem = null;
+		return item;
+	}
+
+	public void done(CDKHarvestIterationItem item) throws IOException {
+		this.queue.done((WorkItem) item);
+	}
+
+	public void failed(CDKHarvestIterationItem item) throws IOException {
+		this.queue.failed((WorkItem) item);
+	}
+
+	public WorkQueue getQueue() {
+		return queue;
+	}
+}
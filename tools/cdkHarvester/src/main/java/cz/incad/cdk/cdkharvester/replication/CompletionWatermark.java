@@ -0,0 +1,62 @@
+package cz.incad.cdk.cdkharvester.replication;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks out-of-order completion of sequentially registered items and
+ * reports the highest item up to which everything has been completed.
+ * @param <T> Type of the tracked value (typically harvest item)
+ */
+public class CompletionWatermark<T> {
+
+	private long nextSequence = 0;
+	private long watermark = -1;
+	private final Map<Long, T> completed = new TreeMap<>();
+
+	/**
+	 * Registers new item and returns its sequence number
+	 * @return sequence number
+	 */
+	public synchronized long register() {
+		return this.nextSequence++;
+	}
+
+	/**
+	 * Marks item as completed
+	 * @param sequence Sequence number of the item
+	 * @param value Value associated with the item; null values never become the watermark
+	 * @return latest non null value which has been newly covered by the watermark or null if the watermark didn't move
+	 */
+	public synchronized T complete(long sequence, T value) {
+		if (sequence <= this.watermark || sequence >= this.nextSequence) {
+			throw new IllegalArgumentException("unexpected sequence number " + sequence);
+		}
+		this.completed.put(sequence, value);
+		T moved = null;
+		while (this.completed.containsKey(this.watermark + 1)) {
+			this.watermark += 1;
+			T val = this.completed.remove(this.watermark);
+			if (val != null) {
+				moved = val;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Returns sequence number of the highest contiguous completed item
+	 * @return sequence number or -1 if nothing has been completed
+	 */
+	public synchronized long getWatermark() {
+		return watermark;
+	}
+
+	/**
+	 * Returns number of items completed out of order (waiting for the previous ones)
+	 * @return
+	 */
+	public synchronized int getPending() {
+		return this.completed.size();
+	}
+}
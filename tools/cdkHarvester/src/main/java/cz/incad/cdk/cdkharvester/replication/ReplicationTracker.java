@@ -0,0 +1,220 @@
+package cz.incad.cdk.cdkharvester.replication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+
+/**
+ * Tracks harvested items until they are resolved. The item is completed when its replication returned
+ * and its buffered documents (index batch, streamed update request) have been indexed; it fails when
+ * the replication or the indexing of its documents fails.
+ * <p>
+ * The watermark moves only over completed items, so the harvesting timestamp always stays before
+ * the oldest failed or still buffered item. Failed items are kept until they are retried.
+ * Listener is called under the lock of the tracker, in the order of the events.
+ */
+public class ReplicationTracker {
+
+	/**
+	 * Receives resolved items
+	 */
+	public static interface Listener {
+
+		/** Item has been replicated and its documents are in the index */
+		public void completed(CDKHarvestIterationItem item);
+
+		/** Replication of the item or indexing of its documents failed */
+		public void failed(CDKHarvestIterationItem item, Exception e);
+
+		/** All items up to the given one (inclusive) are completed */
+		public void watermark(CDKHarvestIterationItem item);
+	}
+
+	private static class Entry {
+
+		private final CDKHarvestIterationItem item;
+		private final long sequence;
+		private boolean returned;
+		private boolean buffered;
+		private boolean indexed;
+
+		private Entry(CDKHarvestIterationItem item, long sequence) {
+			this.item = item;
+			this.sequence = sequence;
+		}
+	}
+
+	private final Listener listener;
+	private final CompletionWatermark<CDKHarvestIterationItem> watermark = new CompletionWatermark<>();
+	private final Map<CDKHarvestIterationItem, Entry> active = new IdentityHashMap<>();
+	private final Map<String, List<Entry>> byPid = new HashMap<>();
+	private final Map<Long, Entry> failed = new TreeMap<>();
+
+	public ReplicationTracker(Listener listener) {
+		super();
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns iteration registering every returned item; items must be registered in the harvest order
+	 */
+	public CDKHarvestIteration track(final CDKHarvestIteration iteration) {
+		return new CDKHarvestIteration() {
+
+			@Override
+			public void init() throws CDKHarvestIterationException {
+				iteration.init();
+			}
+
+			@Override
+			public boolean hasNext() throws CDKHarvestIterationException {
+				return iteration.hasNext();
+			}
+
+			@Override
+			public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
+				CDKHarvestIterationItem item = iteration.next();
+				if (item != null) {
+					register(item);
+				}
+				return item;
+			}
+		};
+	}
+
+	public synchronized void register(CDKHarvestIterationItem item) {
+		activate(new Entry(item, this.watermark.register()));
+	}
+
+	/**
+	 * Documents of the pid are buffered; the item is completed after they are indexed
+	 */
+	public synchronized void buffered(String pid) {
+		List<Entry> entries = this.byPid.get(pid);
+		if (entries != null) {
+			for (Entry entry : entries) {
+				entry.buffered = true;
+			}
+		}
+	}
+
+	/**
+	 * Replication of the item returned
+	 */
+	public synchronized void replicated(CDKHarvestIterationItem item) {
+		Entry entry = this.active.get(item);
+		if (entry != null) {
+			entry.returned = true;
+			completeIfResolved(entry);
+		}
+	}
+
+	/**
+	 * Replication of the item failed
+	 */
+	public synchronized void failed(CDKHarvestIterationItem item, Exception e) {
+		Entry entry = this.active.get(item);
+		if (entry != null) {
+			fail(entry, e);
+		}
+	}
+
+	/**
+	 * Buffered documents of the pids have been indexed
+	 */
+	public synchronized void indexed(Collection<String> pids) {
+		for (String pid : pids) {
+			List<Entry> entries = this.byPid.get(pid);
+			if (entries == null) continue;
+			for (Entry entry : new ArrayList<>(entries)) {
+				if (entry.buffered) {
+					entry.indexed = true;
+					completeIfResolved(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Buffered documents of the pid cannot be indexed
+	 */
+	public synchronized void failed(String pid, Exception e) {
+		List<Entry> entries = this.byPid.get(pid);
+		if (entries == null) return;
+		for (Entry entry : new ArrayList<>(entries)) {
+			if (entry.buffered) {
+				fail(entry, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns failed items in the harvest order and tracks them again
+	 */
+	public synchronized List<CDKHarvestIterationItem> retry() {
+		List<CDKHarvestIterationItem> items = new ArrayList<>();
+		for (Entry entry : this.failed.values()) {
+			activate(new Entry(entry.item, entry.sequence));
+			items.add(entry.item);
+		}
+		this.failed.clear();
+		return items;
+	}
+
+	public synchronized int getFailedCount() {
+		return this.failed.size();
+	}
+
+	/**
+	 * Returns number of items which are neither completed nor failed
+	 */
+	public synchronized int getActiveCount() {
+		return this.active.size();
+	}
+
+	private void activate(Entry entry) {
+		this.active.put(entry.item, entry);
+		List<Entry> entries = this.byPid.get(entry.item.getPid());
+		if (entries == null) {
+			entries = new ArrayList<>(1);
+			this.byPid.put(entry.item.getPid(), entries);
+		}
+		entries.add(entry);
+	}
+
+	private void deactivate(Entry entry) {
+		this.active.remove(entry.item);
+		List<Entry> entries = this.byPid.get(entry.item.getPid());
+		if (entries != null) {
+			entries.remove(entry);
+			if (entries.isEmpty()) {
+				this.byPid.remove(entry.item.getPid());
+			}
+		}
+	}
+
+	private void completeIfResolved(Entry entry) {
+		if (!entry.returned || (entry.buffered && !entry.indexed)) return;
+		deactivate(entry);
+		this.listener.completed(entry.item);
+		CDKHarvestIterationItem moved = this.watermark.complete(entry.sequence,
+				entry.item.getTimestamp() != null ? entry.item : null);
+		if (moved != null) {
+			this.listener.watermark(moved);
+		}
+	}
+
+	private void fail(Entry entry, Exception e) {
+		deactivate(entry);
+		this.failed.put(entry.sequence, entry);
+		this.listener.failed(entry.item, e);
+	}
+}
@@ -0,0 +1,152 @@
+package cz.incad.cdk.cdkharvester.replication;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+
+/**
+ * Bounded producer/consumer replication pipeline. The calling thread pulls items from the
+ * iteration and hands them over to the fixed number of replication workers. The iteration is
+ * blocked when all workers are busy and the waiting queue is full.
+ * <p>
+ * The watermark listener is informed only about the highest item up to which all items have been replicated
+ */
+public class ReplicationWorkers {
+
+	public static final Logger LOGGER = Logger.getLogger(ReplicationWorkers.class.getName());
+
+	/**
+	 * Replication of one item
+	 */
+	public static interface ReplicationTask {
+
+		public void replicate(CDKHarvestIterationItem item) throws CDKReplicationException;
+	}
+
+	/**
+	 * Informs about the highest contiguous replicated item; called in replication order
+	 */
+	public static interface WatermarkListener {
+
+		public void watermark(CDKHarvestIterationItem item) throws IOException;
+	}
+
+	private final int workers;
+	private final int queueSize;
+
+	public ReplicationWorkers(int workers, int queueSize) {
+		super();
+		if (workers < 1) throw new IllegalArgumentException("expecting at least one worker");
+		this.workers = workers;
+		this.queueSize = Math.max(queueSize, 0);
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Replicates all items from the given iteration
+	 * @param iterator Iteration
+	 * @param task Replication task
+	 * @param listener Watermark listener, can be null
+	 * @return number of replicated items
+	 * @throws CDKReplicationException
+	 * @throws CDKHarvestIterationException
+	 */
+	public int process(CDKHarvestIteration iterator, final ReplicationTask task, final WatermarkListener listener)
+			throws CDKReplicationException, CDKHarvestIterationException {
+		final Semaphore slots = new Semaphore(this.workers + this.queueSize);
+		final CompletionWatermark<CDKHarvestIterationItem> watermark = new CompletionWatermark<>();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final AtomicInteger processed = new AtomicInteger();
+
+		ExecutorService executor = new ThreadPoolExecutor(this.workers, this.workers, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkersThreadFactory());
+		try {
+			while (failure.get() == null && iterator.hasNext()) {
+				final CDKHarvestIterationItem item = iterator.next();
+				final long sequence = watermark.register();
+				slots.acquireUninterruptibly();
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (failure.get() != null) return;
+							task.replicate(item);
+							processed.incrementAndGet();
+							synchronized (watermark) {
+								CDKHarvestIterationItem moved = watermark.complete(sequence,
+										item.getTimestamp() != null ? item : null);
+								if (moved != null && listener != null) {
+									listener.watermark(moved);
+								}
+							}
+						} catch (Throwable e) {
+							LOGGER.log(Level.SEVERE, "replication of " + item.getPid() + " failed", e);
+							failure.compareAndSet(null, e);
+						} finally {
+							slots.release();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			awaitTermination(executor);
+		}
+
+		Throwable thr = failure.get();
+		if (thr != null) {
+			if (thr instanceof CDKReplicationException) {
+				throw (CDKReplicationException) thr;
+			} else {
+				throw new CDKReplicationException(thr);
+			}
+		}
+		return processed.get();
+	}
+
+	private static void awaitTermination(ExecutorService executor) {
+		boolean interrupted = false;
+		while (!executor.isTerminated()) {
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class WorkersThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cdk-replication-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
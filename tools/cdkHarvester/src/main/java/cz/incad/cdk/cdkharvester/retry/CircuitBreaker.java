@@ -0,0 +1,113 @@
+package cz.incad.cdk.cdkharvester.retry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker of one source library. After given number of consecutive source failures
+ * (timeouts, refused connections, 5xx) the breaker opens and all callers wait until the open interval elapses;
+ * then calls are let through again (half open). A failure in the half open state opens the breaker for doubled interval.
+ * <p>
+ * Breakers are shared by all harvests of the same source in the JVM.
+ */
+public class CircuitBreaker {
+
+	public static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+	private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+	public static enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	private final String name;
+	private final int threshold;
+	private final long openMillis;
+	private final long maxOpenMillis;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long currentOpenMillis;
+	private long openUntil = 0;
+	private int opened = 0;
+
+	public CircuitBreaker(String name, int threshold, long openMillis, long maxOpenMillis) {
+		super();
+		this.name = name;
+		this.threshold = threshold;
+		this.openMillis = openMillis;
+		this.maxOpenMillis = maxOpenMillis;
+		this.currentOpenMillis = openMillis;
+	}
+
+	/**
+	 * Returns shared breaker of the given source
+	 */
+	public static CircuitBreaker forSource(String source, int threshold, long openMillis, long maxOpenMillis) {
+		CircuitBreaker breaker = BREAKERS.get(source);
+		if (breaker == null) {
+			CircuitBreaker created = new CircuitBreaker(source, threshold, openMillis, maxOpenMillis);
+			breaker = BREAKERS.putIfAbsent(source, created);
+			if (breaker == null) breaker = created;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Waits while the breaker is open
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		while (true) {
+			long wait;
+			synchronized (this) {
+				if (this.state != State.OPEN) return;
+				wait = this.openUntil - System.currentTimeMillis();
+				if (wait <= 0) {
+					this.state = State.HALF_OPEN;
+					LOGGER.log(Level.INFO, "circuit of {0} is half open", this.name);
+					return;
+				}
+			}
+			Thread.sleep(wait);
+		}
+	}
+
+	public synchronized void success() {
+		if (this.state != State.CLOSED) {
+			LOGGER.log(Level.INFO, "circuit of {0} is closed", this.name);
+		}
+		this.state = State.CLOSED;
+		this.failures = 0;
+		this.currentOpenMillis = this.openMillis;
+	}
+
+	public synchronized void failure() {
+		this.failures += 1;
+		if (this.state == State.HALF_OPEN) {
+			this.currentOpenMillis = Math.min(this.currentOpenMillis * 2, this.maxOpenMillis);
+			open();
+		} else if (this.state == State.CLOSED && this.failures >= this.threshold) {
+			open();
+		}
+	}
+
+	private void open() {
+		this.state = State.OPEN;
+		this.openUntil = System.currentTimeMillis() + this.currentOpenMillis;
+		this.opened += 1;
+		LOGGER.log(Level.WARNING, "circuit of {0} is open for {1} ms after {2} failures",
+				new Object[] { this.name, this.currentOpenMillis, this.failures });
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CircuitBreaker [name=" + name + ", state=" + state + ", opened=" + opened + "]";
+	}
+}
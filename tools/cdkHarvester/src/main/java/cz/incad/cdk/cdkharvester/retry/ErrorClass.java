@@ -0,0 +1,62 @@
+package cz.incad.cdk.cdkharvester.retry;
+
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import com.sun.jersey.api.client.UniformInterfaceException;
+
+/**
+ * Classes of replication errors; every class has its own retry policy
+ */
+public enum ErrorClass {
+
+	/** Read or connect timeout */
+	TIMEOUT,
+	/** Refused connection, unknown host */
+	CONNECTION,
+	/** HTTP 5xx */
+	SERVER_ERROR,
+	/** HTTP 404; the item is skipped */
+	NOT_FOUND,
+	/** Other HTTP 4xx */
+	CLIENT_ERROR,
+	/** Everything else (parsing, ingest, index) */
+	OTHER;
+
+	/**
+	 * Returns true if the error says something about health of the source
+	 */
+	public boolean isSourceFailure() {
+		return this == TIMEOUT || this == CONNECTION || this == SERVER_ERROR;
+	}
+
+	/**
+	 * Finds the class of the given exception; the causes are inspected as well
+	 * @param ex Exception
+	 * @return
+	 */
+	public static ErrorClass classify(Throwable ex) {
+		for (Throwable t = ex; t != null; t = t.getCause() == t ? null : t.getCause()) {
+			if (t instanceof UniformInterfaceException) {
+				return classify(((UniformInterfaceException) t).getResponse().getStatus());
+			} else if (t instanceof SocketTimeoutException) {
+				return TIMEOUT;
+			} else if (t instanceof ConnectException || t instanceof UnknownHostException) {
+				return CONNECTION;
+			} else if (t instanceof FileNotFoundException) {
+				return NOT_FOUND;
+			}
+		}
+		return OTHER;
+	}
+
+	public static ErrorClass classify(int status) {
+		if (status == 404) return NOT_FOUND;
+		if (status == 408) return TIMEOUT;
+		if (status >= 500) return SERVER_ERROR;
+		if (status >= 400) return CLIENT_ERROR;
+		return OTHER;
+	}
+}
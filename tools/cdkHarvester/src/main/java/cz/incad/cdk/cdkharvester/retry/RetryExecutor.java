@@ -0,0 +1,126 @@
+package cz.incad.cdk.cdkharvester.retry;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration.Configuration;
+
+import cz.incad.kramerius.utils.conf.KConfiguration;
+
+/**
+ * Calls operations against one source library with retries. The policy is chosen by the class of the error
+ * ({@link ErrorClass}); source failures are reported to the circuit breaker of the source.
+ * <p>
+ * Configuration (<code>&lt;class&gt;</code> is lower case name of the error class, e.g. server_error):
+ * <ul>
+ * <li>cdk.retry.&lt;class&gt;.retries - number of retries</li>
+ * <li>cdk.retry.&lt;class&gt;.delay - first delay in milliseconds</li>
+ * <li>cdk.retry.maxDelay - maximal delay in milliseconds</li>
+ * <li>cdk.retry.breaker.failures - consecutive source failures opening the circuit</li>
+ * <li>cdk.retry.breaker.open - open interval in milliseconds</li>
+ * <li>cdk.retry.breaker.maxOpen - maximal open interval in milliseconds</li>
+ * </ul>
+ */
+public class RetryExecutor {
+
+	public static final Logger LOGGER = Logger.getLogger(RetryExecutor.class.getName());
+
+	private final Map<ErrorClass, RetryPolicy> policies;
+	private final CircuitBreaker breaker;
+
+	private final Map<ErrorClass, AtomicLong> retries = new EnumMap<>(ErrorClass.class);
+
+	public RetryExecutor(Map<ErrorClass, RetryPolicy> policies, CircuitBreaker breaker) {
+		super();
+		this.policies = new EnumMap<>(policies);
+		this.breaker = breaker;
+		for (ErrorClass cls : ErrorClass.values()) {
+			this.retries.put(cls, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Creates executor with the configured policies and the shared breaker of the given source
+	 * @param url Any url of the source
+	 * @return
+	 */
+	public static RetryExecutor forSource(String url) {
+		Configuration conf = KConfiguration.getInstance().getConfiguration();
+		long maxDelay = conf.getLong("cdk.retry.maxDelay", 60000);
+		Map<ErrorClass, RetryPolicy> policies = new EnumMap<>(ErrorClass.class);
+		policies.put(ErrorClass.TIMEOUT, policy(conf, ErrorClass.TIMEOUT, 4, 1000, maxDelay));
+		policies.put(ErrorClass.CONNECTION, policy(conf, ErrorClass.CONNECTION, 4, 2000, maxDelay));
+		policies.put(ErrorClass.SERVER_ERROR, policy(conf, ErrorClass.SERVER_ERROR, 4, 2000, maxDelay));
+		policies.put(ErrorClass.NOT_FOUND, policy(conf, ErrorClass.NOT_FOUND, 0, 0, maxDelay));
+		policies.put(ErrorClass.CLIENT_ERROR, policy(conf, ErrorClass.CLIENT_ERROR, 0, 0, maxDelay));
+		policies.put(ErrorClass.OTHER, policy(conf, ErrorClass.OTHER, 1, 500, maxDelay));
+		CircuitBreaker breaker = CircuitBreaker.forSource(source(url), conf.getInt("cdk.retry.breaker.failures", 5),
+				conf.getLong("cdk.retry.breaker.open", 30000), conf.getLong("cdk.retry.breaker.maxOpen", 300000));
+		return new RetryExecutor(policies, breaker);
+	}
+
+	private static RetryPolicy policy(Configuration conf, ErrorClass cls, int retries, long delay, long maxDelay) {
+		String prefix = "cdk.retry." + cls.name().toLowerCase() + ".";
+		return new RetryPolicy(conf.getInt(prefix + "retries", retries), conf.getLong(prefix + "delay", delay),
+				maxDelay);
+	}
+
+	private static String source(String url) {
+		try {
+			URL u = new URL(url);
+			return u.getHost() + ":" + u.getPort();
+		} catch (MalformedURLException e) {
+			return url;
+		}
+	}
+
+	/**
+	 * Calls the operation; the last exception is thrown when the retries are exhausted
+	 * or when the policy of the error class does not allow any retry
+	 * @param description Description used in the log
+	 * @param operation Operation
+	 * @return result of the operation
+	 * @throws Exception
+	 */
+	public <T> T call(String description, Callable<T> operation) throws Exception {
+		int attempt = 0;
+		while (true) {
+			this.breaker.await();
+			try {
+				T result = operation.call();
+				this.breaker.success();
+				return result;
+			} catch (Exception e) {
+				ErrorClass cls = ErrorClass.classify(e);
+				if (cls.isSourceFailure()) {
+					this.breaker.failure();
+				}
+				attempt += 1;
+				RetryPolicy policy = this.policies.get(cls);
+				if (policy == null || attempt > policy.getRetries()) {
+					throw e;
+				}
+				this.retries.get(cls).incrementAndGet();
+				long delay = policy.backoff(attempt);
+				LOGGER.log(Level.WARNING, "{0} failed ({1}: {2}); retrying in {3} ms",
+						new Object[] { description, cls, e.getMessage(), delay });
+				Thread.sleep(delay);
+			}
+		}
+	}
+
+	public CircuitBreaker getBreaker() {
+		return breaker;
+	}
+
+	@Override
+	public String toString() {
+		return "RetryExecutor [retries=" + retries + ", breaker=" + breaker + "]";
+	}
+}
@@ -0,0 +1,46 @@
+package cz.incad.cdk.cdkharvester.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy of one error class; exponential backoff with jitter
+ */
+public class RetryPolicy {
+
+	private final int retries;
+	private final long delay;
+	private final long maxDelay;
+
+	/**
+	 * @param retries Number of retries; 0 means no retry
+	 * @param delay First delay in milliseconds
+	 * @param maxDelay Maximal delay in milliseconds
+	 */
+	public RetryPolicy(int retries, long delay, long maxDelay) {
+		super();
+		this.retries = retries;
+		this.delay = delay;
+		this.maxDelay = maxDelay;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	/**
+	 * Returns delay before the given retry; the exponential delay is randomized between its half and full value
+	 * @param attempt Number of failed attempts (starts with 1)
+	 * @return delay in milliseconds
+	 */
+	public long backoff(int attempt) {
+		long exponential = Math.min(this.maxDelay, this.delay << Math.min(attempt - 1, 30));
+		if (exponential <= 1) return Math.max(exponential, 0);
+		long half = exponential / 2;
+		return half + ThreadLocalRandom.current().nextLong(exponential - half + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "RetryPolicy [retries=" + retries + ", delay=" + delay + ", maxDelay=" + maxDelay + "]";
+	}
+}
@@ -0,0 +1,153 @@
+package cz.incad.cdk.cdkharvester.scheduler;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.configuration.Configuration;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.cdk.cdkharvester.client.RateLimiter;
+import cz.incad.kramerius.utils.conf.KConfiguration;
+import cz.incad.kramerius.virtualcollections.CDKSource;
+
+/**
+ * Harvests all sources in one JVM. Every source runs in its own thread, so small libraries do not wait
+ * behind the big ones. Every source has its own budget of replication workers and its own limit of requests
+ * per second; writes into Fedora and Solr are limited globally.
+ * <p>
+ * Configuration (<code>&lt;host&gt;</code> is host name of the source):
+ * <ul>
+ * <li>cdk.scheduler.sources - number of sources harvested at the same time; 0 means all</li>
+ * <li>cdk.scheduler.writesPerSecond - global limit of replicated documents per second; 0 means no limit</li>
+ * <li>cdk.scheduler.workers, cdk.scheduler.&lt;host&gt;.workers - replication workers of one source</li>
+ * <li>cdk.scheduler.requestsPerSecond, cdk.scheduler.&lt;host&gt;.requestsPerSecond - requests per second to one source; 0 means no limit</li>
+ * </ul>
+ */
+public class HarvestScheduler {
+
+	public static final Logger LOGGER = Logger.getLogger(HarvestScheduler.class.getName());
+
+	/**
+	 * Harvest of one source
+	 */
+	public static interface SourceHarvest {
+
+		/**
+		 * Harvests the source
+		 * @param source Source library
+		 * @param workers Replication workers of the source
+		 * @param writeLimiter Global write limiter or null
+		 * @throws Exception
+		 */
+		public void harvest(CDKSource source, int workers, RateLimiter writeLimiter) throws Exception;
+	}
+
+	private final Configuration configuration;
+	private final HarvestClient client;
+	private final int parallelSources;
+	private final RateLimiter writeLimiter;
+
+	public HarvestScheduler(HarvestClient client) {
+		this(KConfiguration.getInstance().getConfiguration(), client);
+	}
+
+	public HarvestScheduler(Configuration configuration, HarvestClient client) {
+		super();
+		this.configuration = configuration;
+		this.client = client;
+		this.parallelSources = configuration.getInt("cdk.scheduler.sources", 0);
+		double writes = configuration.getDouble("cdk.scheduler.writesPerSecond", 0);
+		this.writeLimiter = writes > 0 ? new RateLimiter(writes) : null;
+	}
+
+	/**
+	 * Number of replication workers of the source
+	 */
+	public int workers(CDKSource source) {
+		int defaultWorkers = this.configuration.getInt("cdk.scheduler.workers",
+				this.configuration.getInt("cdk.replication.workers", 1));
+		return this.configuration.getInt("cdk.scheduler." + host(source) + ".workers", defaultWorkers);
+	}
+
+	/**
+	 * Requests per second to the source; 0 means no limit
+	 */
+	public double requestsPerSecond(CDKSource source) {
+		double defaultRate = this.configuration.getDouble("cdk.scheduler.requestsPerSecond", 0);
+		return this.configuration.getDouble("cdk.scheduler." + host(source) + ".requestsPerSecond", defaultRate);
+	}
+
+	private static String host(CDKSource source) {
+		try {
+			return new URL(source.getUrl()).getHost();
+		} catch (Exception e) {
+			return source.getPid();
+		}
+	}
+
+	/**
+	 * Harvests all given sources and waits for them
+	 * @param sources Sources
+	 * @param harvest Harvest of one source
+	 * @return failures by source url; empty map if all sources have been harvested
+	 * @throws InterruptedException
+	 */
+	public Map<String, Throwable> run(List<CDKSource> sources, final SourceHarvest harvest)
+			throws InterruptedException {
+		Map<String, Throwable> failures = new LinkedHashMap<>();
+		if (sources.isEmpty()) return failures;
+		int threads = this.parallelSources > 0 ? Math.min(this.parallelSources, sources.size()) : sources.size();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cdk-source-" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (final CDKSource source : sources) {
+				final int workers = workers(source);
+				double rate = requestsPerSecond(source);
+				this.client.setRateLimit(source.getUrl(), rate);
+				LOGGER.log(Level.INFO, "scheduling {0} ({1}); workers {2}, requests per second {3}",
+						new Object[] { source.getLabel(), source.getUrl(), workers, rate > 0 ? rate : "unlimited" });
+				futures.add(executor.submit(() -> {
+					harvest.harvest(source, workers, this.writeLimiter);
+					return null;
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				CDKSource source = sources.get(i);
+				try {
+					futures.get(i).get();
+					LOGGER.log(Level.INFO, "source {0} harvested", source.getLabel());
+				} catch (ExecutionException e) {
+					LOGGER.log(Level.SEVERE, "harvest of " + source.getLabel() + " failed", e.getCause());
+					failures.put(source.getUrl(), e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return failures;
+	}
+
+	public RateLimiter getWriteLimiter() {
+		return writeLimiter;
+	}
+}
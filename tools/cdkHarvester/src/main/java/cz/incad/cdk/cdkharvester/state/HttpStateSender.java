@@ -0,0 +1,106 @@
+package cz.incad.cdk.cdkharvester.state;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.MediaType;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterfaceException;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.cdk.cdkharvester.state.StateReporter.StateItem;
+
+/**
+ * Sends batches of states to the cdkmanage endpoint of the application. The batch is posted as json array
+ * (<code>[{"pid":..,"timestamp":..,"state":..}]</code>) to <code>cdkmanage?action=INTRODUCESTATES</code>.
+ * When the application does not know the bulk action (404, 405, 400), the sender switches to the
+ * single <code>INTRODUCESTATE</code> requests.
+ */
+public class HttpStateSender implements StateReporter.Sender {
+
+	public static final Logger LOGGER = Logger.getLogger(HttpStateSender.class.getName());
+
+	private final HarvestClient client;
+	private final String manageUrl;
+	private final String authToken;
+
+	private volatile boolean bulk = true;
+
+	/**
+	 * @param client Shared client
+	 * @param appUrl Application url
+	 * @param authToken Token of the process
+	 */
+	public HttpStateSender(HarvestClient client, String appUrl, String authToken) {
+		super();
+		this.client = client;
+		this.manageUrl = appUrl + (appUrl.endsWith("/") ? "" : "/") + "cdkmanage";
+		this.authToken = authToken;
+	}
+
+	@Override
+	public void send(List<StateItem> items) throws Exception {
+		if (this.bulk) {
+			try {
+				sendBulk(items);
+				return;
+			} catch (UniformInterfaceException e) {
+				int status = e.getResponse().getStatus();
+				if (status != 404 && status != 405 && status != 400) {
+					throw e;
+				}
+				LOGGER.log(Level.WARNING, "bulk state reporting is not supported ({0}); using single requests", status);
+				this.bulk = false;
+			}
+		}
+		for (StateItem item : items) {
+			sendOne(item);
+		}
+	}
+
+	private void sendBulk(List<StateItem> items) {
+		JSONArray array = new JSONArray();
+		for (StateItem item : items) {
+			JSONObject object = new JSONObject();
+			object.put("pid", item.getPid());
+			object.put("timestamp", item.getTimestamp());
+			if (item.getState() != null) {
+				object.put("state", item.getState().name());
+			}
+			array.put(object);
+		}
+		ClientResponse response = this.client.resource(this.manageUrl).queryParam("action", "INTRODUCESTATES")
+				.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON).header("auth-token", this.authToken)
+				.post(ClientResponse.class, array.toString());
+		try {
+			if (response.getStatus() >= 300) {
+				throw new UniformInterfaceException(response);
+			}
+		} finally {
+			response.close();
+		}
+	}
+
+	private void sendOne(StateItem item) {
+		ClientResponse response = this.client.resource(this.manageUrl).queryParam("action", "INTRODUCESTATE")
+				.queryParam("pid", item.getPid()).queryParam("timestamp", String.valueOf(item.getTimestamp()))
+				.accept(MediaType.APPLICATION_JSON).type(MediaType.APPLICATION_JSON).header("auth-token", this.authToken)
+				.get(ClientResponse.class);
+		try {
+			if (response.getStatus() >= 300) {
+				throw new UniformInterfaceException(response);
+			}
+		} finally {
+			response.close();
+		}
+	}
+
+	public boolean isBulk() {
+		return bulk;
+	}
+}
@@ -0,0 +1,224 @@
+package cz.incad.cdk.cdkharvester.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cz.incad.kramerius.virtualcollections.CDKStateSupport.CDKState;
+
+/**
+ * Reports states of the replicated objects to the application in the background. The states are put into
+ * a bounded queue and one background thread sends them in batches (batch is full or the flush interval elapses).
+ * <p>
+ * When the queue is full the state is dropped; in the blocking mode the caller waits at most the given time for
+ * a free place (backpressure). Both cases are counted. The class is thread safe.
+ */
+public class StateReporter {
+
+	public static final Logger LOGGER = Logger.getLogger(StateReporter.class.getName());
+
+	/**
+	 * One reported state
+	 */
+	public static class StateItem {
+
+		private final String pid;
+		private final String timestamp;
+		private final CDKState state;
+
+		public StateItem(String pid, String timestamp, CDKState state) {
+			super();
+			this.pid = pid;
+			this.timestamp = timestamp;
+			this.state = state;
+		}
+
+		public String getPid() {
+			return pid;
+		}
+
+		public String getTimestamp() {
+			return timestamp;
+		}
+
+		public CDKState getState() {
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			return "StateItem [pid=" + pid + ", timestamp=" + timestamp + ", state=" + state + "]";
+		}
+	}
+
+	/**
+	 * Sends one batch of states
+	 */
+	public static interface Sender {
+
+		public void send(List<StateItem> items) throws Exception;
+	}
+
+	private final Sender sender;
+	private final BlockingQueue<StateItem> queue;
+	private final int batchSize;
+	private final long flushMillis;
+	private final long blockMillis;
+	private final Thread thread;
+
+	private volatile boolean closed = false;
+
+	private final AtomicLong reported = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong blocked = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param sender Sender of the batches
+	 * @param queueSize Capacity of the queue
+	 * @param batchSize Maximal number of states in one batch
+	 * @param flushMillis Maximal time the state waits in the queue
+	 * @param blockMillis Maximal time the caller waits when the queue is full; 0 means the state is dropped immediately
+	 */
+	public StateReporter(Sender sender, int queueSize, int batchSize, long flushMillis, long blockMillis) {
+		super();
+		this.sender = sender;
+		this.queue = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+		this.batchSize = Math.max(batchSize, 1);
+		this.flushMillis = Math.max(flushMillis, 1);
+		this.blockMillis = blockMillis;
+		this.thread = new Thread(this::run, "cdk-state-reporter");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Enqueues the state; never waits longer than the block interval
+	 * @param pid Pid
+	 * @param timestamp Timestamp of the replicated object
+	 * @param state State
+	 * @return false if the state has been dropped
+	 */
+	public boolean report(String pid, String timestamp, CDKState state) {
+		StateItem item = new StateItem(pid, timestamp, state);
+		this.reported.incrementAndGet();
+		if (!this.closed && this.queue.offer(item)) {
+			return true;
+		}
+		if (!this.closed && this.blockMillis > 0) {
+			this.blocked.incrementAndGet();
+			try {
+				if (this.queue.offer(item, this.blockMillis, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		this.dropped.incrementAndGet();
+		LOGGER.log(Level.FINE, "state of {0} dropped", pid);
+		return false;
+	}
+
+	private void run() {
+		List<StateItem> batch = new ArrayList<>(this.batchSize);
+		while (true) {
+			try {
+				StateItem first = this.queue.poll(this.flushMillis, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (this.closed) break;
+					continue;
+				}
+				batch.add(first);
+				long deadline = System.currentTimeMillis() + this.flushMillis;
+				while (batch.size() < this.batchSize) {
+					this.queue.drainTo(batch, this.batchSize - batch.size());
+					long wait = deadline - System.currentTimeMillis();
+					if (batch.size() >= this.batchSize || wait <= 0 || this.closed) break;
+					StateItem next = this.queue.poll(wait, TimeUnit.MILLISECONDS);
+					if (next == null) break;
+					batch.add(next);
+				}
+				send(batch);
+				batch.clear();
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		// remaining states after interrupt
+		this.queue.drainTo(batch);
+		if (!batch.isEmpty()) {
+			send(batch);
+		}
+	}
+
+	private void send(List<StateItem> batch) {
+		try {
+			this.sender.send(batch);
+			this.sent.addAndGet(batch.size());
+		} catch (Exception e) {
+			this.failed.addAndGet(batch.size());
+			LOGGER.log(Level.WARNING, "cannot report " + batch.size() + " states", e);
+		}
+		this.batches.incrementAndGet();
+	}
+
+	/**
+	 * Sends the queued states and stops the background thread
+	 * @param timeoutMillis Maximal wait for the background thread
+	 */
+	public void close(long timeoutMillis) {
+		this.closed = true;
+		try {
+			this.thread.join(timeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (this.thread.isAlive()) {
+			this.thread.interrupt();
+			LOGGER.log(Level.WARNING, "state reporter did not finish in {0} ms", timeoutMillis);
+		}
+		LOGGER.log(Level.INFO, "state reporting: {0}", this);
+	}
+
+	public long getReported() {
+		return reported.get();
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getBlocked() {
+		return blocked.get();
+	}
+
+	public long getSent() {
+		return sent.get();
+	}
+
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public int getQueued() {
+		return queue.size();
+	}
+
+	@Override
+	public String toString() {
+		return "StateReporter [reported=" + reported + ", sent=" + sent + ", batches=" + batches + ", dropped="
+				+ dropped + ", blocked=" + blocked + ", failed=" + failed + ", queued=" + queue.size() + "]";
+	}
+}
@@ -15,6 +15,7 @@ import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 
+import cz.incad.cdk.cdkharvester.cache.MetadataCache;
 import cz.incad.kramerius.utils.conf.KConfiguration;
 import cz.incad.kramerius.virtualcollections.impl.support.CDKCollectionsIndexImpl;
 import cz.incad.kramerius.virtualcollections.support.CDKCollectionsIndexException;
@@ -24,13 +25,34 @@ public class ProcessingTimestampsSolrStoreImpl extends AbstractProcessingTimesta
 	
 	private static final String DEFAULT_TIMESTAMP_KEY = "harvesting_timestamp";
 
-	
-	
+	// one index client and cached collection data for the whole harvest
+	private CDKCollectionsIndexImpl index;
+	private final MetadataCache<String, JSONObject> data = new MetadataCache<>(
+			KConfiguration.getInstance().getConfiguration().getLong("cdk.cache.ttl", 600000));
+
+	protected synchronized CDKCollectionsIndexImpl getIndex() {
+		if (this.index == null) {
+			this.index = new CDKCollectionsIndexImpl();
+		}
+		return this.index;
+	}
+
+	/**
+	 * Forgets cached collection data
+	 */
+	public void invalidate() {
+		this.data.invalidateAll();
+	}
+
 	@Override
-	public LocalDateTime getTimestamp(String pid) throws IOException {
+	public LocalDateTime getTimestamp(final String pid) throws IOException {
 		try {
-			CDKCollectionsIndexImpl impl = new CDKCollectionsIndexImpl();
-			JSONObject json = impl.getDataByPid(pid);
+			JSONObject json = this.data.get(pid, new MetadataCache.Loader<JSONObject, CDKCollectionsIndexException>() {
+				@Override
+				public JSONObject load() throws CDKCollectionsIndexException {
+					return getIndex().getDataByPid(pid);
+				}
+			});
 			if (json != null) {
 				if (json.has(DEFAULT_TIMESTAMP_KEY)) {
 					String harvestingFile = json.getString(DEFAULT_TIMESTAMP_KEY);
@@ -53,8 +75,8 @@ public class ProcessingTimestampsSolrStoreImpl extends AbstractProcessingTimesta
 	@Override
 	public void setTimestamp(String pid, LocalDateTime date) throws IOException {
 		try {
-			CDKCollectionsIndexImpl impl = new CDKCollectionsIndexImpl();
-			impl.updateField(pid, DEFAULT_TIMESTAMP_KEY, super.format(date));
+			getIndex().updateField(pid, DEFAULT_TIMESTAMP_KEY, super.format(date));
+			this.data.invalidate(pid);
 		} catch (CDKCollectionsIndexException e) {
 			throw new IOException(e);
 		}
@@ -0,0 +1,143 @@
+package cz.incad.cdk.cdkharvester.timestamp;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind decorator of the timestamps store. The timestamps are kept in memory and written to the underlying
+ * store after given number of updates or after given interval, when the harvest ends, and when the JVM
+ * is shutting down.
+ * <p>
+ * The harvest sets only the watermark of its tracker, i.e. the timestamp up to which all items have been replicated
+ * and their documents are in the index; failed and still buffered items keep the timestamp before them.
+ * When the harvest fails before its buffered documents are indexed, the pending timestamps are discarded;
+ * an interrupted harvest replicates at most the unflushed items again.
+ */
+public class WriteBehindProcessingTimestamps implements ProcessingTimestamps {
+
+	public static final Logger LOGGER = Logger.getLogger(WriteBehindProcessingTimestamps.class.getName());
+
+	private final ProcessingTimestamps delegate;
+	private final int flushItems;
+	private final long flushMillis;
+
+	private final Map<String, LocalDateTime> pending = new HashMap<>();
+	private int updates = 0;
+	private long lastFlush = System.currentTimeMillis();
+	private long writes = 0;
+
+	private Thread shutdownHook;
+
+	/**
+	 * @param delegate Underlying store
+	 * @param flushItems Number of updates between writes
+	 * @param flushMillis Maximal interval between writes in milliseconds
+	 */
+	public WriteBehindProcessingTimestamps(ProcessingTimestamps delegate, int flushItems, long flushMillis) {
+		super();
+		this.delegate = delegate;
+		this.flushItems = Math.max(flushItems, 1);
+		this.flushMillis = flushMillis;
+	}
+
+	/**
+	 * Registers shutdown hook flushing pending timestamps
+	 */
+	public synchronized void open() {
+		if (this.shutdownHook == null) {
+			this.shutdownHook = new Thread(() -> {
+				try {
+					flush();
+				} catch (IOException e) {
+					LOGGER.log(Level.SEVERE, "cannot flush timestamps", e);
+				}
+			}, "cdk-timestamps-flush");
+			Runtime.getRuntime().addShutdownHook(this.shutdownHook);
+		}
+	}
+
+	/**
+	 * Flushes pending timestamps and removes the shutdown hook
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (this.shutdownHook != null) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+				} catch (IllegalStateException e) {
+					// already shutting down; the hook flushes
+				}
+				this.shutdownHook = null;
+			}
+		}
+		flush();
+		LOGGER.log(Level.FINE, "{0} timestamp writes", this.writes);
+	}
+
+	/**
+	 * Drops pending timestamps and removes the shutdown hook; the underlying store keeps the last written ones
+	 */
+	public synchronized void discard() {
+		if (this.shutdownHook != null) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(this.shutdownHook);
+			} catch (IllegalStateException e) {
+				// already shutting down
+			}
+			this.shutdownHook = null;
+		}
+		if (!this.pending.isEmpty()) {
+			LOGGER.log(Level.WARNING, "discarding {0} unwritten timestamps", this.pending.size());
+			this.pending.clear();
+		}
+		this.updates = 0;
+	}
+
+	@Override
+	public synchronized LocalDateTime getTimestamp(String pid) throws IOException {
+		LocalDateTime date = this.pending.get(pid);
+		return date != null ? date : this.delegate.getTimestamp(pid);
+	}
+
+	@Override
+	public synchronized void setTimestamp(String pid, LocalDateTime date) throws IOException {
+		this.pending.put(pid, date);
+		this.updates += 1;
+		if (this.updates >= this.flushItems || System.currentTimeMillis() - this.lastFlush >= this.flushMillis) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes pending timestamps to the underlying store
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		for (Map.Entry<String, LocalDateTime> entry : this.pending.entrySet()) {
+			this.delegate.setTimestamp(entry.getKey(), entry.getValue());
+			this.writes += 1;
+		}
+		this.pending.clear();
+		this.updates = 0;
+		this.lastFlush = System.currentTimeMillis();
+	}
+
+	@Override
+	public String format(LocalDateTime time) throws IOException {
+		return this.delegate.format(time);
+	}
+
+	@Override
+	public LocalDateTime parse(String dateString) throws IOException {
+		return this.delegate.parse(dateString);
+	}
+
+	public ProcessingTimestamps getDelegate() {
+		return delegate;
+	}
+}
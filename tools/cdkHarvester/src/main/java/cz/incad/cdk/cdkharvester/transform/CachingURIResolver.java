@@ -0,0 +1,151 @@
+package cz.incad.cdk.cdkharvester.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.MediaType;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.kramerius.utils.IOUtils;
+
+/**
+ * Resolves http documents requested by the stylesheet (<code>document()</code>) through the shared harvest
+ * client and keeps the responses in a small LRU cache. Missing documents (404) resolve to an empty solr response.
+ * Other uris are resolved by the processor.
+ */
+public class CachingURIResolver implements URIResolver {
+
+	public static final Logger LOGGER = Logger.getLogger(CachingURIResolver.class.getName());
+
+	static final byte[] EMPTY_RESPONSE = "<response><result numFound=\"0\" start=\"0\"/></response>"
+			.getBytes(StandardCharsets.UTF_8);
+
+	private final HarvestClient client;
+	private final long ttlMillis;
+	private final Map<String, Entry> cache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+
+	/**
+	 * @param client Shared client
+	 * @param maxEntries Maximal number of cached documents
+	 * @param ttlMillis Time to live of the cached document
+	 */
+	public CachingURIResolver(HarvestClient client, final int maxEntries, long ttlMillis) {
+		super();
+		this.client = client;
+		this.ttlMillis = ttlMillis;
+		this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	@Override
+	public Source resolve(String href, String base) throws TransformerException {
+		String url = absolute(href, base);
+		if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+			return null;
+		}
+		byte[] data = cached(url);
+		if (data == null) {
+			data = load(url);
+			synchronized (this.cache) {
+				this.cache.put(url, new Entry(data, System.currentTimeMillis() + this.ttlMillis));
+			}
+		}
+		return new StreamSource(new ByteArrayInputStream(data), url);
+	}
+
+	private byte[] cached(String url) {
+		synchronized (this.cache) {
+			Entry entry = this.cache.get(url);
+			if (entry != null && entry.expires > System.currentTimeMillis()) {
+				this.hits.incrementAndGet();
+				return entry.data;
+			}
+			return null;
+		}
+	}
+
+	private byte[] load(String url) throws TransformerException {
+		this.loads.incrementAndGet();
+		try {
+			ClientResponse response = this.client.resource(url).accept(MediaType.APPLICATION_XML).get(ClientResponse.class);
+			try {
+				if (response.getStatus() == 404) {
+					LOGGER.log(Level.FINE, "{0} not found", url);
+					return EMPTY_RESPONSE;
+				}
+				if (response.getStatus() >= 300) {
+					throw new TransformerException("cannot load " + url + " (" + response.getStatus() + ")");
+				}
+				InputStream is = response.getEntityInputStream();
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				IOUtils.copyStreams(is, bos);
+				return bos.toByteArray();
+			} finally {
+				response.close();
+			}
+		} catch (ClientHandlerException | IOException e) {
+			throw new TransformerException("cannot load " + url, e);
+		}
+	}
+
+	private static String absolute(String href, String base) {
+		try {
+			URI uri = new URI(href);
+			if (!uri.isAbsolute() && base != null) {
+				uri = new URI(base).resolve(uri);
+			}
+			return uri.toString();
+		} catch (Exception e) {
+			return href;
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getLoads() {
+		return loads.get();
+	}
+
+	@Override
+	public String toString() {
+		return "CachingURIResolver [hits=" + hits + ", loads=" + loads + "]";
+	}
+
+	private static class Entry {
+
+		private final byte[] data;
+		private final long expires;
+
+		private Entry(byte[] data, long expires) {
+			this.data = data;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package cz.incad.cdk.cdkharvester.transform;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Transformation of the source solrxml into the update documents (tr.xsl). The stylesheet is compiled once
+ * into {@link Templates} shared by all harvests; every thread uses its own {@link Transformer}, so the
+ * documents can be transformed in parallel. Parameters (collectionPid, solr_url) are passed with every call.
+ * <p>
+ * In the compiled mode the stylesheet is compiled by XSLTC into translet classes; when the compilation
+ * fails, the interpretive processor is used.
+ */
+public class SolrXMLTransformation {
+
+	public static final Logger LOGGER = Logger.getLogger(SolrXMLTransformation.class.getName());
+
+	public static final String STYLESHEET = "/cz/incad/cdk/cdkharvester/tr.xsl";
+
+	public static final String XSLTC_FACTORY = "org.apache.xalan.xsltc.trax.TransformerFactoryImpl";
+
+	private static final Map<String, Templates> TEMPLATES = new ConcurrentHashMap<>();
+
+	private final Templates templates;
+	private final ThreadLocal<Transformer> transformers = new ThreadLocal<>();
+	private volatile URIResolver uriResolver;
+
+	public SolrXMLTransformation(Templates templates) {
+		super();
+		this.templates = templates;
+	}
+
+	/**
+	 * Transformation of the default stylesheet
+	 * @param compiled Use XSLTC
+	 * @throws TransformerConfigurationException
+	 */
+	public SolrXMLTransformation(boolean compiled) throws TransformerConfigurationException {
+		this(templates(STYLESHEET, compiled));
+	}
+
+	/**
+	 * Returns compiled stylesheet; the stylesheet is compiled once per JVM
+	 * @param stylesheet Classpath resource
+	 * @param compiled Use XSLTC
+	 * @throws TransformerConfigurationException
+	 */
+	public static Templates templates(String stylesheet, boolean compiled) throws TransformerConfigurationException {
+		String key = stylesheet + (compiled ? "#xsltc" : "");
+		Templates templates = TEMPLATES.get(key);
+		if (templates == null) {
+			templates = compile(stylesheet, compiled);
+			Templates prev = TEMPLATES.putIfAbsent(key, templates);
+			if (prev != null) {
+				templates = prev;
+			}
+		}
+		return templates;
+	}
+
+	private static Templates compile(String stylesheet, boolean compiled) throws TransformerConfigurationException {
+		if (compiled) {
+			try {
+				TransformerFactory factory = TransformerFactory.newInstance(XSLTC_FACTORY,
+						SolrXMLTransformation.class.getClassLoader());
+				return factory.newTemplates(source(stylesheet));
+			} catch (TransformerConfigurationException | RuntimeException e) {
+				LOGGER.log(Level.WARNING, "cannot compile " + stylesheet + " by xsltc; using default processor", e);
+			}
+		}
+		return TransformerFactory.newInstance().newTemplates(source(stylesheet));
+	}
+
+	private static Source source(String stylesheet) throws TransformerConfigurationException {
+		InputStream is = SolrXMLTransformation.class.getResourceAsStream(stylesheet);
+		if (is == null) {
+			throw new TransformerConfigurationException("stylesheet " + stylesheet + " not found");
+		}
+		StreamSource source = new StreamSource(is);
+		source.setSystemId(SolrXMLTransformation.class.getResource(stylesheet).toExternalForm());
+		return source;
+	}
+
+	/**
+	 * Returns transformer of the current thread; parameters set on it are kept between the calls
+	 * @throws TransformerConfigurationException
+	 */
+	public Transformer getTransformer() throws TransformerConfigurationException {
+		Transformer transformer = this.transformers.get();
+		if (transformer == null) {
+			transformer = this.templates.newTransformer();
+			if (this.uriResolver != null) {
+				transformer.setURIResolver(this.uriResolver);
+			}
+			this.transformers.set(transformer);
+		}
+		return transformer;
+	}
+
+	/**
+	 * Transforms the source by the transformer of the current thread
+	 * @param source Source solrxml
+	 * @param result Result
+	 * @param parameters Parameters of the call
+	 * @throws TransformerException
+	 */
+	public void transform(Source source, Result result, Map<String, Object> parameters) throws TransformerException {
+		Transformer transformer = getTransformer();
+		for (Map.Entry<String, Object> entry : parameters.entrySet()) {
+			transformer.setParameter(entry.getKey(), entry.getValue());
+		}
+		transformer.transform(source, result);
+	}
+
+	/**
+	 * Sets resolver of the documents requested by the stylesheet; used by the transformers created later
+	 */
+	public void setURIResolver(URIResolver uriResolver) {
+		this.uriResolver = uriResolver;
+	}
+
+	public URIResolver getURIResolver() {
+		return uriResolver;
+	}
+
+	public Templates getTemplates() {
+		return templates;
+	}
+}
@@ -16,59 +16,218 @@
  */
 package cz.incad.xsl;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
 
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+
+/**
+ * Thumbnails of the harvested objects ({@code ~/.cdk/CDK_DATA/thumbs/<host>/..}) and their dimensions.
+ * Dimensions are kept in a persistent index ({@code dimensions.idx}, one {@code key\twidth,height} line
+ * per thumbnail) which is checked first; on a miss only the image header is read. Thumbnails are downloaded
+ * by the shared harvest client (cdk.http timeouts) into a temporary file which is moved into place when complete.
+ */
 public class FileDataStore {
 
-    public static String getDimensions(String pid) {
+    public static final Logger LOGGER = Logger.getLogger(FileDataStore.class.getName());
 
-        try {
+    public static final String INDEX_FILE = "dimensions.idx";
 
-            final String path = System.getProperty("user.home") + "/.cdk/CDK_DATA/thumbs/";
-            URL url = new URL(pid);
-            String host = url.getHost();
+    private static final String UNKNOWN = "0,0";
 
-            File directory = new File(path + host);
-            directory.mkdirs();
+    private static volatile FileDataStore instance;
+
+    private final File root;
+    private final HarvestClient client;
+    private final File indexFile;
+    private final Map<String, String> dimensions = new ConcurrentHashMap<String, String>();
+
+    public FileDataStore(File root, HarvestClient client) {
+        this.root = root;
+        this.client = client;
+        this.indexFile = new File(root, INDEX_FILE);
+        loadIndex();
+    }
+
+    /**
+     * Returns store of the default folder; the index is loaded once
+     */
+    public static FileDataStore getInstance() {
+        FileDataStore store = instance;
+        if (store == null) {
+            synchronized (FileDataStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new FileDataStore(new File(System.getProperty("user.home") + "/.cdk/CDK_DATA/thumbs/"),
+                            HarvestClient.getDatastreamInstance());
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
 
+    public static String getDimensions(String pid) {
+        return getInstance().dimensions(pid);
+    }
 
+    /**
+     * Returns dimensions (width,height) of the thumbnail; 0,0 when the thumbnail cannot be read
+     * @param pid Url of the thumbnail (query contains the uuid)
+     */
+    public String dimensions(String pid) {
+        try {
+            URL url = new URL(pid);
+            String host = url.getHost();
             String query = url.getQuery();
             String identifier = query.substring(query.indexOf("uuid:") + 5);
-            //String file_path = host + "/" + uuid.substring(0,1);
 
-            File file = directory;
+            String key = host + "/" + identifier;
+            String known = this.dimensions.get(key);
+            if (known != null) {
+                return known;
+            }
+
+            File file = new File(this.root, host);
             file = new File(file, identifier.substring(0, 2));
             file = new File(file, identifier.substring(2, 4));
             file = new File(file, identifier.substring(4, 6));
             file = new File(file, identifier);
 
-
             if (!file.exists()) {
-                File parent = file.getParentFile();
-                parent.mkdirs();
+                download(pid, file);
+            }
+            String read = readDimensions(file);
+            if (read == null) {
+                LOGGER.log(Level.WARNING, "cannot read dimensions of {0}", file);
+                return UNKNOWN;
+            }
+            store(key, read);
+            return read;
+        } catch (Exception ex) {
+            LOGGER.log(Level.WARNING, "cannot get dimensions of " + pid, ex);
+            return UNKNOWN;
+        }
+    }
 
-                ReadableByteChannel rbc = Channels.newChannel(url.openStream());
-                FileOutputStream fos = new FileOutputStream(file.getAbsolutePath());
-                fos.getChannel().transferFrom(rbc, 0, 1 << 24);
+    /**
+     * Downloads the thumbnail; partial file is never left at the destination
+     */
+    private void download(String url, File file) throws IOException {
+        File parent = file.getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".part", parent);
+        try {
+            ClientResponse response = this.client.resource(url).get(ClientResponse.class);
+            try {
+                if (response.getStatus() >= 300) {
+                    throw new IOException("cannot download " + url + " (" + response.getStatus() + ")");
+                }
+                InputStream is = response.getEntityInputStream();
+                long copied = Files.copy(is, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                if (response.getLength() >= 0 && copied != response.getLength()) {
+                    throw new IOException("incomplete download " + url + " (" + copied + " of " + response.getLength() + ")");
+                }
+            } finally {
+                response.close();
             }
-//        String filename =  file.getAbsolutePath();
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (ClientHandlerException e) {
+            throw new IOException("cannot download " + url, e);
+        } finally {
+            tmp.delete();
+        }
+    }
 
+    /**
+     * Reads dimensions from the image header
+     * @return width,height or null when no reader accepts the file
+     */
+    static String readDimensions(File file) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if (iis == null) {
+            return null;
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                return reader.getWidth(0) + "," + reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
 
-            //     File file = new File(filename);
+    private void loadIndex() {
+        if (!this.indexFile.exists()) {
+            return;
+        }
+        try {
+            String content = new String(Files.readAllBytes(this.indexFile.toPath()), StandardCharsets.UTF_8);
+            String[] lines = content.split("\n", -1);
+            // last segment is empty or torn write
+            for (int i = 0; i < lines.length - 1; i++) {
+                String line = lines[i];
+                int tab = line.indexOf('\t');
+                if (tab > 0 && line.substring(tab + 1).matches("\\d+,\\d+")) {
+                    this.dimensions.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "cannot read " + this.indexFile, e);
+        }
+    }
 
-            BufferedImage img = ImageIO.read(file);
-            return img.getWidth() + "," + img.getHeight();
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            return "0,0";
+    private synchronized void store(String key, String value) {
+        if (value.equals(this.dimensions.put(key, value))) {
+            return;
         }
+        try {
+            this.root.mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(this.indexFile, true), StandardCharsets.UTF_8);
+            try {
+                writer.write(key + "\t" + value + "\n");
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "cannot write " + this.indexFile, e);
+        }
+    }
+
+    public int size() {
+        return this.dimensions.size();
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -14,18 +15,68 @@ import java.util.Map;
  */
 public class UTFSort {
 
-    Map<String, String> maps = new HashMap<String, String>();
+    private static volatile UTFSort instance;
+
+    Map<String, String> maps = Collections.emptyMap();
+    
+    /**
+     * Translation of the mapped characters indexed by the character; null means no change
+     */
+    String[] table = new String[0];
     
     public UTFSort() {
         
     }
+
+    /**
+     * Returns collation shared by all transformations; unicode_map.st is loaded once and the instance
+     * is not modified afterwards
+     */
+    public static UTFSort getInstance() throws IOException {
+        UTFSort sort = instance;
+        if (sort == null) {
+            synchronized (UTFSort.class) {
+                sort = instance;
+                if (sort == null) {
+                    sort = new UTFSort();
+                    sort.init();
+                    instance = sort;
+                }
+            }
+        }
+        return sort;
+    }
     
     public void init() throws IOException{
         loadMapFile();
+        buildTable();
+    }
+
+    /**
+     * Precomputes translation of every mapped character. The map used to be applied key by key
+     * (String.replace in the iteration order of the map), so a replacement could be translated again
+     * by a later key; the table keeps the result of the whole sequence for each character.
+     */
+    private void buildTable() {
+        int max = -1;
+        for (String key : maps.keySet()) {
+            max = Math.max(max, Integer.parseInt(key, 16));
+        }
+        String[] t = new String[max + 1];
+        for (String key : maps.keySet()) {
+            int c = Integer.parseInt(key, 16);
+            String translated = String.valueOf((char) c);
+            for (Map.Entry<String, String> e : maps.entrySet()) {
+                translated = translated.replace(String.valueOf((char) Integer.parseInt(e.getKey(), 16)), e.getValue());
+            }
+            t[c] = translated;
+        }
+        table = t;
     }
 
     private void loadMapFile() throws IOException {
         
+        Map<String, String> loaded = new HashMap<String, String>();
         InputStream is = UTFSort.class.getResourceAsStream("unicode_map.st");
         BufferedReader br = new BufferedReader(new InputStreamReader(is));
         String strLine;
@@ -45,23 +96,26 @@ public class UTFSort {
                 }
                 
             }
-            maps.put(l, r);
+            loaded.put(l, r);
             
         }
         is.close();
+        maps = Collections.unmodifiableMap(loaded);
     }
     
     public String translate(String old){
-        String newStr = old;
-        Iterator it = maps.keySet().iterator();
-        String key;
-        String c;
-        while(it.hasNext()){
-            key = (String) it.next();
-            c = (char)Integer.parseInt(key, 16) + "";
-            newStr = newStr.replace(c, maps.get(key));
+        String[] t = table;
+        StringBuilder sb = new StringBuilder(old.length() + 8);
+        for (int i = 0, n = old.length(); i < n; i++) {
+            char c = old.charAt(i);
+            String r = c < t.length ? t[c] : null;
+            if (r == null) {
+                sb.append(c);
+            } else {
+                sb.append(r);
+            }
         }
-        return newStr.replace("CH", "H|").trim();
+        return sb.toString().replace("CH", "H|").trim();
     }
     
     public void printMap(){
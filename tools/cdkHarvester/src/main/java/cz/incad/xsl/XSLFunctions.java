@@ -19,12 +19,13 @@ import org.apache.commons.httpclient.util.URIUtil;
  */
 public class XSLFunctions {
 
-    UTFSort utf_sort;
+    final UTFSort utf_sort;
 
+    /**
+     * Created by every transformation (exts:new()); the collation is shared
+     */
     public XSLFunctions() throws IOException {
-        utf_sort = new UTFSort();
-        utf_sort.init();
-
+        utf_sort = UTFSort.getInstance();
     }
 
     public String prepareCzech(String s) throws Exception {
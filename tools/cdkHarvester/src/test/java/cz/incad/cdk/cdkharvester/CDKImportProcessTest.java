@@ -268,13 +268,13 @@ public class CDKImportProcessTest extends TestCase {
 	public CDKHarvestIteration iterator() throws Exception {
 		StandardCDKHarvestIterationImpl iterator = EasyMock.createMockBuilder(StandardCDKHarvestIterationImpl.class)
 			.withConstructor("1900-01-01T00:00:00.002Z","http://localhost:8080/search","krameriusAdmin","krameriusAdmin")
-        	.addMockedMethod("solrResults")
+        	.addMockedMethod("solrResponse")
         	.createMock();
 		
-        EasyMock.expect(iterator.solrResults("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=1900-01-01T00:00:00.002Z")).andReturn(XMLUtils.parseDocument(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve1.xml"))).anyTimes();
-        EasyMock.expect(iterator.solrResults("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=2016-10-13T12:43:03.105Z")).andReturn(XMLUtils.parseDocument(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve2.xml"))).anyTimes();
-        EasyMock.expect(iterator.solrResults("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=2016-10-23T18:43:51.311Z")).andReturn(XMLUtils.parseDocument(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve3.xml"))).anyTimes();
-        EasyMock.expect(iterator.solrResults("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=2016-12-15T12:24:03.128Z")).andReturn(XMLUtils.parseDocument(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve4.xml"))).anyTimes();
+        EasyMock.expect(iterator.solrResponse("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=1900-01-01T00:00:00.002Z")).andReturn(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve1.xml")).anyTimes();
+        EasyMock.expect(iterator.solrResponse("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=2016-10-13T12:43:03.105Z")).andReturn(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve2.xml")).anyTimes();
+        EasyMock.expect(iterator.solrResponse("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=2016-10-23T18:43:51.311Z")).andReturn(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve3.xml")).anyTimes();
+        EasyMock.expect(iterator.solrResponse("http://localhost:8080/search/api/v4.6/cdk/prepare?rows=500&date=2016-12-15T12:24:03.128Z")).andReturn(StandardCDKHarvestIterationImplTest.class.getResourceAsStream("pidsretrieve4.xml")).anyTimes();
         
         return iterator;
 	}
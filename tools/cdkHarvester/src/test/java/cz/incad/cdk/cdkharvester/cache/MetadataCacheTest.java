@@ -0,0 +1,46 @@
+package cz.incad.cdk.cdkharvester.cache;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class MetadataCacheTest extends TestCase {
+
+	public void testCache() throws Exception {
+		MetadataCache<String, String> cache = new MetadataCache<>(60000);
+		final AtomicInteger loads = new AtomicInteger();
+		MetadataCache.Loader<String, IOException> loader = new MetadataCache.Loader<String, IOException>() {
+			@Override
+			public String load() throws IOException {
+				loads.incrementAndGet();
+				return null;
+			}
+		};
+		Assert.assertNull(cache.get("vc:1", loader));
+		// null is cached as well
+		Assert.assertNull(cache.get("vc:1", loader));
+		Assert.assertEquals(1, loads.get());
+
+		cache.invalidate("vc:1");
+		cache.get("vc:1", loader);
+		Assert.assertEquals(2, loads.get());
+		Assert.assertEquals(1, cache.getHits());
+	}
+
+	public void testExpiration() throws Exception {
+		MetadataCache<String, Integer> cache = new MetadataCache<>(20);
+		final AtomicInteger loads = new AtomicInteger();
+		MetadataCache.Loader<Integer, RuntimeException> loader = new MetadataCache.Loader<Integer, RuntimeException>() {
+			@Override
+			public Integer load() {
+				return loads.incrementAndGet();
+			}
+		};
+		Assert.assertEquals(Integer.valueOf(1), cache.get("key", loader));
+		Assert.assertEquals(Integer.valueOf(1), cache.get("key", loader));
+		Thread.sleep(40);
+		Assert.assertEquals(Integer.valueOf(2), cache.get("key", loader));
+	}
+}
@@ -0,0 +1,171 @@
+package cz.incad.cdk.cdkharvester.changeindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class IndexBatchTest extends TestCase {
+
+	public void testWindow() throws Exception {
+		final List<Set<String>> lookups = new ArrayList<>();
+		final List<JSONArray> updates = new ArrayList<>();
+		final List<String> created = new ArrayList<>();
+
+		IndexBatch batch = new IndexBatch(null, "http://localhost/select", "http://localhost/update", "vc:test", 3,
+				new IndexBatch.NewDocumentIndexer() {
+					@Override
+					public boolean index(String pid) throws CDKReplicationException {
+						created.add(pid);
+						return true;
+					}
+				}, listener(new ArrayList<String>(), new ArrayList<String>())) {
+
+			@Override
+			protected JSONObject findDocs(Set<String> pids) throws CDKReplicationException {
+				lookups.add(pids);
+				JSONArray docs = new JSONArray();
+				// uuid:1 has another collection, uuid:2 is already in the collection, uuid:3 has no collection
+				docs.put(new JSONObject().put("PID", "uuid:1").put("collection", new JSONArray().put("vc:other")));
+				docs.put(new JSONObject().put("PID", "uuid:2").put("collection", new JSONArray().put("vc:test")));
+				docs.put(new JSONObject().put("PID", "uuid:3"));
+				return new JSONObject().put("response", new JSONObject().put("docs", docs));
+			}
+
+			@Override
+			protected void update(JSONArray docs) throws CDKReplicationException {
+				updates.add(docs);
+			}
+		};
+
+		batch.add("uuid:1");
+		batch.add("uuid:2");
+		Assert.assertTrue(lookups.isEmpty());
+		batch.add("uuid:3");
+		Assert.assertEquals(1, lookups.size());
+		Assert.assertEquals(1, updates.size());
+		JSONArray docs = updates.get(0);
+		Assert.assertEquals(2, docs.length());
+		Assert.assertEquals("uuid:1", docs.getJSONObject(0).getString("PID"));
+		Assert.assertEquals("vc:test", docs.getJSONObject(0).getJSONObject("collection").getString("add"));
+		Assert.assertEquals("uuid:3", docs.getJSONObject(1).getString("PID"));
+		Assert.assertEquals("vc:test", docs.getJSONObject(1).getJSONObject("collection").getString("set"));
+		Assert.assertTrue(created.isEmpty());
+
+		batch.add("uuid:4");
+		batch.flush();
+		Assert.assertEquals(2, lookups.size());
+		Assert.assertEquals(1, updates.size());
+		Assert.assertEquals(1, created.size());
+		Assert.assertEquals("uuid:4", created.get(0));
+
+		// nothing to flush
+		batch.flush();
+		Assert.assertEquals(2, lookups.size());
+	}
+
+	public void testFailures() throws Exception {
+		final List<String> indexed = new ArrayList<>();
+		final List<String> failed = new ArrayList<>();
+		final List<String> created = new ArrayList<>();
+		final boolean[] lookupFails = { true };
+
+		IndexBatch batch = new IndexBatch(null, "http://localhost/select", "http://localhost/update", "vc:test", 4,
+				new IndexBatch.NewDocumentIndexer() {
+					@Override
+					public boolean index(String pid) throws CDKReplicationException {
+						if (pid.equals("uuid:3")) {
+							throw new CDKReplicationException("cannot transform " + pid);
+						}
+						created.add(pid);
+						// uuid:5 is handed over to the update writer
+						return !pid.equals("uuid:5");
+					}
+				}, listener(indexed, failed)) {
+
+			@Override
+			protected JSONObject findDocs(Set<String> pids) throws CDKReplicationException {
+				if (lookupFails[0]) {
+					throw new CDKReplicationException("solr is not available");
+				}
+				JSONArray docs = new JSONArray();
+				docs.put(new JSONObject().put("PID", "uuid:1").put("collection", new JSONArray().put("vc:other")));
+				docs.put(new JSONObject().put("PID", "uuid:2").put("collection", new JSONArray().put("vc:test")));
+				return new JSONObject().put("response", new JSONObject().put("docs", docs));
+			}
+
+			@Override
+			protected void update(JSONArray docs) throws CDKReplicationException {
+				throw new CDKReplicationException("update failed");
+			}
+		};
+
+		// failed lookup fails the whole window, not only the pid which filled it
+		for (String pid : new String[] { "uuid:1", "uuid:2", "uuid:3", "uuid:4" }) {
+			batch.add(pid);
+		}
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2", "uuid:3", "uuid:4"), failed);
+		Assert.assertTrue(indexed.isEmpty());
+
+		// failed update fails the updated pids only; new documents are indexed one by one
+		failed.clear();
+		lookupFails[0] = false;
+		for (String pid : new String[] { "uuid:1", "uuid:2", "uuid:3", "uuid:4", "uuid:5" }) {
+			batch.add(pid);
+		}
+		batch.flush();
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:3"), failed);
+		Assert.assertEquals(Arrays.asList("uuid:2", "uuid:4"), indexed);
+		Assert.assertEquals(Arrays.asList("uuid:4", "uuid:5"), created);
+	}
+
+	public void testIdleFlush() throws Exception {
+		final List<String> indexed = Collections.synchronizedList(new ArrayList<String>());
+		IndexBatch batch = new IndexBatch(null, "http://localhost/select", "http://localhost/update", "vc:test", 100,
+				50, new IndexBatch.NewDocumentIndexer() {
+					@Override
+					public boolean index(String pid) throws CDKReplicationException {
+						return true;
+					}
+				}, listener(indexed, new ArrayList<String>())) {
+
+			@Override
+			protected JSONObject findDocs(Set<String> pids) throws CDKReplicationException {
+				return new JSONObject().put("response", new JSONObject().put("docs", new JSONArray()));
+			}
+		};
+		batch.add("uuid:1");
+		batch.add("uuid:2");
+		// partial window does not wait for the next pids
+		for (int i = 0; i < 100 && indexed.size() < 2; i++) {
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2"), indexed);
+		batch.add("uuid:3");
+		batch.close();
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2", "uuid:3"), indexed);
+	}
+
+	private static IndexBatch.Listener listener(final List<String> indexed, final List<String> failed) {
+		return new IndexBatch.Listener() {
+			@Override
+			public void indexed(Collection<String> pids) {
+				indexed.addAll(pids);
+			}
+
+			@Override
+			public void failed(String pid, Exception e) {
+				failed.add(pid);
+			}
+		};
+	}
+}
@@ -0,0 +1,239 @@
+package cz.incad.cdk.cdkharvester.changeindex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.kramerius.utils.IOUtils;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StreamingUpdateWriterTest extends TestCase {
+
+	private HttpServer server;
+	private final List<byte[]> requests = Collections.synchronizedList(new ArrayList<byte[]>());
+	private final List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+	private volatile int status = 200;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/update", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				encodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				IOUtils.copyStreams(exchange.getRequestBody(), bos);
+				requests.add(bos.toByteArray());
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		});
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(0);
+		super.tearDown();
+	}
+
+	private String endpoint() {
+		return "http://localhost:" + this.server.getAddress().getPort() + "/update";
+	}
+
+	public void testDocumentsLimit() throws Exception {
+		final List<String> fallback = new ArrayList<>();
+		final List<String> indexed = new ArrayList<>();
+		StreamingUpdateWriter writer = new StreamingUpdateWriter(client(), endpoint(), 2, 1024 * 1024, 0,
+				fallback(fallback), listener(indexed, new ArrayList<String>()));
+		writer.add("uuid:1", source("uuid:1"));
+		Assert.assertTrue(this.requests.isEmpty());
+		writer.add("uuid:2", source("uuid:2"));
+		Assert.assertEquals(1, this.requests.size());
+		writer.add("uuid:3", source("uuid:3"));
+		writer.close();
+		Assert.assertEquals(2, this.requests.size());
+		Assert.assertTrue(fallback.isEmpty());
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2", "uuid:3"), indexed);
+
+		Document first = parse(this.requests.get(0));
+		Assert.assertEquals("add", first.getDocumentElement().getNodeName());
+		Assert.assertEquals(2, first.getElementsByTagName("doc").getLength());
+		Assert.assertEquals("uuid:2", first.getElementsByTagName("field").item(1).getTextContent());
+		Document second = parse(this.requests.get(1));
+		Assert.assertEquals(1, second.getElementsByTagName("doc").getLength());
+		// documents are streamed, the length of the request is not known in advance
+		Assert.assertEquals(Arrays.asList("chunked", "chunked"), this.encodings);
+	}
+
+	public void testUnavailableEndpoint() throws Exception {
+		int port;
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			port = socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+		final List<String> fallback = new ArrayList<>();
+		final List<String> indexed = new ArrayList<>();
+		StreamingUpdateWriter writer = new StreamingUpdateWriter(client(), "http://localhost:" + port + "/update",
+				100, 1024 * 1024, 0, fallback(fallback), listener(indexed, new ArrayList<String>()));
+		// more documents than the sender queue; the failed request must not block the writer
+		for (int i = 0; i < 40; i++) {
+			writer.add("uuid:" + i, source("uuid:" + i));
+		}
+		writer.close();
+		Assert.assertEquals(40, fallback.size());
+		Assert.assertEquals(40, indexed.size());
+	}
+
+	public void testIdleFlush() throws Exception {
+		StreamingUpdateWriter writer = new StreamingUpdateWriter(client(), endpoint(), 100, 1024 * 1024, 50,
+				fallback(new ArrayList<String>()), listener(new ArrayList<String>(), new ArrayList<String>()));
+		writer.add("uuid:1", source("uuid:1"));
+		for (int i = 0; i < 100 && this.requests.isEmpty(); i++) {
+			Thread.sleep(20);
+		}
+		Assert.assertEquals(1, this.requests.size());
+		writer.close();
+		Assert.assertEquals(1, this.requests.size());
+	}
+
+	public void testFailedRequest() throws Exception {
+		this.status = 400;
+		final List<String> fallback = new ArrayList<>();
+		final List<String> indexed = new ArrayList<>();
+		StreamingUpdateWriter writer = new StreamingUpdateWriter(client(), endpoint(), 100, 1024 * 1024, 0,
+				fallback(fallback), listener(indexed, new ArrayList<String>()));
+		writer.add("uuid:1", source("uuid:1"));
+		writer.add("uuid:2", source("uuid:2"));
+		writer.close();
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2"), fallback);
+		Assert.assertEquals(Arrays.asList("uuid:1", "uuid:2"), indexed);
+	}
+
+	public void testIdleFailure() throws Exception {
+		this.status = 500;
+		final List<String> indexed = Collections.synchronizedList(new ArrayList<String>());
+		final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+		StreamingUpdateWriter writer = new StreamingUpdateWriter(client(), endpoint(), 100, 1024 * 1024, 50,
+				new StreamingUpdateWriter.Fallback() {
+					@Override
+					public void index(String pid) throws CDKReplicationException {
+						if (pid.equals("uuid:1")) {
+							throw new CDKReplicationException("cannot index " + pid);
+						}
+					}
+				}, listener(indexed, failed));
+		writer.add("uuid:1", source("uuid:1"));
+		writer.add("uuid:2", source("uuid:2"));
+		for (int i = 0; i < 100 && indexed.isEmpty(); i++) {
+			Thread.sleep(20);
+		}
+		// failure of the idle flush is reported against its own documents, next document is not affected
+		Assert.assertEquals(Arrays.asList("uuid:1"), failed);
+		Assert.assertEquals(Arrays.asList("uuid:2"), indexed);
+		this.status = 200;
+		writer.add("uuid:3", source("uuid:3"));
+		writer.close();
+		Assert.assertEquals(Arrays.asList("uuid:2", "uuid:3"), indexed);
+	}
+
+	public void testConcurrentAdd() throws Exception {
+		final List<String> indexed = Collections.synchronizedList(new ArrayList<String>());
+		final StreamingUpdateWriter writer = new StreamingUpdateWriter(client(), endpoint(), 7, 1024 * 1024, 0,
+				fallback(new ArrayList<String>()), listener(indexed, new ArrayList<String>()));
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < 25; i++) {
+						writer.add("uuid:" + thread + "-" + i, source("uuid:" + thread + "-" + i));
+					}
+				} catch (CDKReplicationException e) {
+					throw new IllegalStateException(e);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		writer.close();
+		Assert.assertEquals(100, indexed.size());
+		int docs = 0;
+		for (byte[] request : new ArrayList<>(this.requests)) {
+			docs += parse(request).getElementsByTagName("doc").getLength();
+		}
+		Assert.assertEquals(100, docs);
+	}
+
+	private static HarvestClient client() {
+		return new HarvestClient(2000, 2000, 4, false);
+	}
+
+	private static IndexBatch.Listener listener(final List<String> indexed, final List<String> failed) {
+		return new IndexBatch.Listener() {
+			@Override
+			public void indexed(Collection<String> pids) {
+				indexed.addAll(pids);
+			}
+
+			@Override
+			public void failed(String pid, Exception e) {
+				failed.add(pid);
+			}
+		};
+	}
+
+	private static StreamingUpdateWriter.Fallback fallback(final List<String> pids) {
+		return new StreamingUpdateWriter.Fallback() {
+			@Override
+			public void index(String pid) throws CDKReplicationException {
+				pids.add(pid);
+			}
+		};
+	}
+
+	private static StreamingUpdateWriter.DocumentSource source(final String pid) {
+		return new StreamingUpdateWriter.DocumentSource() {
+			@Override
+			public void write(Result result) throws TransformerException {
+				String xml = "<add><doc><field name=\"PID\">" + pid + "</field></doc></add>";
+				InputStream is = new ByteArrayInputStream(xml.getBytes());
+				TransformerFactory.newInstance().newTransformer().transform(new StreamSource(is), result);
+			}
+		};
+	}
+
+	private static Document parse(byte[] bytes) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+	}
+}
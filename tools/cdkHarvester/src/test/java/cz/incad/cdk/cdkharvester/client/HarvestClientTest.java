@@ -0,0 +1,164 @@
+package cz.incad.cdk.cdkharvester.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cz.incad.kramerius.utils.IOUtils;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HarvestClientTest extends TestCase {
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.executor = Executors.newFixedThreadPool(8);
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int current = active.incrementAndGet();
+				synchronized (maxActive) {
+					maxActive.set(Math.max(maxActive.get(), current));
+				}
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				active.decrementAndGet();
+				respond(exchange, "slow");
+			}
+		});
+		this.server.createContext("/item", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, "<item/>");
+			}
+		});
+		this.server.start();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+		super.tearDown();
+	}
+
+	private static void respond(HttpExchange exchange, String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		os.write(bytes);
+		os.close();
+	}
+
+	private String url(String path) {
+		return "http://localhost:" + this.server.getAddress().getPort() + path;
+	}
+
+	public void testConnectionsLimit() throws Exception {
+		final HarvestClient client = new HarvestClient(2000, 2000, 2, false);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			threads.add(new Thread(() -> {
+				Assert.assertEquals("slow", client.resource(url("/slow")).get(String.class));
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertTrue(this.maxActive.get() <= 2);
+
+		List<HostStatistics> stats = client.getStatistics();
+		Assert.assertEquals(1, stats.size());
+		HostStatistics host = stats.get(0);
+		Assert.assertEquals(6, host.getRequests());
+		Assert.assertEquals(0, host.getFailures());
+		Assert.assertEquals(0, host.getActive());
+		Assert.assertEquals(2, host.getMaxActive());
+		Assert.assertTrue(host.getWaits() > 0);
+	}
+
+	public void testReleasedWithEntity() throws Exception {
+		HarvestClient client = new HarvestClient(2000, 2000, 1, false);
+		ClientResponse response = client.resource(url("/item")).get(ClientResponse.class);
+		HostStatistics host = client.getStatistics().get(0);
+		// entity is not read yet
+		Assert.assertEquals(1, host.getActive());
+		response.close();
+		Assert.assertEquals(0, host.getActive());
+
+		InputStream is = client.resource(url("/item")).get(InputStream.class);
+		Assert.assertEquals(1, host.getActive());
+		Assert.assertEquals("<item/>", IOUtils.readAsString(is, StandardCharsets.UTF_8, false));
+		// released at the end of the entity
+		Assert.assertEquals(0, host.getActive());
+		is.close();
+		Assert.assertEquals(0, host.getActive());
+		Assert.assertEquals(2, host.getRequests());
+	}
+
+	public void testAcquireTimeout() throws Exception {
+		HarvestClient client = new HarvestClient(2000, 2000, 1, false, 100);
+		ClientResponse held = client.resource(url("/item")).get(ClientResponse.class);
+		try {
+			// nested request to the same host while the only connection is held
+			client.resource(url("/item")).get(String.class);
+			Assert.fail("expecting acquire timeout");
+		} catch (ClientHandlerException e) {
+			// expected
+		} finally {
+			held.close();
+		}
+		HostStatistics host = client.getStatistics().get(0);
+		Assert.assertEquals(1, host.getFailures());
+		Assert.assertEquals(0, host.getActive());
+		Assert.assertEquals("<item/>", client.resource(url("/item")).get(String.class));
+	}
+
+	public void testFailure() throws Exception {
+		int port;
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			port = socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+		HarvestClient client = new HarvestClient(2000, 2000, 1, false);
+		try {
+			client.resource("http://localhost:" + port + "/item").get(String.class);
+			Assert.fail("expecting connection failure");
+		} catch (ClientHandlerException e) {
+			// expected
+		}
+		HostStatistics host = client.getStatistics().get(0);
+		Assert.assertEquals(1, host.getFailures());
+		Assert.assertEquals(0, host.getActive());
+	}
+}
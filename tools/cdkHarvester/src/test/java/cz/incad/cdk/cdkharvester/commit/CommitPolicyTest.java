@@ -0,0 +1,74 @@
+package cz.incad.cdk.cdkharvester.commit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class CommitPolicyTest extends TestCase {
+
+	public void testDocumentsCount() throws CDKReplicationException {
+		RecordingCommitter committer = new RecordingCommitter();
+		DocumentsCountCommitPolicy policy = new DocumentsCountCommitPolicy(3);
+		for (int i = 0; i < 7; i++) {
+			policy.documentReplicated(committer);
+		}
+		Assert.assertEquals(2, committer.commits.size());
+		policy.harvestFinished(committer);
+		Assert.assertEquals(3, committer.commits.size());
+		Assert.assertFalse(committer.commits.contains(Boolean.TRUE));
+		Assert.assertEquals("", policy.getUpdateParameters());
+	}
+
+	public void testSoft() throws CDKReplicationException {
+		RecordingCommitter committer = new RecordingCommitter();
+		DocumentsCountCommitPolicy policy = new DocumentsCountCommitPolicy(1, true);
+		policy.documentReplicated(committer);
+		policy.harvestFinished(committer);
+		Assert.assertEquals(2, committer.commits.size());
+		Assert.assertFalse(committer.commits.contains(Boolean.FALSE));
+	}
+
+	public void testTimeInterval() throws CDKReplicationException {
+		final long[] time = new long[] { 1000 };
+		RecordingCommitter committer = new RecordingCommitter();
+		TimeIntervalCommitPolicy policy = new TimeIntervalCommitPolicy(500) {
+			@Override
+			protected long now() {
+				return time[0];
+			}
+		};
+		policy.documentReplicated(committer);
+		Assert.assertTrue(committer.commits.isEmpty());
+		time[0] = 1600;
+		policy.documentReplicated(committer);
+		policy.documentReplicated(committer);
+		Assert.assertEquals(1, committer.commits.size());
+		policy.harvestFinished(committer);
+		Assert.assertEquals(2, committer.commits.size());
+	}
+
+	public void testCommitWithin() throws CDKReplicationException {
+		RecordingCommitter committer = new RecordingCommitter();
+		CommitWithinPolicy policy = new CommitWithinPolicy(10000);
+		for (int i = 0; i < 10; i++) {
+			policy.documentReplicated(committer);
+		}
+		Assert.assertTrue(committer.commits.isEmpty());
+		Assert.assertEquals("commitWithin=10000", policy.getUpdateParameters());
+		policy.harvestFinished(committer);
+		Assert.assertEquals(1, committer.commits.size());
+	}
+
+	private static class RecordingCommitter implements CommitPolicy.Committer {
+
+		private List<Boolean> commits = new ArrayList<>();
+
+		@Override
+		public void commit(boolean softCommit) throws CDKReplicationException {
+			this.commits.add(softCommit);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package cz.incad.cdk.cdkharvester.fingerprint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class FingerprintStoreTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.file = File.createTempFile("cdk", ".fingerprints");
+		this.file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.file.delete();
+	}
+
+	public void testReopen() throws IOException {
+		FingerprintStore store = new FingerprintStore(this.file);
+		store.put(new Fingerprint("uuid:1", "aa", "\"e1\"", null, "2016-10-13T12:43:03.000Z"));
+		store.put(new Fingerprint("uuid:2", "bb", null, "Thu, 13 Oct 2016 12:43:03 GMT", null));
+		store.put(new Fingerprint("uuid:1", "cc", null, null, null));
+		store.close();
+
+		// torn write
+		FileOutputStream fos = new FileOutputStream(this.file, true);
+		fos.write("uuid:3\tdd".getBytes(StandardCharsets.UTF_8));
+		fos.close();
+
+		FingerprintStore reopened = new FingerprintStore(this.file);
+		Assert.assertEquals(2, reopened.size());
+		Assert.assertEquals("cc", reopened.get("uuid:1").getHash());
+		Assert.assertNull(reopened.get("uuid:1").getEtag());
+		Assert.assertEquals("Thu, 13 Oct 2016 12:43:03 GMT", reopened.get("uuid:2").getLastModified());
+		Assert.assertNull(reopened.get("uuid:3"));
+		reopened.close();
+	}
+
+	public void testCompaction() throws IOException {
+		FingerprintStore store = new FingerprintStore(this.file);
+		for (int i = 0; i < 3000; i++) {
+			store.put(new Fingerprint("uuid:" + (i % 10), "h" + i, null, null, null));
+		}
+		store.close();
+		Assert.assertTrue(Files.readAllLines(this.file.toPath()).size() < 1100);
+
+		FingerprintStore reopened = new FingerprintStore(this.file);
+		Assert.assertEquals(10, reopened.size());
+		Assert.assertEquals("h2999", reopened.get("uuid:9").getHash());
+		reopened.remove("uuid:9");
+		reopened.close();
+		Assert.assertEquals(9, Files.readAllLines(this.file.toPath()).size());
+	}
+}
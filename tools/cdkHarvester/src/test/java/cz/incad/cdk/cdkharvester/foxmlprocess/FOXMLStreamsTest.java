@@ -0,0 +1,96 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class FOXMLStreamsTest extends TestCase {
+
+	private static final String FOXML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<foxml:digitalObject xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\" PID=\"uuid:1\" VERSION=\"1.1\">"
+			+ "<foxml:datastream ID=\"IMG_THUMB\" CONTROL_GROUP=\"M\">"
+			+ "<foxml:datastreamVersion ID=\"IMG_THUMB.0\" MIMETYPE=\"image/jpeg\">"
+			+ "<foxml:contentLocation REF=\"http://localhost/thumb\" TYPE=\"URL\"/>"
+			+ "</foxml:datastreamVersion></foxml:datastream>"
+			+ "<foxml:datastream ID=\"DC\"><foxml:datastreamVersion ID=\"DC.0\">"
+			+ "<foxml:xmlContent>Příliš žluťoučký kůň</foxml:xmlContent>"
+			+ "</foxml:datastreamVersion></foxml:datastream>"
+			+ "</foxml:digitalObject>";
+
+	public void testChain() throws Exception {
+		// streaming unit renaming contentLocation TYPE and DOM unit adding attribute to root element
+		StreamingProcessFOXML streaming = new AbstractStreamingProcessFOXML() {
+			@Override
+			public XMLEventReader process(String url, String pid, XMLEventReader reader) throws Exception {
+				return new EventReaderDelegate(reader) {
+					@Override
+					public XMLEvent nextEvent() throws javax.xml.stream.XMLStreamException {
+						XMLEvent event = super.nextEvent();
+						if (event.isStartElement()
+								&& event.asStartElement().getName().getLocalPart().equals("contentLocation")) {
+							return FOXMLStreams.eventFactory().createStartElement(
+									event.asStartElement().getName(), null, event.asStartElement().getNamespaces());
+						}
+						return event;
+					}
+				};
+			}
+		};
+		ProcessFOXML dom = new ProcessFOXML() {
+			@Override
+			public byte[] process(String url, String pid, InputStream is) throws Exception {
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setNamespaceAware(true);
+				Document document = factory.newDocumentBuilder().parse(is);
+				document.getDocumentElement().setAttribute("TEST", pid);
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document),
+						new StreamResult(bos));
+				return bos.toByteArray();
+			}
+		};
+
+		XMLEventReader reader = FOXMLStreams.reader(new ByteArrayInputStream(FOXML.getBytes("UTF-8")));
+		reader = FOXMLStreams.streaming(streaming).process("http://localhost", "uuid:1", reader);
+		reader = FOXMLStreams.streaming(dom).process("http://localhost", "uuid:1", reader);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FOXMLStreams.write(reader, bos);
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document result = factory.newDocumentBuilder().parse(new ByteArrayInputStream(bos.toByteArray()));
+		Assert.assertEquals("uuid:1", result.getDocumentElement().getAttribute("TEST"));
+		Element location = (Element) result.getElementsByTagNameNS("info:fedora/fedora-system:def/foxml#",
+				"contentLocation").item(0);
+		Assert.assertFalse(location.hasAttribute("TYPE"));
+		Assert.assertEquals("Příliš žluťoučký kůň", result.getElementsByTagNameNS(
+				"info:fedora/fedora-system:def/foxml#", "xmlContent").item(0).getTextContent());
+	}
+
+	public void testStreamingUnitBytesContract() throws Exception {
+		StreamingProcessFOXML identity = new AbstractStreamingProcessFOXML() {
+			@Override
+			public XMLEventReader process(String url, String pid, XMLEventReader reader) throws Exception {
+				return reader;
+			}
+		};
+		Assert.assertNull(identity.process("http://localhost", "uuid:1", (InputStream) null));
+		byte[] bytes = identity.process("http://localhost", "uuid:1", new ByteArrayInputStream(FOXML.getBytes("UTF-8")));
+		Document result = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+		Assert.assertEquals("uuid:1", result.getDocumentElement().getAttribute("PID"));
+	}
+}
@@ -0,0 +1,115 @@
+package cz.incad.cdk.cdkharvester.foxmlprocess;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.codec.binary.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StreamingImageReplaceProcessTest extends TestCase {
+
+	private static final String NS = "info:fedora/fedora-system:def/foxml#";
+
+	private static final String FOXML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<foxml:digitalObject xmlns:foxml=\"info:fedora/fedora-system:def/foxml#\" PID=\"uuid:1\" VERSION=\"1.1\">"
+			+ "<foxml:datastream ID=\"IMG_THUMB\" CONTROL_GROUP=\"E\" STATE=\"A\">"
+			+ "<foxml:datastreamVersion ID=\"IMG_THUMB.0\" MIMETYPE=\"image/jpeg\">"
+			+ "<foxml:contentDigest TYPE=\"DISABLED\"/>"
+			+ "<foxml:contentLocation REF=\"http://imageserver/thumb.jpg\" TYPE=\"URL\"/>"
+			+ "</foxml:datastreamVersion></foxml:datastream>"
+			+ "<foxml:datastream ID=\"IMG_FULL\" CONTROL_GROUP=\"R\" STATE=\"A\">"
+			+ "<foxml:datastreamVersion ID=\"IMG_FULL.0\" MIMETYPE=\"image/jpeg\">"
+			+ "<foxml:contentDigest TYPE=\"DISABLED\"/>"
+			+ "<foxml:contentLocation REF=\"http://imageserver/full.jpg\" TYPE=\"URL\"/>"
+			+ "</foxml:datastreamVersion></foxml:datastream>"
+			+ "<foxml:datastream ID=\"IMG_PREVIEW\" CONTROL_GROUP=\"E\" STATE=\"A\">"
+			+ "<foxml:datastreamVersion ID=\"IMG_PREVIEW.0\" MIMETYPE=\"image/jpeg\">"
+			+ "<foxml:contentLocation REF=\"http://localhost/search/img?uuid=uuid:1&amp;action=GETRAW&amp;stream=IMG_PREVIEW\" TYPE=\"URL\"/>"
+			+ "</foxml:datastreamVersion></foxml:datastream>"
+			+ "</foxml:digitalObject>";
+
+	public void testReplace() throws Exception {
+		final byte[] thumb = new byte[200 * 1024 + 7];
+		new Random(1).nextBytes(thumb);
+		final File file = File.createTempFile("thumb", ".jpg");
+		Files.write(file.toPath(), thumb);
+
+		StreamingImageReplaceProcess process = new StreamingImageReplaceProcess() {
+			@Override
+			protected Future<File> fetch(String imgUrl) {
+				Assert.assertEquals("http://localhost/search/img?uuid=uuid:1&action=GETRAW&stream=IMG_THUMB", imgUrl);
+				return CompletableFuture.completedFuture(file);
+			}
+		};
+		Document document = parse(process.process("http://localhost/search", "uuid:1",
+				new ByteArrayInputStream(FOXML.getBytes("UTF-8"))));
+		// spooled file is deleted
+		Assert.assertFalse(file.exists());
+
+		Element thumbStream = datastream(document, "IMG_THUMB");
+		Assert.assertEquals("M", thumbStream.getAttribute("CONTROL_GROUP"));
+		Element version = (Element) thumbStream.getElementsByTagNameNS(NS, "datastreamVersion").item(0);
+		Assert.assertEquals("" + thumb.length, version.getAttribute("SIZE"));
+		Assert.assertEquals(0, version.getElementsByTagNameNS(NS, "contentLocation").getLength());
+		Assert.assertEquals(1, version.getElementsByTagNameNS(NS, "contentDigest").getLength());
+		String encoded = version.getElementsByTagNameNS(NS, "binaryContent").item(0).getTextContent();
+		Assert.assertTrue(java.util.Arrays.equals(thumb, Base64.decodeBase64(encoded)));
+
+		// redirected
+		Element fullStream = datastream(document, "IMG_FULL");
+		Assert.assertEquals("E", fullStream.getAttribute("CONTROL_GROUP"));
+		NodeList children = fullStream.getElementsByTagNameNS(NS, "datastreamVersion").item(0).getChildNodes();
+		Assert.assertEquals(1, children.getLength());
+		Assert.assertEquals("http://localhost/search/img?uuid=uuid:1&action=GETRAW&stream=IMG_FULL",
+				((Element) children.item(0)).getAttribute("REF"));
+		Assert.assertEquals("URL", ((Element) children.item(0)).getAttribute("TYPE"));
+
+		// already expected reference
+		Assert.assertEquals("E", datastream(document, "IMG_PREVIEW").getAttribute("CONTROL_GROUP"));
+	}
+
+	public void testFailedDownload() throws Exception {
+		StreamingImageReplaceProcess process = new StreamingImageReplaceProcess() {
+			@Override
+			protected Future<File> fetch(String imgUrl) {
+				CompletableFuture<File> future = new CompletableFuture<>();
+				future.completeExceptionally(new FileNotFoundException("Server returned HTTP response code: 404"));
+				return future;
+			}
+		};
+		Document document = parse(process.process("http://localhost/search", "uuid:1",
+				new ByteArrayInputStream(FOXML.getBytes("UTF-8"))));
+		Element thumbStream = datastream(document, "IMG_THUMB");
+		Assert.assertEquals("E", thumbStream.getAttribute("CONTROL_GROUP"));
+		Element location = (Element) thumbStream.getElementsByTagNameNS(NS, "contentLocation").item(0);
+		Assert.assertEquals("http://imageserver/thumb.jpg", location.getAttribute("REF"));
+		Assert.assertEquals(0, thumbStream.getElementsByTagNameNS(NS, "binaryContent").getLength());
+	}
+
+	private static Element datastream(Document document, String id) {
+		NodeList datastreams = document.getElementsByTagNameNS(NS, "datastream");
+		for (int i = 0; i < datastreams.getLength(); i++) {
+			Element elm = (Element) datastreams.item(i);
+			if (elm.getAttribute("ID").equals(id)) return elm;
+		}
+		return null;
+	}
+
+	private static Document parse(byte[] bytes) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,85 @@
+package cz.incad.cdk.cdkharvester.iterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cz.incad.kramerius.utils.IOUtils;
+
+/**
+ * Prepare endpoint pages (pidsretrieve*.xml fixtures): previous DOM + XPath extraction and the StAX parser.
+ * Allocation per page is reported by the gc profiler (gc.alloc.rate.norm).
+ * <p>
+ * Run by {@link #main(String[])} from the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrepareResponseParserBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Fixtures {
+
+		private List<byte[]> pages;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			this.pages = new ArrayList<>();
+			for (int i = 1; i <= 4; i++) {
+				InputStream is = PrepareResponseParserBenchmark.class
+						.getResourceAsStream("/cz/incad/cdk/cdkharvester/pidsretrieve" + i + ".xml");
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				IOUtils.copyStreams(is, bos);
+				this.pages.add(bos.toByteArray());
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int index = 0;
+
+		InputStream next(Fixtures fixtures) {
+			byte[] page = fixtures.pages.get(this.index);
+			this.index = (this.index + 1) % fixtures.pages.size();
+			return new ByteArrayInputStream(page);
+		}
+	}
+
+	@Benchmark
+	public List<CDKHarvestIterationItem> domXPath(Fixtures fixtures, Cursor cursor) throws Exception {
+		return PrepareResponseParserTest.xpathItems(cursor.next(fixtures));
+	}
+
+	@Benchmark
+	public List<CDKHarvestIterationItem> stax(Fixtures fixtures, Cursor cursor) throws Exception {
+		return PrepareResponseParser.parse(cursor.next(fixtures));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PrepareResponseParserBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,71 @@
+package cz.incad.cdk.cdkharvester.iterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class PrepareResponseParserTest extends TestCase {
+
+	public void testSameItemsAsXPath() throws Exception {
+		int[] expected = { 500, 500, 184, 0 };
+		for (int i = 1; i <= 4; i++) {
+			String resource = "/cz/incad/cdk/cdkharvester/pidsretrieve" + i + ".xml";
+			List<CDKHarvestIterationItem> reference = xpathItems(getClass().getResourceAsStream(resource));
+			List<CDKHarvestIterationItem> parsed = PrepareResponseParser.parse(getClass().getResourceAsStream(resource));
+			Assert.assertEquals(expected[i - 1], parsed.size());
+			Assert.assertEquals(reference.size(), parsed.size());
+			for (int j = 0; j < parsed.size(); j++) {
+				Assert.assertEquals(reference.get(j).getPid(), parsed.get(j).getPid());
+				Assert.assertEquals(reference.get(j).getTimestamp(), parsed.get(j).getTimestamp());
+			}
+		}
+	}
+
+	public void testNumFound() throws Exception {
+		PrepareResponseParser parser = new PrepareResponseParser(
+				getClass().getResourceAsStream("/cz/incad/cdk/cdkharvester/pidsretrieve2.xml"));
+		Assert.assertNotNull(parser.next());
+		Assert.assertEquals(684, parser.getNumFound());
+		parser.close();
+	}
+
+	public void testFormattedResponse() throws Exception {
+		String xml = "<response>\n  <lst name=\"responseHeader\"><int name=\"status\">0</int></lst>\n"
+				+ "  <result name=\"response\" numFound=\"1\" start=\"0\">\n    <doc>\n"
+				+ "      <str name=\"PID\">uuid:1</str>\n      <date name=\"modified_date\">2016-10-13T11:22:40.788Z</date>\n"
+				+ "    </doc>\n  </result>\n</response>";
+		List<CDKHarvestIterationItem> items = PrepareResponseParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+		Assert.assertEquals(1, items.size());
+		Assert.assertEquals("uuid:1", items.get(0).getPid());
+		Assert.assertEquals("2016-10-13T11:22:40.788Z", items.get(0).getTimestamp());
+	}
+
+	// original dom based implementation
+	static List<CDKHarvestIterationItem> xpathItems(InputStream is) throws Exception {
+		List<CDKHarvestIterationItem> items = new ArrayList<>();
+		Document solrDom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+		XPath xpath = XPathFactory.newInstance().newXPath();
+		NodeList nodes = (NodeList) xpath.compile("/response/result/doc/str[@name='PID']").evaluate(solrDom,
+				XPathConstants.NODESET);
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			String pid = node.getFirstChild().getNodeValue();
+			String to = node.getNextSibling().getFirstChild().getNodeValue();
+			items.add(new CDKHarvestIterationItemImpl(pid, to));
+		}
+		return items;
+	}
+}
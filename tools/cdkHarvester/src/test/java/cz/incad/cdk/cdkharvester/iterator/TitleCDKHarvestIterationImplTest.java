@@ -0,0 +1,169 @@
+package cz.incad.cdk.cdkharvester.iterator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class TitleCDKHarvestIterationImplTest extends TestCase {
+
+	private static final String K4 = "http://localhost:8080/search";
+
+	public void testCrawl() throws Exception {
+		TreeIteration iterator = new TreeIteration("uuid:root", 3, null);
+		iterator.init();
+
+		Set<String> pids = new HashSet<>();
+		String last = null;
+		while (iterator.hasNext()) {
+			CDKHarvestIterationItem item = iterator.next();
+			Assert.assertTrue(pids.add(item.getPid()));
+			last = item.getPid();
+		}
+		// root + 4 volumes + 4*5 issues + 4*5*6 pages + context
+		Assert.assertEquals(1 + 4 + 20 + 120 + 1, pids.size());
+		Assert.assertEquals("uuid:parent", last);
+		Assert.assertTrue(iterator.maxInFlight.get() <= 3);
+		Assert.assertNull(iterator.next());
+	}
+
+	public void testModels() throws Exception {
+		TreeIteration iterator = new TreeIteration("uuid:root", 2, null);
+		iterator.init();
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+		// pages are never asked for children
+		Assert.assertEquals(1 + 4 + 20, iterator.getChildrenRequests());
+		Assert.assertEquals(120, iterator.getSkippedRequests());
+		Assert.assertEquals(2, iterator.getPrunedPages());
+		Assert.assertEquals(Integer.valueOf(4), iterator.getModelCounts().get("periodicalvolume"));
+		Assert.assertEquals(Integer.valueOf(20), iterator.getModelCounts().get("periodicalitem"));
+		Assert.assertEquals(Integer.valueOf(120), iterator.getModelCounts().get("page"));
+	}
+
+	public void testFailure() throws Exception {
+		TreeIteration iterator = new TreeIteration("uuid:root", 2, "uuid:root_1_2");
+		iterator.init();
+		try {
+			while (iterator.hasNext()) {
+				iterator.next();
+			}
+			Assert.fail("expecting failure");
+		} catch (CDKHarvestIterationException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	public void testBoundedQueue() throws Exception {
+		TreeIteration iterator = new TreeIteration("uuid:root", 3, null, 4);
+		iterator.init();
+		Set<String> pids = new HashSet<>();
+		while (iterator.hasNext()) {
+			Assert.assertTrue(pids.add(iterator.next().getPid()));
+			// slow consumer; the crawl waits for the free place in the queue
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(1 + 4 + 20 + 120 + 1, pids.size());
+	}
+
+	public void testCancel() throws Exception {
+		TreeIteration iterator = new TreeIteration("uuid:root", 2, null, 2);
+		iterator.init();
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(iterator.hasNext());
+			iterator.next();
+		}
+		// consumer stops; blocked crawling threads are released
+		iterator.cancel();
+		Thread.sleep(300);
+		int requests = iterator.getChildrenRequests();
+		Thread.sleep(300);
+		Assert.assertEquals(requests, iterator.getChildrenRequests());
+		Assert.assertTrue(requests < 1 + 4 + 20);
+	}
+
+	/**
+	 * Synthetic tree; root has 4 volumes, each of them 5 issues, each of them 6 pages.
+	 * The first issue contains two pages of pdf document as well.
+	 */
+	static class TreeIteration extends TitleCDKHarvestIterationImpl {
+
+		private final String failing;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+
+		TreeIteration(String pid, int threads, String failing) throws CDKHarvestIterationException {
+			this(pid, threads, failing, DEFAULT_QUEUE_SIZE);
+		}
+
+		TreeIteration(String pid, int threads, String failing, int queueSize) throws CDKHarvestIterationException {
+			super(K4, pid, threads, Arrays.asList("page"), queueSize);
+			this.failing = failing;
+		}
+
+		@Override
+		public JSONObject itemResult(String urlStr) throws IOException {
+			JSONObject parent = new JSONObject();
+			parent.put("pid", "uuid:parent");
+			JSONObject self = new JSONObject();
+			self.put("pid", "uuid:root");
+			JSONArray path = new JSONArray();
+			path.put(parent);
+			path.put(self);
+			JSONArray context = new JSONArray();
+			context.put(path);
+			JSONObject item = new JSONObject();
+			item.put("context", context);
+			return item;
+		}
+
+		@Override
+		public JSONArray childrenResults(String urlStr) throws IOException {
+			int current = this.inFlight.incrementAndGet();
+			try {
+				while (true) {
+					int max = this.maxInFlight.get();
+					if (current <= max || this.maxInFlight.compareAndSet(max, current)) break;
+				}
+				String pid = urlStr.substring((K4 + "/api/v5.0/item/").length(), urlStr.length() - "/children".length());
+				if (pid.equals(this.failing)) {
+					throw new IOException("failing " + pid);
+				}
+				Thread.sleep(2);
+				int level = pid.split("_").length - 1;
+				if (level >= 3) {
+					throw new IOException("leaf requested " + pid);
+				}
+				String[] models = { "periodicalvolume", "periodicalitem", "page" };
+				JSONArray children = new JSONArray();
+				for (int i = 0; i < level + 4; i++) {
+					JSONObject child = new JSONObject();
+					child.put("pid", pid + "_" + i);
+					child.put("model", models[level]);
+					children.put(child);
+				}
+				if (pid.equals("uuid:root_0_0")) {
+					for (int i = 1; i <= 2; i++) {
+						JSONObject child = new JSONObject();
+						child.put("pid", pid + "/@" + i);
+						child.put("model", "page");
+						children.put(child);
+					}
+				}
+				return children;
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				this.inFlight.decrementAndGet();
+			}
+		}
+	}
+}
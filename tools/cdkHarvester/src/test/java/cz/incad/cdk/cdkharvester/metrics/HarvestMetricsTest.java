@@ -0,0 +1,102 @@
+package cz.incad.cdk.cdkharvester.metrics;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import cz.incad.kramerius.utils.IOUtils;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HarvestMetricsTest extends TestCase {
+
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMaxNanos());
+		long p50 = histogram.getPercentileNanos(50);
+		// bucket upper bound; at most twice the real value
+		Assert.assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(50));
+		Assert.assertTrue(p50 <= TimeUnit.MILLISECONDS.toNanos(100));
+		Assert.assertEquals(histogram.getMaxNanos(), histogram.getPercentileNanos(100));
+	}
+
+	public void testStages() throws Exception {
+		HarvestMetrics metrics = new HarvestMetrics();
+		metrics.record(HarvestMetrics.FOXML, TimeUnit.MILLISECONDS.toNanos(20));
+		metrics.record(HarvestMetrics.FOXML, TimeUnit.MILLISECONDS.toNanos(40));
+		metrics.error(HarvestMetrics.FOXML, new SocketTimeoutException());
+		InputStream is = metrics.counting(HarvestMetrics.FOXML, new ByteArrayInputStream(new byte[1000]));
+		IOUtils.copyStreams(is, new java.io.ByteArrayOutputStream());
+		metrics.replicated();
+
+		StageStatistics foxml = metrics.getStage(HarvestMetrics.FOXML);
+		Assert.assertEquals(2, foxml.getCount());
+		Assert.assertEquals(1, foxml.getErrors());
+		Assert.assertEquals(1000, foxml.getBytes());
+		Assert.assertEquals(30.0, foxml.getMeanMillis(), 0.001);
+		Assert.assertEquals(Long.valueOf(1), metrics.getErrors().get("TIMEOUT"));
+
+		File f = File.createTempFile("metrics", ".json");
+		try {
+			metrics.setDumpFile(f);
+			metrics.dump();
+			JSONObject json = new JSONObject(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+			Assert.assertEquals(1, json.getInt("replicated"));
+			Assert.assertEquals("foxml", json.getJSONArray("stages").getJSONObject(0).getString("name"));
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testConcurrentDumps() throws Exception {
+		final HarvestMetrics metrics = new HarvestMetrics();
+		File dir = Files.createTempDirectory("metrics").toFile();
+		File f = new File(dir, "cdk_metrics.json");
+		metrics.setDumpFile(f);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			threads.add(new Thread(() -> {
+				try {
+					for (int j = 0; j < 50; j++) {
+						metrics.replicated();
+						metrics.dump();
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			Assert.assertTrue(failures.toString(), failures.isEmpty());
+			JSONObject json = new JSONObject(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+			Assert.assertEquals("jvm", json.getString("scope"));
+			// no temporary files are left
+			Assert.assertEquals(1, dir.listFiles().length);
+		} finally {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package cz.incad.cdk.cdkharvester.postponed;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class BufferedPostponedItemsListImplTest extends TestCase {
+
+	public void testConcurrentPostpone() throws Exception {
+		File tempFile = File.createTempFile("test", "list");
+		tempFile.deleteOnExit();
+		final BufferedPostponedItemsListImpl impl = new BufferedPostponedItemsListImpl(tempFile, 1024, 10);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		Future<?>[] futures = new Future<?>[4];
+		for (int t = 0; t < futures.length; t++) {
+			final int thread = t;
+			futures[t] = executor.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					impl.postpone("uuid:" + thread + "-" + i);
+				}
+				return null;
+			});
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		Assert.assertEquals(4000, impl.getCount());
+
+		Set<String> pids = new HashSet<>();
+		CDKHarvestIteration replay = impl.replay();
+		replay.init();
+		while (replay.hasNext()) {
+			Assert.assertTrue(pids.add(replay.next().getPid()));
+		}
+		Assert.assertFalse(replay.hasNext());
+		Assert.assertEquals(4000, pids.size());
+		Assert.assertTrue(pids.contains("uuid:3-999"));
+		impl.close();
+	}
+
+	public void testAppend() throws Exception {
+		File tempFile = File.createTempFile("test", "list");
+		tempFile.deleteOnExit();
+		PostponedItemsListImpl old = new PostponedItemsListImpl(tempFile);
+		old.postpone("uuid:first");
+
+		BufferedPostponedItemsListImpl impl = new BufferedPostponedItemsListImpl(tempFile, 1024, 0);
+		impl.postpone("uuid:second");
+		impl.close();
+
+		CDKHarvestIteration replay = BufferedPostponedItemsListImpl.replay(tempFile);
+		Assert.assertEquals("uuid:first", replay.next().getPid());
+		Assert.assertEquals("uuid:second", replay.next().getPid());
+		Assert.assertNull(replay.next());
+	}
+}
@@ -0,0 +1,136 @@
+package cz.incad.cdk.cdkharvester.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItemImpl;
+import cz.incad.cdk.cdkharvester.queue.WorkItem.State;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class WorkQueueTest extends TestCase {
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.directory = File.createTempFile("workqueue", "");
+		this.directory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = this.directory.listFiles();
+		if (files != null) {
+			for (File f : files) f.delete();
+		}
+		this.directory.delete();
+	}
+
+	public void testRestore() throws IOException {
+		WorkQueue queue = new WorkQueue(this.directory, 1024);
+		for (int i = 0; i < 5; i++) {
+			queue.add("uuid:" + i, "2016-10-13T12:43:03." + i + "Z");
+		}
+		queue.done(queue.poll());
+		queue.failed(queue.poll());
+		queue.poll();
+		queue.close();
+
+		WorkQueue restored = new WorkQueue(this.directory, 1024);
+		Assert.assertEquals(1, restored.getCount(State.DONE));
+		Assert.assertEquals(1, restored.getCount(State.FAILED));
+		// in flight item is pending again
+		Assert.assertEquals(3, restored.getPendingCount());
+		Assert.assertEquals("uuid:2", restored.poll().getPid());
+		Assert.assertEquals(1, restored.requeueFailed());
+		Assert.assertTrue(restored.contains("uuid:0", "2016-10-13T12:43:03.0Z"));
+		Assert.assertFalse(restored.isFinished());
+		restored.close();
+	}
+
+	public void testCompaction() throws IOException {
+		WorkQueue queue = new WorkQueue(this.directory, 256);
+		List<WorkItem> items = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			items.add(queue.add("uuid:" + i, null));
+		}
+		Assert.assertTrue(queue.getSegmentCount() > 3);
+		queue.failed(queue.poll());
+		WorkItem item;
+		while ((item = queue.poll()) != null) {
+			queue.done(item);
+		}
+		queue.finish();
+		queue.compact();
+		// first segment contains failed item
+		Assert.assertTrue(queue.getSegmentCount() <= 3);
+		queue.close();
+
+		WorkQueue restored = new WorkQueue(this.directory, 256);
+		Assert.assertTrue(restored.isFinished());
+		Assert.assertEquals(0, restored.getPendingCount());
+		Assert.assertEquals(Arrays.asList("uuid:0"), pids(restored.getItems(State.FAILED)));
+		restored.close();
+	}
+
+	public void testResumeIteration() throws Exception {
+		WorkQueue queue = new WorkQueue(this.directory, 4096);
+		WorkQueueIteration iteration = new WorkQueueIteration(queue, source("uuid:a", "uuid:b", "uuid:c", "uuid:d"));
+		iteration.init();
+		iteration.done(iteration.next());
+		iteration.done(iteration.next());
+		// crash while replicating uuid:c
+		Assert.assertEquals("uuid:c", iteration.next().getPid());
+		queue.close();
+
+		queue = new WorkQueue(this.directory, 4096);
+		iteration = new WorkQueueIteration(queue, source("uuid:a", "uuid:b", "uuid:c", "uuid:d"));
+		iteration.init();
+		List<String> pids = new ArrayList<>();
+		while (iteration.hasNext()) {
+			CDKHarvestIterationItem next = iteration.next();
+			pids.add(next.getPid());
+			iteration.done(next);
+		}
+		Assert.assertEquals(Arrays.asList("uuid:c", "uuid:d"), pids);
+		Assert.assertTrue(queue.isFinished());
+		queue.delete();
+		Assert.assertFalse(this.directory.exists());
+	}
+
+	private static List<String> pids(List<WorkItem> items) {
+		List<String> pids = new ArrayList<>();
+		for (WorkItem item : items) {
+			pids.add(item.getPid());
+		}
+		return pids;
+	}
+
+	private static CDKHarvestIteration source(String... pids) {
+		final Iterator<String> it = Arrays.asList(pids).iterator();
+		return new CDKHarvestIteration() {
+
+			@Override
+			public void init() throws CDKHarvestIterationException {
+			}
+
+			@Override
+			public boolean hasNext() throws CDKHarvestIterationException {
+				return it.hasNext();
+			}
+
+			@Override
+			public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
+				return new CDKHarvestIterationItemImpl(it.next(), null);
+			}
+		};
+	}
+}
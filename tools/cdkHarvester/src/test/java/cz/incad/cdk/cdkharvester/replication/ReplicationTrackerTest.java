@@ -0,0 +1,98 @@
+package cz.incad.cdk.cdkharvester.replication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItemImpl;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ReplicationTrackerTest extends TestCase {
+
+	private final List<String> completed = new ArrayList<>();
+	private final List<String> failed = new ArrayList<>();
+	private final List<String> watermarks = new ArrayList<>();
+
+	private ReplicationTracker tracker() {
+		return new ReplicationTracker(new ReplicationTracker.Listener() {
+			@Override
+			public void completed(CDKHarvestIterationItem item) {
+				completed.add(item.getPid());
+			}
+
+			@Override
+			public void failed(CDKHarvestIterationItem item, Exception e) {
+				failed.add(item.getPid());
+			}
+
+			@Override
+			public void watermark(CDKHarvestIterationItem item) {
+				watermarks.add(item.getTimestamp());
+			}
+		});
+	}
+
+	public void testBufferedItems() {
+		ReplicationTracker tracker = tracker();
+		CDKHarvestIterationItem first = item(1);
+		CDKHarvestIterationItem second = item(2);
+		CDKHarvestIterationItem third = item(3);
+		tracker.register(first);
+		tracker.register(second);
+		tracker.register(third);
+
+		// first is buffered in the index batch; the others are done
+		tracker.buffered("uuid:1");
+		tracker.replicated(first);
+		tracker.replicated(second);
+		tracker.replicated(third);
+		Assert.assertEquals(Arrays.asList("uuid:2", "uuid:3"), this.completed);
+		Assert.assertTrue(this.watermarks.isEmpty());
+
+		tracker.indexed(Collections.singletonList("uuid:1"));
+		Assert.assertEquals(Arrays.asList("uuid:2", "uuid:3", "uuid:1"), this.completed);
+		Assert.assertEquals(Arrays.asList(timestamp(3)), this.watermarks);
+		Assert.assertEquals(0, tracker.getActiveCount());
+	}
+
+	public void testFailedItems() {
+		ReplicationTracker tracker = tracker();
+		CDKHarvestIterationItem first = item(1);
+		CDKHarvestIterationItem second = item(2);
+		CDKHarvestIterationItem third = item(3);
+		tracker.register(first);
+		tracker.register(second);
+		tracker.register(third);
+
+		tracker.replicated(first);
+		tracker.failed(second, new CDKReplicationException("expected failure"));
+		// buffered documents of the third item cannot be indexed
+		tracker.buffered("uuid:3");
+		tracker.replicated(third);
+		tracker.failed("uuid:3", new CDKReplicationException("expected failure"));
+		Assert.assertEquals(Arrays.asList("uuid:2", "uuid:3"), this.failed);
+		Assert.assertEquals(2, tracker.getFailedCount());
+		// never moved behind the failed item
+		Assert.assertEquals(Arrays.asList(timestamp(1)), this.watermarks);
+
+		List<CDKHarvestIterationItem> retry = tracker.retry();
+		Assert.assertEquals(Arrays.asList(second, third), retry);
+		Assert.assertEquals(0, tracker.getFailedCount());
+		tracker.replicated(third);
+		Assert.assertEquals(Arrays.asList(timestamp(1)), this.watermarks);
+		tracker.replicated(second);
+		Assert.assertEquals(Arrays.asList(timestamp(1), timestamp(3)), this.watermarks);
+	}
+
+	private static CDKHarvestIterationItem item(int i) {
+		return new CDKHarvestIterationItemImpl("uuid:" + i, timestamp(i));
+	}
+
+	private static String timestamp(int i) {
+		return String.format("2017-01-01T00:00:%02d.000Z", i);
+	}
+}
@@ -0,0 +1,116 @@
+package cz.incad.cdk.cdkharvester.replication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import cz.incad.cdk.cdkharvester.CDKReplicationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIteration;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationException;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItem;
+import cz.incad.cdk.cdkharvester.iterator.CDKHarvestIterationItemImpl;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ReplicationWorkersTest extends TestCase {
+
+	public void testWatermark() {
+		CompletionWatermark<String> watermark = new CompletionWatermark<>();
+		long first = watermark.register();
+		long second = watermark.register();
+		long third = watermark.register();
+
+		Assert.assertNull(watermark.complete(third, "3"));
+		Assert.assertNull(watermark.complete(second, "2"));
+		Assert.assertEquals(-1, watermark.getWatermark());
+		Assert.assertEquals("3", watermark.complete(first, "1"));
+		Assert.assertEquals(2, watermark.getWatermark());
+		Assert.assertEquals(0, watermark.getPending());
+	}
+
+	public void testProcess() throws Exception {
+		final List<String> timestamps = Collections.synchronizedList(new ArrayList<String>());
+		final Random random = new Random();
+		ReplicationWorkers workers = new ReplicationWorkers(4, 4);
+		int processed = workers.process(iteration(200), new ReplicationWorkers.ReplicationTask() {
+			@Override
+			public void replicate(CDKHarvestIterationItem item) throws CDKReplicationException {
+				sleep(random.nextInt(5));
+			}
+		}, new ReplicationWorkers.WatermarkListener() {
+			@Override
+			public void watermark(CDKHarvestIterationItem item) throws IOException {
+				timestamps.add(item.getTimestamp());
+			}
+		});
+		Assert.assertEquals(200, processed);
+		Assert.assertEquals(timestamp(199), timestamps.get(timestamps.size() - 1));
+		List<String> sorted = new ArrayList<>(timestamps);
+		Collections.sort(sorted);
+		Assert.assertEquals(sorted, timestamps);
+	}
+
+	public void testFailure() throws Exception {
+		final List<String> timestamps = Collections.synchronizedList(new ArrayList<String>());
+		ReplicationWorkers workers = new ReplicationWorkers(3, 2);
+		try {
+			workers.process(iteration(100), new ReplicationWorkers.ReplicationTask() {
+				@Override
+				public void replicate(CDKHarvestIterationItem item) throws CDKReplicationException {
+					if (item.getPid().equals("uuid:50")) {
+						throw new CDKReplicationException("expected failure");
+					}
+				}
+			}, new ReplicationWorkers.WatermarkListener() {
+				@Override
+				public void watermark(CDKHarvestIterationItem item) throws IOException {
+					timestamps.add(item.getTimestamp());
+				}
+			});
+			Assert.fail("expecting failure");
+		} catch (CDKReplicationException e) {
+			Assert.assertEquals("expected failure", e.getMessage());
+		}
+		// never moved behind the failed item
+		Assert.assertFalse(timestamps.isEmpty());
+		Assert.assertTrue(timestamps.get(timestamps.size() - 1).compareTo(timestamp(50)) < 0);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static String timestamp(int i) {
+		return String.format("2016-10-13T12:%02d:%02d.000Z", i / 60, i % 60);
+	}
+
+	private static CDKHarvestIteration iteration(int size) {
+		final LinkedList<CDKHarvestIterationItem> items = new LinkedList<>();
+		for (int i = 0; i < size; i++) {
+			items.add(new CDKHarvestIterationItemImpl("uuid:" + i, timestamp(i)));
+		}
+		return new CDKHarvestIteration() {
+
+			@Override
+			public void init() throws CDKHarvestIterationException {
+			}
+
+			@Override
+			public boolean hasNext() throws CDKHarvestIterationException {
+				return !items.isEmpty();
+			}
+
+			@Override
+			public CDKHarvestIterationItem next() throws CDKHarvestIterationException {
+				return items.removeFirst();
+			}
+		};
+	}
+}
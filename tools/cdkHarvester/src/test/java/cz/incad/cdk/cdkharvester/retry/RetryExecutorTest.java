@@ -0,0 +1,99 @@
+package cz.incad.cdk.cdkharvester.retry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.jersey.api.client.ClientHandlerException;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class RetryExecutorTest extends TestCase {
+
+	private static RetryExecutor executor(CircuitBreaker breaker) {
+		Map<ErrorClass, RetryPolicy> policies = new EnumMap<>(ErrorClass.class);
+		policies.put(ErrorClass.TIMEOUT, new RetryPolicy(3, 1, 10));
+		policies.put(ErrorClass.NOT_FOUND, new RetryPolicy(0, 0, 10));
+		policies.put(ErrorClass.OTHER, new RetryPolicy(1, 1, 10));
+		return new RetryExecutor(policies, breaker);
+	}
+
+	public void testClassify() {
+		Assert.assertEquals(ErrorClass.TIMEOUT, ErrorClass.classify(new ClientHandlerException(new SocketTimeoutException())));
+		Assert.assertEquals(ErrorClass.NOT_FOUND, ErrorClass.classify(new FileNotFoundException()));
+		Assert.assertEquals(ErrorClass.OTHER, ErrorClass.classify(new IOException()));
+		Assert.assertEquals(ErrorClass.SERVER_ERROR, ErrorClass.classify(503));
+		Assert.assertEquals(ErrorClass.CLIENT_ERROR, ErrorClass.classify(403));
+	}
+
+	public void testRetries() throws Exception {
+		RetryExecutor executor = executor(new CircuitBreaker("test", 100, 10, 10));
+		final AtomicInteger calls = new AtomicInteger();
+		String result = executor.call("timeouts", new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				if (calls.incrementAndGet() <= 3) {
+					throw new SocketTimeoutException();
+				}
+				return "ok";
+			}
+		});
+		Assert.assertEquals("ok", result);
+		Assert.assertEquals(4, calls.get());
+
+		calls.set(0);
+		try {
+			executor.call("not found", new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					calls.incrementAndGet();
+					throw new FileNotFoundException();
+				}
+			});
+			Assert.fail("expecting exception");
+		} catch (FileNotFoundException e) {
+			Assert.assertEquals(1, calls.get());
+		}
+	}
+
+	public void testBreaker() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 100, 1000);
+		RetryExecutor executor = executor(breaker);
+		final AtomicInteger calls = new AtomicInteger();
+		long start = System.currentTimeMillis();
+		executor.call("timeouts", new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				if (calls.incrementAndGet() <= 2) {
+					throw new SocketTimeoutException();
+				}
+				return "ok";
+			}
+		});
+		// second failure opened the circuit; the third call waited for it
+		Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		breaker.failure();
+		breaker.failure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		breaker.await();
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.failure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	public void testBackoff() {
+		RetryPolicy policy = new RetryPolicy(5, 100, 1000);
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.backoff(3);
+			Assert.assertTrue(delay >= 200 && delay <= 400);
+			Assert.assertTrue(policy.backoff(10) <= 1000);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package cz.incad.cdk.cdkharvester.scheduler;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.easymock.EasyMock;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.cdk.cdkharvester.client.RateLimiter;
+import cz.incad.kramerius.virtualcollections.CDKSource;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class HarvestSchedulerTest extends TestCase {
+
+	private static CDKSource source(String url, String label) {
+		CDKSource source = EasyMock.createMock(CDKSource.class);
+		EasyMock.expect(source.getUrl()).andReturn(url).anyTimes();
+		EasyMock.expect(source.getLabel()).andReturn(label).anyTimes();
+		EasyMock.expect(source.getPid()).andReturn("vc:" + label).anyTimes();
+		EasyMock.replay(source);
+		return source;
+	}
+
+	public void testRun() throws Exception {
+		BaseConfiguration conf = new BaseConfiguration();
+		conf.setProperty("cdk.scheduler.workers", 2);
+		conf.setProperty("cdk.scheduler.big.example.org.workers", 8);
+		conf.setProperty("cdk.scheduler.writesPerSecond", 50);
+		HarvestScheduler scheduler = new HarvestScheduler(conf, new HarvestClient(1000, 1000, 2, false));
+
+		CDKSource big = source("http://big.example.org/search", "big");
+		CDKSource small = source("http://small.example.org/search", "small");
+		CDKSource broken = source("http://broken.example.org/search", "broken");
+
+		final CountDownLatch running = new CountDownLatch(3);
+		final Map<String, Integer> workers = new ConcurrentHashMap<>();
+		Map<String, Throwable> failures = scheduler.run(Arrays.asList(big, small, broken),
+				new HarvestScheduler.SourceHarvest() {
+					@Override
+					public void harvest(CDKSource source, int w, RateLimiter writeLimiter) throws Exception {
+						workers.put(source.getLabel(), w);
+						Assert.assertNotNull(writeLimiter);
+						// all sources run at the same time
+						running.countDown();
+						Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+						if (source.getLabel().equals("broken")) {
+							throw new IllegalStateException("broken source");
+						}
+					}
+				});
+		Assert.assertEquals(Integer.valueOf(8), workers.get("big"));
+		Assert.assertEquals(Integer.valueOf(2), workers.get("small"));
+		Assert.assertEquals(1, failures.size());
+		Assert.assertTrue(failures.get("http://broken.example.org/search") instanceof IllegalStateException);
+	}
+
+	public void testRateLimiter() throws Exception {
+		RateLimiter limiter = new RateLimiter(100);
+		long start = System.nanoTime();
+		for (int i = 0; i < 120; i++) {
+			limiter.acquire();
+		}
+		// one second of permits in the bucket, the rest waits
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("" + millis, millis >= 150);
+	}
+}
@@ -0,0 +1,64 @@
+package cz.incad.cdk.cdkharvester.state;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import cz.incad.cdk.cdkharvester.state.StateReporter.StateItem;
+import cz.incad.kramerius.virtualcollections.CDKStateSupport.CDKState;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class StateReporterTest extends TestCase {
+
+	public void testBatches() throws Exception {
+		final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<String> pids = Collections.synchronizedList(new ArrayList<String>());
+		StateReporter reporter = new StateReporter(new StateReporter.Sender() {
+			@Override
+			public void send(List<StateItem> items) throws Exception {
+				batches.add(items.size());
+				for (StateItem item : items) {
+					pids.add(item.getPid());
+				}
+			}
+		}, 100, 10, 1000, 0);
+		for (int i = 0; i < 25; i++) {
+			Assert.assertTrue(reporter.report("uuid:" + i, "2016-10-13T12:43:03.000Z", CDKState.HARVESTED));
+		}
+		reporter.close(5000);
+		Assert.assertEquals(25, reporter.getSent());
+		Assert.assertEquals(0, reporter.getDropped());
+		Assert.assertEquals(25, pids.size());
+		Assert.assertEquals("uuid:0", pids.get(0));
+		for (Integer size : batches) {
+			Assert.assertTrue(size <= 10);
+		}
+		Assert.assertTrue(batches.size() < 25);
+	}
+
+	public void testDrop() throws Exception {
+		final CountDownLatch sending = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		StateReporter reporter = new StateReporter(new StateReporter.Sender() {
+			@Override
+			public void send(List<StateItem> items) throws Exception {
+				sending.countDown();
+				release.await();
+			}
+		}, 2, 1, 10, 0);
+		reporter.report("uuid:0", null, CDKState.HARVESTED);
+		sending.await();
+		// sender is blocked; the queue takes two states
+		Assert.assertTrue(reporter.report("uuid:1", null, CDKState.HARVESTED));
+		Assert.assertTrue(reporter.report("uuid:2", null, CDKState.HARVESTED));
+		long start = System.currentTimeMillis();
+		Assert.assertFalse(reporter.report("uuid:3", null, CDKState.HARVESTED));
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		Assert.assertEquals(1, reporter.getDropped());
+		release.countDown();
+		reporter.close(5000);
+		Assert.assertEquals(3, reporter.getSent());
+	}
+}
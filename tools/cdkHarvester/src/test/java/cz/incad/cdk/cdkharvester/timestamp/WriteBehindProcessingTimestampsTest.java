@@ -0,0 +1,72 @@
+package cz.incad.cdk.cdkharvester.timestamp;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class WriteBehindProcessingTimestampsTest extends TestCase {
+
+	public void testCoalesce() throws IOException {
+		MemoryTimestamps store = new MemoryTimestamps();
+		WriteBehindProcessingTimestamps writeBehind = new WriteBehindProcessingTimestamps(store, 3, Long.MAX_VALUE);
+		LocalDateTime time = store.parse("2016-10-13T12:43:03.000Z");
+		writeBehind.setTimestamp("vc:source", time.plusSeconds(1));
+		writeBehind.setTimestamp("vc:source", time.plusSeconds(2));
+		Assert.assertTrue(store.writes.isEmpty());
+		// pending value is visible
+		Assert.assertEquals(time.plusSeconds(2), writeBehind.getTimestamp("vc:source"));
+
+		writeBehind.setTimestamp("vc:source", time.plusSeconds(3));
+		Assert.assertEquals(1, store.writes.size());
+		Assert.assertEquals(time.plusSeconds(3), store.getTimestamp("vc:source"));
+
+		writeBehind.setTimestamp("vc:source", time.plusSeconds(4));
+		Assert.assertEquals(1, store.writes.size());
+		writeBehind.close();
+		Assert.assertEquals(2, store.writes.size());
+		Assert.assertEquals(time.plusSeconds(4), store.getTimestamp("vc:source"));
+	}
+
+	public void testInterval() throws IOException {
+		MemoryTimestamps store = new MemoryTimestamps();
+		WriteBehindProcessingTimestamps writeBehind = new WriteBehindProcessingTimestamps(store, 1000, 0);
+		LocalDateTime time = store.parse("2016-10-13T12:43:03.000Z");
+		writeBehind.setTimestamp("vc:source", time);
+		Assert.assertEquals(1, store.writes.size());
+	}
+
+	public void testDiscard() throws IOException {
+		MemoryTimestamps store = new MemoryTimestamps();
+		WriteBehindProcessingTimestamps writeBehind = new WriteBehindProcessingTimestamps(store, 1000, Long.MAX_VALUE);
+		writeBehind.open();
+		LocalDateTime time = store.parse("2016-10-13T12:43:03.000Z");
+		writeBehind.setTimestamp("vc:source", time);
+		writeBehind.discard();
+		writeBehind.flush();
+		Assert.assertTrue(store.writes.isEmpty());
+		Assert.assertNull(writeBehind.getTimestamp("vc:source"));
+	}
+
+	static class MemoryTimestamps extends AbstractProcessingTimestamps {
+
+		private final Map<String, LocalDateTime> times = new HashMap<>();
+		private final List<String> writes = new ArrayList<>();
+
+		@Override
+		public LocalDateTime getTimestamp(String pid) throws IOException {
+			return this.times.get(pid);
+		}
+
+		@Override
+		public void setTimestamp(String pid, LocalDateTime date) throws IOException {
+			this.times.put(pid, date);
+			this.writes.add(pid);
+		}
+	}
+}
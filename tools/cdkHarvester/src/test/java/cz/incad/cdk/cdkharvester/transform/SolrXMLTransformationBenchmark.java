@@ -0,0 +1,134 @@
+package cz.incad.cdk.cdkharvester.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cz.incad.kramerius.utils.IOUtils;
+
+/**
+ * Throughput of the solrxml transformation over the solrxml.zip fixtures: one shared synchronized transformer
+ * (previous design), templates with transformer per thread and templates compiled by XSLTC.
+ * <p>
+ * Run by {@link #main(String[])} from the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SolrXMLTransformationBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Fixtures {
+
+		private File solrFolder;
+		private List<byte[]> solrxmls;
+		private Map<String, Object> parameters;
+
+		private Transformer shared;
+		private SolrXMLTransformation templates;
+		private SolrXMLTransformation compiled;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			Map<String, byte[]> fixtures = SolrXMLTransformationTest.fixtures(Integer.MAX_VALUE);
+			this.solrFolder = File.createTempFile("solr", "");
+			this.solrFolder.delete();
+			this.solrFolder.mkdirs();
+			for (String pid : fixtures.keySet()) {
+				IOUtils.saveToFile("<response><result><doc><arr name=\"collection\"><str>vc:other</str></arr></doc></result></response>"
+						.getBytes(StandardCharsets.UTF_8), new File(this.solrFolder, pid.replace(':', '_')));
+			}
+			this.solrxmls = new ArrayList<>(fixtures.values());
+			this.parameters = new LinkedHashMap<>();
+			this.parameters.put("collectionPid", "vc:test");
+			this.parameters.put("solr_url", this.solrFolder.toURI().toString());
+
+			this.shared = TransformerFactory.newInstance().newTransformer(
+					new StreamSource(SolrXMLTransformation.class.getResourceAsStream(SolrXMLTransformation.STYLESHEET)));
+			this.templates = new SolrXMLTransformation(false);
+			this.compiled = new SolrXMLTransformation(true);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			IOUtils.cleanDirectory(this.solrFolder);
+			this.solrFolder.delete();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int index = 0;
+
+		byte[] next(Fixtures fixtures) {
+			byte[] solrxml = fixtures.solrxmls.get(this.index);
+			this.index = (this.index + 1) % fixtures.solrxmls.size();
+			return solrxml;
+		}
+	}
+
+	@Benchmark
+	public String sharedTransformer(Fixtures fixtures, Cursor cursor) throws Exception {
+		StringWriter writer = new StringWriter();
+		synchronized (fixtures.shared) {
+			for (Map.Entry<String, Object> entry : fixtures.parameters.entrySet()) {
+				fixtures.shared.setParameter(entry.getKey(), entry.getValue());
+			}
+			fixtures.shared.transform(new StreamSource(new ByteArrayInputStream(cursor.next(fixtures))),
+					new StreamResult(writer));
+		}
+		return writer.toString();
+	}
+
+	@Benchmark
+	public String templatesPerThread(Fixtures fixtures, Cursor cursor) throws Exception {
+		StringWriter writer = new StringWriter();
+		fixtures.templates.transform(new StreamSource(new ByteArrayInputStream(cursor.next(fixtures))),
+				new StreamResult(writer), fixtures.parameters);
+		return writer.toString();
+	}
+
+	@Benchmark
+	public String compiledPerThread(Fixtures fixtures, Cursor cursor) throws Exception {
+		StringWriter writer = new StringWriter();
+		fixtures.compiled.transform(new StreamSource(new ByteArrayInputStream(cursor.next(fixtures))),
+				new StreamResult(writer), fixtures.parameters);
+		return writer.toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SolrXMLTransformationBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,141 @@
+package cz.incad.cdk.cdkharvester.transform;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import cz.incad.cdk.cdkharvester.ZipIteration;
+import cz.incad.kramerius.utils.IOUtils;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class SolrXMLTransformationTest extends TestCase {
+
+	private File solrFolder;
+	private Map<String, byte[]> fixtures;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.fixtures = fixtures(50);
+		// documents of the current index; the transformation reads collections of the object (solr_url/pid)
+		this.solrFolder = File.createTempFile("solr", "");
+		this.solrFolder.delete();
+		this.solrFolder.mkdirs();
+		for (String pid : this.fixtures.keySet()) {
+			IOUtils.saveToFile("<response><result><doc><arr name=\"collection\"><str>vc:other</str></arr></doc></result></response>"
+					.getBytes(StandardCharsets.UTF_8), new File(this.solrFolder, pid.replace(':', '_')));
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		IOUtils.cleanDirectory(this.solrFolder);
+		this.solrFolder.delete();
+	}
+
+	public void testParallel() throws Exception {
+		final Map<String, byte[]> fixtures = this.fixtures;
+		final SolrXMLTransformation transformation = new SolrXMLTransformation(false);
+		final Map<String, String> expected = new HashMap<>();
+		for (Map.Entry<String, byte[]> entry : fixtures.entrySet()) {
+			expected.put(entry.getKey(), transform(transformation, entry.getValue()));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Map<String, String>>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executor.submit(() -> {
+					Map<String, String> outputs = new HashMap<>();
+					for (Map.Entry<String, byte[]> entry : fixtures.entrySet()) {
+						outputs.put(entry.getKey(), transform(transformation, entry.getValue()));
+					}
+					return outputs;
+				}));
+			}
+			for (Future<Map<String, String>> future : futures) {
+				Assert.assertEquals(expected, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		String output = expected.values().iterator().next();
+		Assert.assertTrue(output.contains("<field name=\"collection\">vc:other</field>"));
+		Assert.assertTrue(output.contains("<field name=\"collection\">vc:test</field>"));
+	}
+
+	public void testCompiled() throws Exception {
+		SolrXMLTransformation interpreted = new SolrXMLTransformation(false);
+		SolrXMLTransformation compiled = new SolrXMLTransformation(true);
+		Assert.assertSame(compiled.getTemplates(), SolrXMLTransformation.templates(SolrXMLTransformation.STYLESHEET, true));
+		for (byte[] solrxml : this.fixtures.values()) {
+			Assert.assertEquals(normalize(transform(interpreted, solrxml)), normalize(transform(compiled, solrxml)));
+		}
+	}
+
+	public void testNewDocument() throws Exception {
+		SolrXMLTransformation transformation = new SolrXMLTransformation(false);
+		CachingURIResolver resolver = new CachingURIResolver(null, 10, 60000);
+		transformation.setURIResolver(resolver);
+		Map.Entry<String, byte[]> fixture = this.fixtures.entrySet().iterator().next();
+		// document missing in the index; collections are not looked up
+		String output = transform(transformation, fixture.getValue(), fixture.getKey());
+		Assert.assertTrue(output.contains("<field name=\"collection\">vc:test</field>"));
+		Assert.assertFalse(output.contains("vc:other"));
+		// other uris are left to the processor
+		Assert.assertTrue(transform(transformation, fixture.getValue()).contains("vc:other"));
+		Assert.assertNull(resolver.resolve(this.solrFolder.toURI().toString(), null));
+		Assert.assertEquals(0, resolver.getLoads());
+	}
+
+	private String transform(SolrXMLTransformation transformation, byte[] solrxml) throws Exception {
+		return transform(transformation, solrxml, "");
+	}
+
+	private String transform(SolrXMLTransformation transformation, byte[] solrxml, String newPid) throws Exception {
+		Map<String, Object> parameters = new LinkedHashMap<>();
+		parameters.put("collectionPid", "vc:test");
+		parameters.put("solr_url", this.solrFolder.toURI().toString());
+		parameters.put("new_pid", newPid);
+		StringWriter writer = new StringWriter();
+		transformation.transform(new StreamSource(new ByteArrayInputStream(solrxml)), new StreamResult(writer),
+				parameters);
+		return writer.toString();
+	}
+
+	private static String normalize(String xml) {
+		return xml.replaceAll(">\\s+<", "><").replaceAll("<\\?xml[^>]*\\?>", "").trim();
+	}
+
+	/**
+	 * Returns solrxml fixtures (solrxml.zip) by pid
+	 * @param max Maximal number of fixtures
+	 */
+	static Map<String, byte[]> fixtures(final int max) throws IOException {
+		final Map<String, byte[]> fixtures = new LinkedHashMap<>();
+		new ZipIteration().iterateSOLRXML(new ZipIteration.ZipIterationCall() {
+			@Override
+			public void onIterate(String name, String pid, ZipInputStream stream) throws IOException {
+				if (fixtures.size() >= max) return;
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				IOUtils.copyStreams(stream, bos);
+				fixtures.put(pid, bos.toByteArray());
+			}
+		});
+		return fixtures;
+	}
+}
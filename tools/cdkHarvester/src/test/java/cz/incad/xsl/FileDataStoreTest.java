@@ -0,0 +1,111 @@
+package cz.incad.xsl;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import cz.incad.cdk.cdkharvester.client.HarvestClient;
+import cz.incad.kramerius.utils.IOUtils;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class FileDataStoreTest extends TestCase {
+
+	private static final String UUID = "0eaa6730-9068-11dd-97de-000d606f5dc6";
+
+	private File root;
+	private HttpServer server;
+	private HarvestClient client;
+	private final AtomicInteger requests = new AtomicInteger();
+
+	@Override
+	protected void setUp() throws Exception {
+		this.root = File.createTempFile("thumbs", "");
+		this.root.delete();
+		this.root.mkdirs();
+
+		BufferedImage image = new BufferedImage(120, 80, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", bos);
+		final byte[] png = bos.toByteArray();
+
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/thumb", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				requests.incrementAndGet();
+				exchange.sendResponseHeaders(200, png.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(png);
+				os.close();
+			}
+		});
+		this.server.createContext("/broken", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// announced length is never sent
+				exchange.sendResponseHeaders(200, png.length);
+				exchange.getResponseBody().write(png, 0, 10);
+				exchange.close();
+			}
+		});
+		this.server.start();
+		this.client = new HarvestClient(1000, 1000, 2, false);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.server.stop(0);
+		IOUtils.cleanDirectory(this.root);
+		this.root.delete();
+	}
+
+	private String url(String context) {
+		return "http://localhost:" + this.server.getAddress().getPort() + "/" + context + "?uuid:" + UUID;
+	}
+
+	private File thumb() {
+		return new File(this.root, "localhost/0e/aa/67/" + UUID);
+	}
+
+	public void testIndex() throws IOException {
+		FileDataStore store = new FileDataStore(this.root, this.client);
+		Assert.assertEquals("120,80", store.dimensions(url("thumb")));
+		Assert.assertEquals("120,80", FileDataStore.readDimensions(thumb()));
+		Assert.assertEquals(1, this.requests.get());
+
+		// dimensions are taken from the index without the thumbnail
+		Assert.assertTrue(thumb().delete());
+		FileDataStore reopened = new FileDataStore(this.root, this.client);
+		Assert.assertEquals(1, reopened.size());
+		Assert.assertEquals("120,80", reopened.dimensions(url("thumb")));
+		Assert.assertEquals(1, this.requests.get());
+		Assert.assertFalse(thumb().exists());
+
+		// torn write
+		Files.write(new File(this.root, FileDataStore.INDEX_FILE).toPath(), "localhost/other\t12,3".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		Assert.assertEquals(1, new FileDataStore(this.root, this.client).size());
+	}
+
+	public void testBrokenDownload() {
+		FileDataStore store = new FileDataStore(this.root, this.client);
+		Assert.assertEquals("0,0", store.dimensions(url("broken")));
+		Assert.assertFalse(thumb().exists());
+		Assert.assertEquals(0, thumb().getParentFile().list().length);
+		Assert.assertEquals(0, store.size());
+	}
+}
@@ -0,0 +1,87 @@
+package cz.incad.xsl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Sort keys of the titles and authors of the solrxml.zip fixtures: previous key by key replacement
+ * and the precomputed table. Cost of the extension functions created by every transformation (exts:new()):
+ * loading unicode_map.st per instance (previous behaviour) and the shared collation.
+ * <p>
+ * Run by {@link #main(String[])} from the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UTFSortBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Fixtures {
+
+		private UTFSort sort;
+		private List<String> keys;
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			this.sort = new UTFSort();
+			this.sort.init();
+			this.keys = UTFSortTest.sortKeys();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private int index = 0;
+
+		String next(Fixtures fixtures) {
+			String key = fixtures.keys.get(this.index);
+			this.index = (this.index + 1) % fixtures.keys.size();
+			return key;
+		}
+	}
+
+	@Benchmark
+	public String legacy(Fixtures fixtures, Cursor cursor) {
+		return UTFSortTest.legacyTranslate(fixtures.sort, cursor.next(fixtures));
+	}
+
+	@Benchmark
+	public String table(Fixtures fixtures, Cursor cursor) {
+		return fixtures.sort.translate(cursor.next(fixtures));
+	}
+
+	@Benchmark
+	public UTFSort loadPerTransformation() throws IOException {
+		UTFSort sort = new UTFSort();
+		sort.init();
+		return sort;
+	}
+
+	@Benchmark
+	public XSLFunctions sharedPerTransformation() throws IOException {
+		return new XSLFunctions();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(UTFSortBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,104 @@
+package cz.incad.xsl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import cz.incad.cdk.cdkharvester.ZipIteration;
+import cz.incad.kramerius.utils.IOUtils;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class UTFSortTest extends TestCase {
+
+	public void testGolden() throws Exception {
+		UTFSort sort = new UTFSort();
+		sort.init();
+		List<String> keys = sortKeys();
+		Assert.assertFalse(keys.isEmpty());
+		for (String key : keys) {
+			Assert.assertEquals(key, legacyTranslate(sort, key), sort.translate(key));
+		}
+		// every mapped character and its neighbours
+		StringBuilder all = new StringBuilder(" ch Ch CH ");
+		for (char c = 0; c < 0x400; c++) {
+			all.append(c);
+		}
+		all.append(" ČHRUDIM éèê ");
+		Assert.assertEquals(legacyTranslate(sort, all.toString()), sort.translate(all.toString()));
+	}
+
+	public void testCzech() throws IOException {
+		UTFSort sort = new UTFSort();
+		sort.init();
+		Assert.assertEquals("DROBNUSTKY", sort.translate("Drobnůstky"));
+		Assert.assertEquals(legacyTranslate(sort, "Chrudim, Řehoř Šťastný"), sort.translate("Chrudim, Řehoř Šťastný"));
+		Assert.assertEquals("", sort.translate(""));
+	}
+
+	public void testInstance() throws Exception {
+		UTFSort shared = UTFSort.getInstance();
+		Assert.assertSame(shared, UTFSort.getInstance());
+		Assert.assertSame(shared, new XSLFunctions().utf_sort);
+		Assert.assertEquals("DROBNUSTKY", new XSLFunctions().prepareCzech("Drobnůstky"));
+		try {
+			shared.maps.put("0041", "");
+			Assert.fail("collation must not be modified");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Previous implementation; applies the map key by key
+	 */
+	static String legacyTranslate(UTFSort sort, String old) {
+		String newStr = old;
+		for (Map.Entry<String, String> e : sort.maps.entrySet()) {
+			newStr = newStr.replace((char) Integer.parseInt(e.getKey(), 16) + "", e.getValue());
+		}
+		return newStr.replace("CH", "H|").trim();
+	}
+
+	/**
+	 * Returns titles and authors (input of browse_title and browse_autor) of the solrxml.zip fixtures
+	 */
+	static List<String> sortKeys() throws IOException, ParserConfigurationException, XPathExpressionException {
+		final DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+		final XPathExpression expr = XPathFactory.newInstance().newXPath()
+				.compile("//doc/str[@name='dc.title'] | //doc/arr[@name='dc.creator']/str");
+		final List<String> keys = new ArrayList<>();
+		new ZipIteration().iterateSOLRXML(new ZipIteration.ZipIterationCall() {
+			@Override
+			public void onIterate(String name, String pid, ZipInputStream stream) throws IOException {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				IOUtils.copyStreams(stream, bos);
+				try {
+					NodeList nodes = (NodeList) expr.evaluate(builder.parse(new ByteArrayInputStream(bos.toByteArray())),
+							XPathConstants.NODESET);
+					for (int i = 0; i < nodes.getLength(); i++) {
+						keys.add(nodes.item(i).getTextContent());
+					}
+				} catch (SAXException | XPathExpressionException e) {
+					throw new IOException(e);
+				}
+			}
+		});
+		return keys;
+	}
+}